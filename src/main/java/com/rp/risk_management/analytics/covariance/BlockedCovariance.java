@@ -0,0 +1,246 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sample covariance matrix of a large universe of assets.
+ * <p>
+ * The returns are copied once into one contiguous, centred column per asset. Only the upper
+ * triangle is computed, in square tiles of assets small enough for both sets of columns to stay
+ * in cache, and the tiles are spread over a fork-join pool. Each cell is written by exactly one
+ * tile, so the result does not depend on the number of threads.
+ * <p>
+ * With missing returns each pair uses the dates both assets have, as the sample covariance of
+ * those dates. A pair sharing fewer than two dates has no estimate, <code>NaN</code>.
+ */
+public class BlockedCovariance implements CovarianceEstimator
+{
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    /** Number of multiply-adds below which a group of tiles is computed without forking. */
+    private static final long SEQUENTIAL_THRESHOLD = 1L << 20;
+
+    private final ForkJoinPool pool_;
+    private final int blockSize_;
+
+    public BlockedCovariance()
+    {
+        this(ForkJoinPool.commonPool(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param pool pool the tiles are computed in
+     * @param blockSize number of assets along each side of a tile
+     */
+    public BlockedCovariance(ForkJoinPool pool, int blockSize)
+    {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be positive ["+blockSize+"]");
+
+        pool_ = pool;
+        blockSize_ = blockSize;
+    }
+
+    @Override
+    public double[][] estimate(ReturnMatrix returns)
+    {
+        int numberOfAssets = returns.getNumberOfAssets();
+        int numberOfRows = returns.getNumberOfRows();
+        double[][] columns = centre(returns);
+        double[][] ret = new double[numberOfAssets][numberOfAssets];
+
+        int numberOfBlocks = (numberOfAssets + blockSize_ - 1) / blockSize_;
+        int[] tiles = new int[numberOfBlocks * (numberOfBlocks + 1)];
+        int k = 0;
+        for (int blockX = 0; blockX < numberOfBlocks; blockX++)
+        {
+            for (int blockY = blockX; blockY < numberOfBlocks; blockY++)
+            {
+                tiles[k++] = blockX;
+                tiles[k++] = blockY;
+            }
+        }
+
+        TileTask task = new TileTask(columns, returns.hasMissing(), ret, blockSize_, tiles, 0, tiles.length / 2,
+                Math.max(1, SEQUENTIAL_THRESHOLD / ((long) blockSize_ * blockSize_ * Math.max(1, numberOfRows))));
+        if (tiles.length > 2)
+            pool_.invoke(task);
+        else
+            task.compute();
+        return ret;
+    }
+
+    /**
+     * @return one column per asset, less the mean of its present returns
+     */
+    static double[][] centre(ReturnMatrix returns)
+    {
+        int numberOfAssets = returns.getNumberOfAssets();
+        int numberOfRows = returns.getNumberOfRows();
+        double[][] columns = new double[numberOfAssets][numberOfRows];
+        double[] row = new double[numberOfAssets];
+        for (int i = 0; i < numberOfRows; i++)
+        {
+            returns.getRow(i, row);
+            for (int x = 0; x < numberOfAssets; x++)
+                columns[x][i] = row[x];
+        }
+
+        for (double[] column : columns)
+        {
+            double sum = 0.0;
+            int present = 0;
+            for (double value : column)
+            {
+                if (!Double.isNaN(value))
+                {
+                    sum += value;
+                    present++;
+                }
+            }
+            double mean = present == 0 ? 0.0 : sum / present;
+            for (int i = 0; i < numberOfRows; i++)
+                column[i] -= mean;
+        }
+        return columns;
+    }
+
+    private static class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] columns_;
+        private final boolean missing_;
+        private final double[][] result_;
+        private final int blockSize_;
+        /** Pairs of block indices, x then y. */
+        private final int[] tiles_;
+        private final int from_;
+        private final int to_;
+        private final long tilesPerTask_;
+
+        private TileTask(double[][] columns, boolean missing, double[][] result, int blockSize, int[] tiles, int from, int to,
+                         long tilesPerTask)
+        {
+            columns_ = columns;
+            missing_ = missing;
+            result_ = result;
+            blockSize_ = blockSize;
+            tiles_ = tiles;
+            from_ = from;
+            to_ = to;
+            tilesPerTask_ = tilesPerTask;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to_ - from_ > tilesPerTask_)
+            {
+                int middle = (from_ + to_) >>> 1;
+                invokeAll(new TileTask(columns_, missing_, result_, blockSize_, tiles_, from_, middle, tilesPerTask_),
+                          new TileTask(columns_, missing_, result_, blockSize_, tiles_, middle, to_, tilesPerTask_));
+                return;
+            }
+
+            for (int tile = from_; tile < to_; tile++)
+                computeTile(tiles_[2 * tile], tiles_[2 * tile + 1]);
+        }
+
+        private void computeTile(int blockX, int blockY)
+        {
+            int endX = Math.min(columns_.length, (blockX + 1) * blockSize_);
+            int endY = Math.min(columns_.length, (blockY + 1) * blockSize_);
+            for (int x = blockX * blockSize_; x < endX; x++)
+            {
+                double[] columnX = columns_[x];
+                int y = blockX == blockY ? x : blockY * blockSize_;
+                if (!missing_)
+                {
+                    // four independent sums share each load of column x
+                    for (; y + 3 < endY; y += 4)
+                        covariance4(columnX, x, y);
+                }
+                for (; y < endY; y++)
+                {
+                    set(x, y, missing_ ? covarianceOfPresent(columnX, columns_[y])
+                                       : covariance(columnX, columns_[y]));
+                }
+            }
+        }
+
+        private void covariance4(double[] columnX, int x, int y)
+        {
+            double[] columnY0 = columns_[y];
+            double[] columnY1 = columns_[y + 1];
+            double[] columnY2 = columns_[y + 2];
+            double[] columnY3 = columns_[y + 3];
+            double sum0 = 0.0;
+            double sum1 = 0.0;
+            double sum2 = 0.0;
+            double sum3 = 0.0;
+            for (int i = 0; i < columnX.length; i++)
+            {
+                double value = columnX[i];
+                sum0 += value * columnY0[i];
+                sum1 += value * columnY1[i];
+                sum2 += value * columnY2[i];
+                sum3 += value * columnY3[i];
+            }
+            set(x, y, divide(sum0, columnX.length - 1));
+            set(x, y + 1, divide(sum1, columnX.length - 1));
+            set(x, y + 2, divide(sum2, columnX.length - 1));
+            set(x, y + 3, divide(sum3, columnX.length - 1));
+        }
+
+        private void set(int x, int y, double covariance)
+        {
+            result_[x][y] = covariance;
+            result_[y][x] = covariance;
+        }
+    }
+
+    private static double covariance(double[] columnX, double[] columnY)
+    {
+        double sum = 0.0;
+        for (int i = 0; i < columnX.length; i++)
+            sum += columnX[i] * columnY[i];
+        return divide(sum, columnX.length - 1);
+    }
+
+    /**
+     * The columns are centred on the mean of all their present returns, not of the dates shared by
+     * the pair, which the sums correct for.
+     */
+    private static double covarianceOfPresent(double[] columnX, double[] columnY)
+    {
+        double sumX = 0.0;
+        double sumY = 0.0;
+        double sumXY = 0.0;
+        int present = 0;
+        for (int i = 0; i < columnX.length; i++)
+        {
+            double valueX = columnX[i];
+            double valueY = columnY[i];
+            if (!Double.isNaN(valueX) && !Double.isNaN(valueY))
+            {
+                sumX += valueX;
+                sumY += valueY;
+                sumXY += valueX * valueY;
+                present++;
+            }
+        }
+        return present == 0 ? Double.NaN : divide(sumXY - sumX * sumY / present, present - 1);
+    }
+
+    /**
+     * @return NaN without enough returns for a sample covariance
+     */
+    private static double divide(double sum, int degreesOfFreedom)
+    {
+        return degreesOfFreedom > 0 ? sum / degreesOfFreedom : Double.NaN;
+    }
+}
@@ -0,0 +1,126 @@
+package com.rp.risk_management.analytics.covariance;
+
+import java.util.Arrays;
+
+/**
+ * Correlates draws with the lower triangular Cholesky factor of a covariance matrix, in
+ * O(N<sup>2</sup>/2) per scenario.
+ * <p>
+ * A block of scenarios is correlated tile by tile: a tile of the factor, at or below the diagonal,
+ * stays in cache while it is applied to a block of scenarios, four at a time so that every element
+ * of the factor read serves four scenarios. Each sum still adds its terms in column order, so the
+ * results are the same as scenario by scenario.
+ */
+public class CholeskyCorrelator implements DrawCorrelator
+{
+    /** Rows and columns of a tile of the factor. */
+    static final int ASSET_BLOCK = 128;
+    /** Scenarios a tile is applied to while it is in cache. */
+    static final int SCENARIO_BLOCK = 32;
+
+    private final int numberOfAssets_;
+    /** Lower triangle, row x holds columns 0..x. */
+    private final double[] packed_;
+
+    /**
+     * @param lowerTriangular Cholesky factor L of the covariance, only its lower triangle is read
+     */
+    public CholeskyCorrelator(double[][] lowerTriangular)
+    {
+        numberOfAssets_ = lowerTriangular.length;
+        packed_ = new double[numberOfAssets_ * (numberOfAssets_ + 1) / 2];
+        int k = 0;
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            if (lowerTriangular[x].length != numberOfAssets_)
+                throw new IllegalArgumentException("Expected a square matrix, row ["+x+"] has ["+lowerTriangular[x].length+"] columns");
+            for (int y = 0; y <= x; y++)
+                packed_[k++] = lowerTriangular[x][y];
+        }
+    }
+
+    @Override
+    public int getNumberOfAssets() {
+        return numberOfAssets_;
+    }
+
+    @Override
+    public int getNumberOfDraws() {
+        return numberOfAssets_;
+    }
+
+    @Override
+    public void correlate(double[] draws, double[] out)
+    {
+        int k = 0;
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            double sum = 0.0;
+            for (int y = 0; y <= x; y++)
+                sum += packed_[k++] * draws[y];
+            out[x] = sum;
+        }
+    }
+
+    @Override
+    public void correlate(double[] draws, double[] out, int numberOfScenarios)
+    {
+        int n = numberOfAssets_;
+        Arrays.fill(out, 0, numberOfScenarios * n, 0.0);
+        for (int s0 = 0; s0 < numberOfScenarios; s0 += SCENARIO_BLOCK)
+        {
+            int s1 = Math.min(numberOfScenarios, s0 + SCENARIO_BLOCK);
+            // column tiles in order, so every sum adds its terms in column order
+            for (int y0 = 0; y0 < n; y0 += ASSET_BLOCK)
+            {
+                int y1 = Math.min(n, y0 + ASSET_BLOCK);
+                for (int x0 = y0; x0 < n; x0 += ASSET_BLOCK)
+                    correlateTile(draws, out, s0, s1, x0, Math.min(n, x0 + ASSET_BLOCK), y0, y1);
+            }
+        }
+    }
+
+    /**
+     * Adds the products of rows [x0, x1) and columns [y0, y1) of the factor to scenarios [s0, s1).
+     */
+    private void correlateTile(double[] draws, double[] out, int s0, int s1, int x0, int x1, int y0, int y1)
+    {
+        int n = numberOfAssets_;
+        int s = s0;
+        for (; s + 4 <= s1; s += 4)
+        {
+            int d0 = s * n, d1 = d0 + n, d2 = d1 + n, d3 = d2 + n;
+            for (int x = x0; x < x1; x++)
+            {
+                int end = Math.min(y1, x + 1);
+                int row = x * (x + 1) / 2;
+                double a0 = out[d0 + x], a1 = out[d1 + x], a2 = out[d2 + x], a3 = out[d3 + x];
+                for (int y = y0; y < end; y++)
+                {
+                    double l = packed_[row + y];
+                    a0 += l * draws[d0 + y];
+                    a1 += l * draws[d1 + y];
+                    a2 += l * draws[d2 + y];
+                    a3 += l * draws[d3 + y];
+                }
+                out[d0 + x] = a0;
+                out[d1 + x] = a1;
+                out[d2 + x] = a2;
+                out[d3 + x] = a3;
+            }
+        }
+        for (; s < s1; s++)
+        {
+            int d = s * n;
+            for (int x = x0; x < x1; x++)
+            {
+                int end = Math.min(y1, x + 1);
+                int row = x * (x + 1) / 2;
+                double a = out[d + x];
+                for (int y = y0; y < end; y++)
+                    a += packed_[row + y] * draws[d + y];
+                out[d + x] = a;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+
+/**
+ * Estimates the covariance matrix of the returns of several assets.
+ */
+public interface CovarianceEstimator
+{
+    /**
+     * @param returns date-aligned returns, one column per asset
+     * @return a symmetric matrix where the [x][y] location is the covariance between asset x and asset y
+     */
+    double[][] estimate(ReturnMatrix returns);
+}
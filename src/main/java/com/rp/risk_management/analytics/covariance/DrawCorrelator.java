@@ -0,0 +1,39 @@
+package com.rp.risk_management.analytics.covariance;
+
+/**
+ * Turns independent standard normal draws into draws with a given covariance, through a matrix A
+ * where A * A<sup>T</sup> is the covariance.
+ */
+public interface DrawCorrelator
+{
+    int getNumberOfAssets();
+
+    /**
+     * @return number of independent draws a scenario needs, the number of columns of A
+     */
+    int getNumberOfDraws();
+
+    /**
+     * @param draws <code>getNumberOfDraws()</code> independent standard normal draws
+     * @param out receives the <code>getNumberOfAssets()</code> correlated draws
+     */
+    void correlate(double[] draws, double[] out);
+
+    /**
+     * Correlates a block of scenarios in one call, each laid out contiguously, so that
+     * implementations can reuse their factor across the scenarios.
+     * @param draws <code>numberOfScenarios * getNumberOfDraws()</code> draws, scenario by scenario
+     * @param out receives <code>numberOfScenarios * getNumberOfAssets()</code> correlated draws, scenario by scenario
+     */
+    default void correlate(double[] draws, double[] out, int numberOfScenarios)
+    {
+        double[] scenarioDraws = new double[getNumberOfDraws()];
+        double[] scenarioOut = new double[getNumberOfAssets()];
+        for (int scenario = 0; scenario < numberOfScenarios; scenario++)
+        {
+            System.arraycopy(draws, scenario * scenarioDraws.length, scenarioDraws, 0, scenarioDraws.length);
+            correlate(scenarioDraws, scenarioOut);
+            System.arraycopy(scenarioOut, 0, out, scenario * scenarioOut.length, scenarioOut.length);
+        }
+    }
+}
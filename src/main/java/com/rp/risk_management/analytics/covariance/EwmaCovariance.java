@@ -0,0 +1,146 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import com.rp.risk_management.analytics.volatility.EwmaVolatility;
+
+import java.util.Arrays;
+
+/**
+ * Online EWMA (RiskMetrics) covariance matrix.
+ * <p>
+ * covariance = lambda * previousCovariance + ( 1 - lambda ) * returns * returns<sup>T</sup>
+ * <p>
+ * A new day of returns is absorbed by {@link #update(double[])} as a rank-one update of the upper
+ * triangle, packed row by row into a single array, in O(N<sup>2</sup>) with no allocation.
+ * The first day seeds the matrix with its outer product. {@link #estimate(ReturnMatrix)} replays a
+ * history, after which daily updates keep the estimate current; models can then read it with
+ * <code>returns -&gt; ewmaCovariance.snapshot()</code>.
+ * <p>
+ * Returns that are <code>NaN</code> leave the pairs they belong to unchanged. Not thread-safe.
+ */
+public class EwmaCovariance implements CovarianceEstimator
+{
+    private final int numberOfAssets_;
+    private final double lambda_;
+    /** Upper triangle, row x holds the covariances with assets x..N-1. */
+    private final double[] packed_;
+    /** Returns of the update being applied, scaled by 1 - lambda. */
+    private final double[] scaled_;
+    private long count_;
+
+    public EwmaCovariance(int numberOfAssets)
+    {
+        this(numberOfAssets, EwmaVolatility.DEFAULT_LAMBDA);
+    }
+
+    /**
+     * @param numberOfAssets size of the matrix
+     * @param lambda decay factor, in (0, 1)
+     */
+    public EwmaCovariance(int numberOfAssets, double lambda)
+    {
+        if (numberOfAssets < 1)
+            throw new IllegalArgumentException("Number of assets must be positive ["+numberOfAssets+"]");
+        if (!(lambda > 0 && lambda < 1))
+            throw new IllegalArgumentException("Lambda must be in (0, 1) ["+lambda+"]");
+
+        numberOfAssets_ = numberOfAssets;
+        lambda_ = lambda;
+        packed_ = new double[numberOfAssets * (numberOfAssets + 1) / 2];
+        scaled_ = new double[numberOfAssets];
+    }
+
+    /**
+     * Absorbs the next day of returns, which must be more recent than every day absorbed so far.
+     * @param returns the return of every asset on the day
+     */
+    public void update(double[] returns)
+    {
+        if (returns.length != numberOfAssets_)
+            throw new IllegalArgumentException("Expected ["+numberOfAssets_+"] returns, not ["+returns.length+"]");
+
+        double lambda = count_ == 0 ? 0.0 : lambda_;
+        double weight = count_ == 0 ? 1.0 : 1 - lambda_;
+        for (int x = 0; x < numberOfAssets_; x++)
+            scaled_[x] = weight * returns[x];
+
+        int k = 0;
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            double scaled = scaled_[x];
+            for (int y = x; y < numberOfAssets_; y++, k++)
+            {
+                double value = lambda * packed_[k] + scaled * returns[y];
+                if (!Double.isNaN(value))
+                    packed_[k] = value;
+            }
+        }
+        count_++;
+    }
+
+    /**
+     * Restarts from the history of returns, oldest date first.
+     * @return a snapshot of the estimate
+     */
+    @Override
+    public double[][] estimate(ReturnMatrix returns)
+    {
+        if (returns.getNumberOfAssets() != numberOfAssets_)
+            throw new IllegalArgumentException("Expected ["+numberOfAssets_+"] assets, not ["+returns.getNumberOfAssets()+"]");
+
+        reset();
+        double[] row = new double[numberOfAssets_];
+        for (int i = returns.getNumberOfRows() - 1; i >= 0; i--)
+            update(returns.getRow(i, row));
+        return snapshot();
+    }
+
+    public double getCovariance(int x, int y)
+    {
+        if (x > y)
+            return getCovariance(y, x);
+        if (x < 0 || y >= numberOfAssets_)
+            throw new IndexOutOfBoundsException("Assets ["+x+", "+y+"] outside matrix of ["+numberOfAssets_+"] assets");
+        return packed_[x * numberOfAssets_ - x * (x - 1) / 2 + (y - x)];
+    }
+
+    public double getVariance(int x)
+    {
+        return getCovariance(x, x);
+    }
+
+    /**
+     * @return a copy of the full symmetric matrix
+     */
+    public double[][] snapshot()
+    {
+        double[][] ret = new double[numberOfAssets_][numberOfAssets_];
+        int k = 0;
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            for (int y = x; y < numberOfAssets_; y++, k++)
+            {
+                ret[x][y] = packed_[k];
+                ret[y][x] = packed_[k];
+            }
+        }
+        return ret;
+    }
+
+    public void reset()
+    {
+        Arrays.fill(packed_, 0.0);
+        count_ = 0;
+    }
+
+    public int getNumberOfAssets() {
+        return numberOfAssets_;
+    }
+
+    /**
+     * @return number of days absorbed since construction or the last reset
+     */
+    public long getCount() {
+        return count_;
+    }
+}
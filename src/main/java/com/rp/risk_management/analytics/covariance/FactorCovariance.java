@@ -0,0 +1,373 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Covariance of N assets explained by K statistical factors, the principal components of the
+ * returns:
+ * <p>
+ * covariance = B * B<sup>T</sup> + D
+ * <p>
+ * where B holds the loadings of every asset on the factors and D the variance left to each asset.
+ * It is positive semi-definite whatever the number of dates, and a scenario needs K + N draws and
+ * O(N*K) work to correlate instead of a Cholesky decomposition and O(N<sup>2</sup>) per scenario.
+ * <p>
+ * The components are found by subspace iteration on the centred returns, refined by Rayleigh-Ritz,
+ * without forming the N*N sample covariance. Missing returns count as the mean of their asset.
+ */
+public class FactorCovariance implements DrawCorrelator
+{
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    public static final double DEFAULT_TOLERANCE = 1e-10;
+
+    private final int numberOfAssets_;
+    private final int numberOfFactors_;
+    /** Row x holds the loadings of asset x on every factor. */
+    private final double[] loadings_;
+    private final double[] specificVariances_;
+    private final double[] specificVolatilities_;
+    private final double[] factorVariances_;
+
+    private FactorCovariance(double[] loadings, double[] specificVariances, double[] factorVariances)
+    {
+        numberOfAssets_ = specificVariances.length;
+        numberOfFactors_ = factorVariances.length;
+        loadings_ = loadings;
+        specificVariances_ = specificVariances;
+        factorVariances_ = factorVariances;
+        specificVolatilities_ = new double[numberOfAssets_];
+        for (int x = 0; x < numberOfAssets_; x++)
+            specificVolatilities_[x] = Math.sqrt(specificVariances[x]);
+    }
+
+    /**
+     * @param numberOfFactors number of principal components to keep, at most the number of assets
+     */
+    public static FactorCovariance fit(ReturnMatrix returns, int numberOfFactors)
+    {
+        return fit(returns, numberOfFactors, DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param maxIterations maximum number of subspace iterations
+     * @param tolerance relative change of every factor variance at which the iteration stops
+     */
+    public static FactorCovariance fit(ReturnMatrix returns, int numberOfFactors, int maxIterations, double tolerance)
+    {
+        int numberOfAssets = returns.getNumberOfAssets();
+        int numberOfRows = returns.getNumberOfRows();
+        if (numberOfFactors < 1 || numberOfFactors > numberOfAssets)
+            throw new IllegalArgumentException("Number of factors must be in [1, "+numberOfAssets+"] ["+numberOfFactors+"]");
+        if (numberOfRows < 2)
+            throw new IllegalArgumentException("Unable to fit factors to ["+numberOfRows+"] dates");
+
+        double[][] columns = BlockedCovariance.centre(returns);
+        for (double[] column : columns)
+        {
+            for (int t = 0; t < numberOfRows; t++)
+            {
+                if (Double.isNaN(column[t]))
+                    column[t] = 0.0;
+            }
+        }
+
+        // factors[k] is the k-th principal direction, start from a fixed random basis
+        double[][] factors = new double[numberOfFactors][numberOfAssets];
+        Random random = new Random(numberOfAssets);
+        for (double[] factor : factors)
+            for (int x = 0; x < numberOfAssets; x++)
+                factor[x] = random.nextGaussian();
+        double[] variances = orthonormalise(factors);
+
+        double[] scores = new double[numberOfRows];
+        for (int iteration = 0; iteration < maxIterations; iteration++)
+        {
+            for (double[] factor : factors)
+                multiply(columns, factor, scores);
+            double[] previous = variances;
+            variances = orthonormalise(factors);
+            if (iteration > 0 && hasConverged(previous, variances, tolerance))
+                break;
+        }
+
+        // Rayleigh-Ritz: the best directions within the subspace, from the eigenvectors of the
+        // K*K projection of the sample covariance
+        double[][] products = new double[numberOfFactors][];
+        for (int k = 0; k < numberOfFactors; k++)
+        {
+            products[k] = factors[k].clone();
+            multiply(columns, products[k], scores);
+        }
+        double[][] projection = new double[numberOfFactors][numberOfFactors];
+        for (int i = 0; i < numberOfFactors; i++)
+        {
+            for (int j = i; j < numberOfFactors; j++)
+            {
+                double dot = 0.0;
+                for (int x = 0; x < numberOfAssets; x++)
+                    dot += factors[i][x] * products[j][x];
+                projection[i][j] = dot;
+                projection[j][i] = dot;
+            }
+        }
+        double[][] rotation = diagonalise(projection);
+        factors = rotate(factors, rotation);
+        for (int k = 0; k < numberOfFactors; k++)
+            variances[k] = Math.max(0.0, projection[k][k]);
+
+        double[] loadings = new double[numberOfAssets * numberOfFactors];
+        double[] specificVariances = new double[numberOfAssets];
+        for (int x = 0; x < numberOfAssets; x++)
+        {
+            double explained = 0.0;
+            for (int k = 0; k < numberOfFactors; k++)
+            {
+                double loading = factors[k][x] * Math.sqrt(variances[k]);
+                loadings[x * numberOfFactors + k] = loading;
+                explained += loading * loading;
+            }
+            double variance = 0.0;
+            for (double value : columns[x])
+                variance += value * value;
+            specificVariances[x] = Math.max(0.0, variance / (numberOfRows - 1) - explained);
+        }
+        return new FactorCovariance(loadings, specificVariances, variances);
+    }
+
+    /**
+     * Replaces the vector with the sample covariance times the vector, as X<sup>T</sup> ( X v ) / ( T - 1 ).
+     * @param scores buffer of one element per date
+     */
+    private static void multiply(double[][] columns, double[] vector, double[] scores)
+    {
+        int numberOfRows = scores.length;
+        Arrays.fill(scores, 0.0);
+        for (int x = 0; x < columns.length; x++)
+        {
+            double[] column = columns[x];
+            double value = vector[x];
+            for (int t = 0; t < numberOfRows; t++)
+                scores[t] += column[t] * value;
+        }
+        for (int x = 0; x < columns.length; x++)
+        {
+            double[] column = columns[x];
+            double sum = 0.0;
+            for (int t = 0; t < numberOfRows; t++)
+                sum += column[t] * scores[t];
+            vector[x] = sum / (numberOfRows - 1);
+        }
+    }
+
+    /**
+     * Modified Gram-Schmidt. A vector in the span of the previous ones, as happens with fewer dates
+     * than factors, becomes zero.
+     * @return the norm of every vector before it was normalised
+     */
+    private static double[] orthonormalise(double[][] vectors)
+    {
+        double[] norms = new double[vectors.length];
+        for (int k = 0; k < vectors.length; k++)
+        {
+            double[] vector = vectors[k];
+            for (int j = 0; j < k; j++)
+            {
+                double dot = 0.0;
+                for (int x = 0; x < vector.length; x++)
+                    dot += vector[x] * vectors[j][x];
+                for (int x = 0; x < vector.length; x++)
+                    vector[x] -= dot * vectors[j][x];
+            }
+            double norm = 0.0;
+            for (double value : vector)
+                norm += value * value;
+            norm = Math.sqrt(norm);
+            norms[k] = norm;
+            for (int x = 0; x < vector.length; x++)
+                vector[x] = norm > 0 ? vector[x] / norm : 0.0;
+        }
+        return norms;
+    }
+
+    /**
+     * Cyclic Jacobi eigenvalue algorithm for a small symmetric matrix, which is left with its
+     * eigenvalues on the diagonal, largest first.
+     * @return the eigenvectors, as the columns of the matrix
+     */
+    private static double[][] diagonalise(double[][] matrix)
+    {
+        int size = matrix.length;
+        double[][] ret = new double[size][size];
+        for (int i = 0; i < size; i++)
+            ret[i][i] = 1.0;
+
+        for (int sweep = 0; sweep < 100; sweep++)
+        {
+            double offDiagonal = 0.0;
+            double diagonal = 0.0;
+            for (int i = 0; i < size; i++)
+            {
+                diagonal += matrix[i][i] * matrix[i][i];
+                for (int j = i + 1; j < size; j++)
+                    offDiagonal += matrix[i][j] * matrix[i][j];
+            }
+            if (offDiagonal <= 1e-30 * diagonal)
+                break;
+
+            for (int p = 0; p < size; p++)
+            {
+                for (int q = p + 1; q < size; q++)
+                {
+                    if (matrix[p][q] == 0.0)
+                        continue;
+                    double theta = (matrix[q][q] - matrix[p][p]) / (2 * matrix[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0.0)
+                        t = 1.0;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double sn = t * c;
+                    for (int k = 0; k < size; k++)
+                    {
+                        double kp = matrix[k][p];
+                        double kq = matrix[k][q];
+                        matrix[k][p] = c * kp - sn * kq;
+                        matrix[k][q] = sn * kp + c * kq;
+                    }
+                    for (int k = 0; k < size; k++)
+                    {
+                        double pk = matrix[p][k];
+                        double qk = matrix[q][k];
+                        matrix[p][k] = c * pk - sn * qk;
+                        matrix[q][k] = sn * pk + c * qk;
+                    }
+                    for (int k = 0; k < size; k++)
+                    {
+                        double kp = ret[k][p];
+                        double kq = ret[k][q];
+                        ret[k][p] = c * kp - sn * kq;
+                        ret[k][q] = sn * kp + c * kq;
+                    }
+                }
+            }
+        }
+
+        // selection sort of the eigenpairs, largest eigenvalue first
+        for (int i = 0; i < size; i++)
+        {
+            int largest = i;
+            for (int j = i + 1; j < size; j++)
+                if (matrix[j][j] > matrix[largest][largest])
+                    largest = j;
+            if (largest != i)
+            {
+                double value = matrix[i][i];
+                matrix[i][i] = matrix[largest][largest];
+                matrix[largest][largest] = value;
+                for (int k = 0; k < size; k++)
+                {
+                    double swap = ret[k][i];
+                    ret[k][i] = ret[k][largest];
+                    ret[k][largest] = swap;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the vectors combined by the columns of the rotation
+     */
+    private static double[][] rotate(double[][] vectors, double[][] rotation)
+    {
+        double[][] ret = new double[vectors.length][vectors[0].length];
+        for (int k = 0; k < vectors.length; k++)
+            for (int j = 0; j < vectors.length; j++)
+                for (int x = 0; x < vectors[0].length; x++)
+                    ret[k][x] += rotation[j][k] * vectors[j][x];
+        return ret;
+    }
+
+    private static boolean hasConverged(double[] previous, double[] current, double tolerance)
+    {
+        for (int k = 0; k < current.length; k++)
+            if (Math.abs(current[k] - previous[k]) > tolerance * Math.abs(current[k]))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int getNumberOfAssets() {
+        return numberOfAssets_;
+    }
+
+    public int getNumberOfFactors() {
+        return numberOfFactors_;
+    }
+
+    /**
+     * Draws are laid out as the K factors followed by the N assets.
+     */
+    @Override
+    public int getNumberOfDraws() {
+        return numberOfFactors_ + numberOfAssets_;
+    }
+
+    @Override
+    public void correlate(double[] draws, double[] out)
+    {
+        int k = 0;
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            double sum = specificVolatilities_[x] * draws[numberOfFactors_ + x];
+            for (int factor = 0; factor < numberOfFactors_; factor++)
+                sum += loadings_[k++] * draws[factor];
+            out[x] = sum;
+        }
+    }
+
+    public double getLoading(int asset, int factor)
+    {
+        return loadings_[asset * numberOfFactors_ + factor];
+    }
+
+    /**
+     * @return the variance of the factor, its eigenvalue of the sample covariance
+     */
+    public double getFactorVariance(int factor)
+    {
+        return factorVariances_[factor];
+    }
+
+    public double getSpecificVariance(int asset)
+    {
+        return specificVariances_[asset];
+    }
+
+    public double getCovariance(int x, int y)
+    {
+        double sum = x == y ? specificVariances_[x] : 0.0;
+        for (int factor = 0; factor < numberOfFactors_; factor++)
+            sum += loadings_[x * numberOfFactors_ + factor] * loadings_[y * numberOfFactors_ + factor];
+        return sum;
+    }
+
+    /**
+     * @return the full N*N matrix, for models that need it
+     */
+    public double[][] toMatrix()
+    {
+        double[][] ret = new double[numberOfAssets_][numberOfAssets_];
+        for (int x = 0; x < numberOfAssets_; x++)
+        {
+            for (int y = x; y < numberOfAssets_; y++)
+            {
+                ret[x][y] = getCovariance(x, y);
+                ret[y][x] = ret[x][y];
+            }
+        }
+        return ret;
+    }
+}
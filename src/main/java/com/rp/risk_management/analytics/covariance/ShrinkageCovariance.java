@@ -0,0 +1,127 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+
+/**
+ * Sample covariance shrunk towards a multiple of the identity:
+ * <p>
+ * covariance = shrinkage * averageVariance * I + ( 1 - shrinkage ) * sampleCovariance
+ * <p>
+ * Unlike the sample covariance, the result is positive definite, and well conditioned, even with
+ * more assets than dates, so it can always be decomposed. By default the shrinkage is the one of
+ * Ledoit and Wolf (2004, "A well-conditioned estimator for large-dimensional covariance matrices"),
+ * which minimises the expected squared error and costs O(N*T) on top of the sample covariance.
+ * <p>
+ * Missing returns count as the mean of their asset when estimating the shrinkage.
+ */
+public class ShrinkageCovariance implements CovarianceEstimator
+{
+    private final CovarianceEstimator sampleCovariance_;
+    /** Fixed shrinkage, or NaN to estimate it from the returns. */
+    private final double shrinkage_;
+    private volatile double lastShrinkage_ = Double.NaN;
+
+    /**
+     * Ledoit-Wolf shrinkage of the {@link BlockedCovariance} sample covariance.
+     */
+    public ShrinkageCovariance()
+    {
+        this(new BlockedCovariance(), Double.NaN);
+    }
+
+    /**
+     * @param shrinkage weight of the target, in [0, 1]
+     */
+    public ShrinkageCovariance(double shrinkage)
+    {
+        this(new BlockedCovariance(), shrinkage);
+        if (!(shrinkage >= 0 && shrinkage <= 1))
+            throw new IllegalArgumentException("Shrinkage must be in [0, 1] ["+shrinkage+"]");
+    }
+
+    private ShrinkageCovariance(CovarianceEstimator sampleCovariance, double shrinkage)
+    {
+        sampleCovariance_ = sampleCovariance;
+        shrinkage_ = shrinkage;
+    }
+
+    @Override
+    public double[][] estimate(ReturnMatrix returns)
+    {
+        double[][] ret = sampleCovariance_.estimate(returns);
+        int numberOfAssets = ret.length;
+
+        double averageVariance = 0.0;
+        for (int x = 0; x < numberOfAssets; x++)
+            averageVariance += ret[x][x];
+        averageVariance /= numberOfAssets;
+
+        double shrinkage = Double.isNaN(shrinkage_) ? getLedoitWolfShrinkage(returns, ret, averageVariance) : shrinkage_;
+        for (int x = 0; x < numberOfAssets; x++)
+        {
+            for (int y = 0; y < numberOfAssets; y++)
+                ret[x][y] *= 1 - shrinkage;
+            ret[x][x] += shrinkage * averageVariance;
+        }
+        lastShrinkage_ = shrinkage;
+        return ret;
+    }
+
+    /**
+     * @return the shrinkage of the last estimate, NaN before the first
+     */
+    public double getLastShrinkage()
+    {
+        return lastShrinkage_;
+    }
+
+    /**
+     * The estimator is defined on the covariance normalised by T rather than T - 1. With
+     * X the centred returns, the dispersion of the daily outer products around it reduces to
+     * <code>sum( |x<sub>t</sub>|<sup>4</sup> ) / T<sup>2</sup> - |S|<sup>2</sup> / T</code>,
+     * which needs a single pass over the returns.
+     */
+    private static double getLedoitWolfShrinkage(ReturnMatrix returns, double[][] sampleCovariance, double averageVariance)
+    {
+        int numberOfRows = returns.getNumberOfRows();
+        if (numberOfRows < 2)
+            return 1.0;
+
+        int numberOfAssets = sampleCovariance.length;
+        double scale = (numberOfRows - 1.0) / numberOfRows;
+        double mean = averageVariance * scale;
+
+        // |S|^2 and |S - mean * I|^2
+        double squaredNorm = 0.0;
+        double squaredDistance = 0.0;
+        for (int x = 0; x < numberOfAssets; x++)
+        {
+            for (int y = 0; y < numberOfAssets; y++)
+            {
+                double value = sampleCovariance[x][y] * scale;
+                squaredNorm += value * value;
+                double distance = x == y ? value - mean : value;
+                squaredDistance += distance * distance;
+            }
+        }
+        if (squaredDistance == 0.0)
+            return 1.0;
+
+        double[][] columns = BlockedCovariance.centre(returns);
+        double sumOfFourthPowers = 0.0;
+        for (int t = 0; t < numberOfRows; t++)
+        {
+            double squaredLength = 0.0;
+            for (double[] column : columns)
+            {
+                double value = column[t];
+                if (!Double.isNaN(value))
+                    squaredLength += value * value;
+            }
+            sumOfFourthPowers += squaredLength * squaredLength;
+        }
+        double dispersion = sumOfFourthPowers / ((double) numberOfRows * numberOfRows) - squaredNorm / numberOfRows;
+
+        return Math.max(0.0, Math.min(dispersion, squaredDistance) / squaredDistance);
+    }
+}
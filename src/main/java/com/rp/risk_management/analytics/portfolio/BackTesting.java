@@ -1,7 +1,7 @@
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.analytics.volatility.GarchFitter;
 import com.rp.risk_management.model.Portfolio;
-import com.rp.risk_management.util.QuoteHelper;
 import com.rp.risk_management.util.model.PortfolioUtil;
 
 import java.util.Arrays;
@@ -12,8 +12,11 @@ import java.util.Arrays;
 public class BackTesting
 {
 
+    /** Number of days to getOptionPrice VaR for testing, unless set. */
+    public static final int DEFAULT_NUMBER_OF_DAYS_TO_TEST = 100;
+
     /** Number of days to getOptionPrice VaR for testing. */
-    private final int NUMBER_OF_DAYS_TO_TEST = 100;
+    private final int numberOfDaysToTest_;
 
     /** Confidence level to getOptionPrice VaR for testing. */
     private final int confidence_;
@@ -23,15 +26,39 @@ public class BackTesting
     private Portfolio portfolio_;
     /** Model to use to estimate VaR for backtesting. */
     final private String model_;
+    /** Fits the GARCH parameters to the returns of each day, or null for the fixed parameters of {@link VarUtils}. */
+    private GarchFitter garchFitter_;
 
     public BackTesting( SimulationSetup setup )
     {
+        this( setup, DEFAULT_NUMBER_OF_DAYS_TO_TEST );
+    }
+
+    /**
+     * @param numberOfDaysToTest number of days to getOptionPrice VaR for, which the price history must exceed
+     */
+    public BackTesting( SimulationSetup setup, int numberOfDaysToTest )
+    {
+        if( numberOfDaysToTest < 1 )
+            throw new IllegalArgumentException( "Number of days to test must be positive ["+numberOfDaysToTest+"]" );
+        this.numberOfDaysToTest_ = numberOfDaysToTest;
         this.portfolio_ = setup.getPortfolio();
         this.confidence_ = setup.getConfidenceLevel();
         this.model_ = setup.getModel();
         this.timePeriod_ = setup.getTimeHorizon();
     }
 
+    /**
+     * Fits the GARCH(1,1) parameters of the model building and Monte Carlo backtests by maximum
+     * likelihood to the returns available on each day, each fit starting from the previous day's,
+     * instead of using fixed parameters.
+     * @param garchFitter the fitter, reused across the days, or null for the fixed parameters
+     */
+    public void setGarchFitter( GarchFitter garchFitter )
+    {
+        garchFitter_ = garchFitter;
+    }
+
     BackTestingResults backTestPortfolio()
     {
         BackTestingResults ret;
@@ -60,7 +87,8 @@ public class BackTesting
 
         ModelBuilding mb = new ModelBuilding(portfolio_, confidence_, timePeriod_);
 
-        double[] estimations = mb.computeForBackTesting(NUMBER_OF_DAYS_TO_TEST);
+        double[] estimations = garchFitter_ == null ? mb.computeForBackTesting(numberOfDaysToTest_)
+                                                    : mb.computeForBackTesting(numberOfDaysToTest_, garchFitter_::forecastVolatility);
         return compareEstimationsWithActualLosses_OneStock( estimations );
     }
 
@@ -68,14 +96,15 @@ public class BackTesting
     {
         HistoricalSimulation hs = new HistoricalSimulation(portfolio_, confidence_, timePeriod_);
 
-        double[] estimations = hs.estimateVaRForBackTestingOneStock(NUMBER_OF_DAYS_TO_TEST);
+        double[] estimations = hs.estimateVaRForBackTestingOneStock(numberOfDaysToTest_);
         return compareEstimationsWithActualLosses_OneStock( estimations );
     }
 
     private BackTestingResults backTestMonteCarloSimulation(double[][] stockValues)
     {
         MonteCarloSimulation mc = new MonteCarloSimulation(portfolio_, confidence_, 1 );
-        double[] estimations = mc.estimateVaRForBacktesting_OneStock(NUMBER_OF_DAYS_TO_TEST, stockValues );
+        double[] estimations = garchFitter_ == null ? mc.estimateVaRForBacktesting_OneStock(numberOfDaysToTest_, stockValues )
+                                                    : mc.estimateVaRForBacktesting_OneStock(numberOfDaysToTest_, stockValues, garchFitter_::forecastVolatility );
         return compareEstimationsWithActualLosses_OneStock( estimations);
 
     }
@@ -90,8 +119,8 @@ public class BackTesting
             throw new IllegalArgumentException("Only support for single stock within a portfolio_");
 
         double initialValue = PortfolioUtil.getAssetInvestment(portfolio_).get(0);
-        double[] allReturns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( PortfolioUtil.getStockQuotes(portfolio_).get(0) ));
-        int dayToStart = allReturns.length - 1 - NUMBER_OF_DAYS_TO_TEST;
+        double[] allReturns = ReturnSeriesCache.getInstance().getDailyReturns( PortfolioUtil.getStockQuotes(portfolio_).get(0) );
+        int dayToStart = allReturns.length - 1 - numberOfDaysToTest_;
 
         int position = dayToStart;
         int numberOfExceptions = 0;
@@ -99,7 +128,7 @@ public class BackTesting
         double[] returnsOverVarHorizon = VarUtils.getReturnsOverVarHorizon( returnsToUse,
                 timePeriod_);
         // reduce days as number of returns over time horizon decreases as time horizon grows
-        for(int day = 0; day < NUMBER_OF_DAYS_TO_TEST - (timePeriod_ - 1) ; day++ )
+        for(int day = 0; day < numberOfDaysToTest_ - (timePeriod_ - 1) ; day++ )
         {
             double actualLoss = initialValue
                                  - ( initialValue * Math.exp( returnsOverVarHorizon[day] ) );
@@ -111,7 +140,7 @@ public class BackTesting
             position++;
         }
 
-        int acceptableExceptions = (int) Math.floor( NUMBER_OF_DAYS_TO_TEST
+        int acceptableExceptions = (int) Math.floor( numberOfDaysToTest_
                                                      * ( 1 - ( ( (double) confidence_) / 100 ) ) );
 
         BackTestingResults results = new BackTestingResults();
@@ -7,15 +7,14 @@ import com.rp.risk_management.analytics.security.options.BinomialTree;
 import com.rp.risk_management.analytics.security.options.BlackScholes;
 import com.rp.risk_management.analytics.security.options.OptionPricer;
 import com.rp.risk_management.analytics.security.options.monte_carlo.MonteCarlo;
+import com.rp.risk_management.analytics.statistics.RollingPercentile;
 import com.rp.risk_management.model.Option;
 import com.rp.risk_management.model.Portfolio;
-import com.rp.risk_management.util.QuoteHelper;
 import com.rp.risk_management.util.model.PortfolioUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -72,7 +71,7 @@ public class HistoricalSimulation {
         else
         {
 
-            List<double[]> portfolioReturns = PortfolioUtil.getReturns(portfolio);
+            ReturnMatrix portfolioReturns = PortfolioUtil.getReturnMatrix(portfolio);
             return computeForMultipleStocks( portfolioReturns );
         }
 
@@ -101,7 +100,7 @@ public class HistoricalSimulation {
      */
     private double computeValueAtRisk_OneStock()
     {
-        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(PortfolioUtil.getStockQuotes(portfolio).get(0)));
+        double[] returns = ReturnSeriesCache.getInstance().getDailyReturns(PortfolioUtil.getStockQuotes(portfolio).get(0));
         return getVaROneStock( returns );
     }
     
@@ -112,8 +111,15 @@ public class HistoricalSimulation {
      */
     private double getVaROneStock( double[] returns )
     {
-        Arrays.sort( returns );
-        double percentile = VarUtils.getPercentile( returns, confidence );
+        return getVaROneStock( VarUtils.getPercentile( returns, confidence ) );
+    }
+
+    /**
+     * @param percentile return at the percentile relevant to the confidence level
+     * @return VaR of the asset for that return
+     */
+    private double getVaROneStock( double percentile )
+    {
         double var = portfolioValues.get( 0 )
                      - ( portfolioValues.get( 0 ) * Math.exp( percentile ) );
         return var;
@@ -123,36 +129,15 @@ public class HistoricalSimulation {
      * Computes VaR for multiple stocks.
      * @return final VaR
      */
-    private double computeForMultipleStocks( List<double[]> portfolioReturns )
+    private double computeForMultipleStocks( ReturnMatrix portfolioReturns )
     {
         double var = 0.0;
 
-        // should be the smallest of the lengths of the array of returns.
-        int[] lengthsOfReturns = new int[portfolioValues.size()];
-        for( double[] arr : portfolioReturns )
-        {
-            lengthsOfReturns[portfolioReturns.indexOf( arr )] = arr.length;
-        }
-        Arrays.sort( lengthsOfReturns );
-        int numberOfReturns = lengthsOfReturns[0];
+        int numberOfReturns = portfolioReturns.getNumberOfRows();
 
         logger_.debug( "\t Days of data from returns: " + numberOfReturns );
 
-        double[] possiblePortfolioValues = new double[numberOfReturns];
-
-        // calculate overall value for each previous return
-        for( int i = 0 ; i < numberOfReturns ; i++ )
-        {
-            double possibleChange = 0.0;
-            for( int n = 0 ; n < portfolioValues.size() ; n++ )
-            {
-                possibleChange += portfolioValues.get( n )
-                                  * Math.exp( portfolioReturns.get( n )[i] );
-            }
-            possiblePortfolioValues[i] = possibleChange;
-        }
-
-        Arrays.sort( possiblePortfolioValues );
+        double[] possiblePortfolioValues = getPossiblePortfolioValues( portfolioReturns );
 
         double valueAtPercentile = VarUtils.getPercentile( possiblePortfolioValues, confidence );
         double portfolioValue = 0.0;
@@ -165,12 +150,43 @@ public class HistoricalSimulation {
 
         double[]finalMaxVars = new double[2];
         finalMaxVars[0] = var;
-        double maxVar = portfolioValue - possiblePortfolioValues[0];
+        double maxVar = portfolioValue - VarUtils.getMinimum( possiblePortfolioValues );
         finalMaxVars[1] = maxVar;
 
         return var;
     }
 
+    /**
+     * Revalues the portfolio under each row of historical returns.
+     * @param portfolioReturns date-aligned returns, one column per investment
+     * @return the value of the portfolio for each row
+     */
+    private double[] getPossiblePortfolioValues( ReturnMatrix portfolioReturns )
+    {
+        int numberOfStocks = portfolioReturns.getNumberOfAssets();
+        int numberOfReturns = portfolioReturns.getNumberOfRows();
+        double[] returns = portfolioReturns.getData();
+        double[] investments = new double[numberOfStocks];
+        for( int n = 0 ; n < numberOfStocks ; n++ )
+        {
+            investments[n] = portfolioValues.get( n );
+        }
+
+        double[] possiblePortfolioValues = new double[numberOfReturns];
+
+        // calculate overall value for each previous return
+        for( int i = 0, row = 0 ; i < numberOfReturns ; i++, row += numberOfStocks )
+        {
+            double possibleChange = 0.0;
+            for( int n = 0 ; n < numberOfStocks ; n++ )
+            {
+                possibleChange += investments[n] * Math.exp( returns[row + n] );
+            }
+            possiblePortfolioValues[i] = possibleChange;
+        }
+        return possiblePortfolioValues;
+    }
+
     /** Computes VaR for portfolio. */
     private double[] computeForPortfolio()
     {
@@ -192,33 +208,9 @@ public class HistoricalSimulation {
 
         /***************** STOCKS *********************/
         // use previous functionality to getOptionPrice final prices of the portfolio and options
-        List<double[]> portfolioReturns = QuoteHelper.getReturnsFromQuotes( PortfolioUtil.getStockQuotes(portfolio) );
-        int numberOfStocks = portfolioReturns.size();
+        ReturnMatrix portfolioReturns = PortfolioUtil.getReturnMatrix(portfolio);
 
-        // should be the smallest of the lengths of the array of returns.
-        int[] lengthsOfReturns = new int[numberOfStocks];
-        for( double[] arr : portfolioReturns )
-        {
-            lengthsOfReturns[portfolioReturns.indexOf( arr )] = arr.length;
-        }
-        Arrays.sort( lengthsOfReturns );
-        int numberOfReturns = lengthsOfReturns[0];
-
-        double[] possiblePortfolioValues = new double[numberOfReturns];
-
-        // calculate overall value for each previous return
-        for( int i = 0 ; i < numberOfReturns ; i++ )
-        {
-            double possibleChange = 0.0;
-            for( int n = 0 ; n < numberOfStocks ; n++ )
-            {
-                possibleChange += portfolioValues.get( n )
-                                  * Math.exp( portfolioReturns.get( n )[i] );
-            }
-            possiblePortfolioValues[i] = possibleChange;
-        }
-
-        Arrays.sort( possiblePortfolioValues );
+        double[] possiblePortfolioValues = getPossiblePortfolioValues( portfolioReturns );
 
         double stocksValueAtPercentile = VarUtils.getPercentile( possiblePortfolioValues,
                                                                  confidence );
@@ -235,7 +227,7 @@ public class HistoricalSimulation {
         finalPortfolioValue = stocksValueAtPercentile + optionsFinalValue;
 
         double portfolioFinalVaR = initialPortFolioValue - finalPortfolioValue;
-        double portfolioMinValue = possiblePortfolioValues[0] + optionsMinValue;
+        double portfolioMinValue = VarUtils.getMinimum( possiblePortfolioValues ) + optionsMinValue;
         double portfolioMaxVaR = initialPortFolioValue - portfolioMinValue;
 
         double[]finalMaxVars = new double[2];
@@ -255,7 +247,7 @@ public class HistoricalSimulation {
     {
         double[] finalMinOptionsValue = new double[2];
         // get returns from file
-        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( option.getUnderlyingPrices() ));
+        double[] returns = ReturnSeriesCache.getInstance().getDailyReturns( option.getUnderlyingPrices() );
         int numberOfReturns = returns.length;
         List<Double> possibleOptionValues = new ArrayList<Double>();
         // getOptionPrice possible value change for each return in data
@@ -315,12 +307,9 @@ public class HistoricalSimulation {
         {
             values[i] = possibleOptionValues.get( i );
         }
-        // sort possible values
-        Arrays.sort( values );
-
         // select value from percentile
         double valueAtPercentile = VarUtils.getPercentile( values, confidence );
-        double minValue = values[0];
+        double minValue = VarUtils.getMinimum( values );
         finalMinOptionsValue = new double[] { valueAtPercentile, minValue };
         return finalMinOptionsValue;
     }
@@ -335,15 +324,23 @@ public class HistoricalSimulation {
         if ( portfolio.getPositions().size() != 1 && portfolio.getOptions() != null )
             throw new IllegalArgumentException("Expected exactly 1 non-option asset");
 
-        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(PortfolioUtil.getStockQuotes(portfolio).get(0)));
+        double[] returns = ReturnSeriesCache.getInstance().getDailyReturns(PortfolioUtil.getStockQuotes(portfolio).get(0));
         int numberOfReturnsToUse = returns.length - 1 - numberOfDaysToTest;
         double[] estimations = new double[numberOfDaysToTest];
 
+        // each day uses one more return, which adds one window over the horizon: compute every
+        // window once and keep the ones in use ranked, rather than copying and sorting each day
+        double[] returnsOverVarHorizon = VarUtils.getReturnsOverVarHorizon( VarUtils.getCumulativeReturns( returns ),
+                                                                            returns.length - 1, varHorizon );
+        RollingPercentile window = new RollingPercentile( returnsOverVarHorizon );
+        int numberOfWindows = 0;
         for( int day = 0 ; day < numberOfDaysToTest ; day++ )
         {
-            double[] returnsToUse = Arrays.copyOf( returns, numberOfReturnsToUse );
-            double[] returnsOverVarHorizon = VarUtils.getReturnsOverVarHorizon( returnsToUse, varHorizon );
-            estimations[day] = getVaROneStock( returnsOverVarHorizon );
+            for( ; numberOfWindows < numberOfReturnsToUse - varHorizon + 1 ; numberOfWindows++ )
+            {
+                window.add( returnsOverVarHorizon[numberOfWindows] );
+            }
+            estimations[day] = getVaROneStock( window.getPercentile( 100 - confidence ) );
             numberOfReturnsToUse++;
         }
 
@@ -3,13 +3,11 @@
  */
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.analytics.covariance.CovarianceEstimator;
 import com.rp.risk_management.marketdata.model.Quote;
 import com.rp.risk_management.model.Portfolio;
-import com.rp.risk_management.util.QuoteHelper;
 import com.rp.risk_management.util.model.PortfolioUtil;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,6 +28,8 @@ public class ModelBuilding
     private final double zDelta_;
     /** The number of assets currently held in this model. */
     private final int               numberOfStocks;
+    /** Estimates the covariance matrix of the returns, the sample covariance by default. */
+    private CovarianceEstimator covarianceEstimator_ = VarUtils::generateCovarianceMatrix;
 
     /**
      * Initialises a Model-Building VaR model using a portfolio.
@@ -48,21 +48,23 @@ public class ModelBuilding
         zDelta_ = computeZDelta();
     }
 
+    /**
+     * @param covarianceEstimator used instead of the sample covariance, e.g. an {@link com.rp.risk_management.analytics.covariance.EwmaCovariance}
+     */
+    public void setCovarianceEstimator(CovarianceEstimator covarianceEstimator)
+    {
+        covarianceEstimator_ = covarianceEstimator;
+    }
+
     /**
      * Method used to getOptionPrice VaR for multiple stocks by calculating the variance of the portfolio.
      * @return VaR
      */
     public double computeForMultipleStocks()
     {
-        ArrayList<double[]> returnList = new ArrayList<double[]>();
+        ReturnMatrix returns = ReturnMatrix.of( allStockQuotes_, ReturnMatrix.MissingDataPolicy.DROP );
 
-        for( List<Quote> stockQuotes : allStockQuotes_ )
-        {
-            double[] returnsFromFile = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( stockQuotes ));
-            returnList.add( returnsFromFile );
-        }
-
-        double portfolioVariance = getPortfolioVariance( returnList );
+        double portfolioVariance = getPortfolioVariance( returns );
 
         // VaR = stdDevUpperBound * volatilityOfPortfolio *
         // Math.sqrt(numberOfDays);
@@ -74,13 +76,12 @@ public class ModelBuilding
 
     /**
      * Computes the variance of a portfolio of assets by generating a covariance matrix.
-     * @param returnList a list of series of returns from stock file data
+     * @param returns date-aligned returns from stock file data
      * @return total variance of the portfolio.
      */
-    private double getPortfolioVariance( ArrayList<double[]> returnList )
+    private double getPortfolioVariance( ReturnMatrix returns )
     {
-        double[][] covarianceMatrix = VarUtils.generateCovarianceMatrix(
-                                                                         returnList, numberOfStocks );
+        double[][] covarianceMatrix = covarianceEstimator_.estimate( returns );
 
         double portfolioVariance = 0.0;
 
@@ -104,10 +105,23 @@ public class ModelBuilding
      * @return
      */
     double[] computeForBackTesting( int numberOfDaysToTest )
+    {
+        return computeForBackTesting( numberOfDaysToTest, VarUtils::computeVolatility_GARCH );
+    }
+
+    /**
+     * For one stock in portfolio.
+     * Same as {@link #computeForBackTesting(int)}, with the volatility of each day estimated by the given source,
+     * e.g. a {@link com.rp.risk_management.analytics.volatility.GarchFitter} refitted on each day.
+     * @param numberOfDaysToTest  The number of days to back test
+     * @param volatilitySource estimates the volatility from the returns available on each day
+     * @return
+     */
+    double[] computeForBackTesting( int numberOfDaysToTest, VolatilitySource volatilitySource )
     {
         if (portfolio_.getPositions().size() != 1 && portfolio_.getOptions() !=null)
             throw new IllegalArgumentException("Only support for a single non-option asset.");
-        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( PortfolioUtil.getStockQuotes(portfolio_).get(0) ));
+        double[] returns = ReturnSeriesCache.getInstance().getDailyReturns( PortfolioUtil.getStockQuotes(portfolio_).get(0) );
 
         int numberOfReturnsToUse = returns.length - 1 - numberOfDaysToTest;
         double portfolioValue = portfolioValues.get( 0 );
@@ -115,15 +129,14 @@ public class ModelBuilding
         // calculate one-day VaR for day+1 -> numberOfDaysToTest from returns to date
         for( int day = 0 ; day < numberOfDaysToTest ; day++ )
         {
-            double[] returnsToUse = Arrays.copyOf( returns, numberOfReturnsToUse );
-            double volatility = VarUtils.computeVolatility_GARCH( returnsToUse );
+            double volatility = volatilitySource.volatility( returns, numberOfReturnsToUse );
             estimations[day] = getVaR( volatility, portfolioValue );
             numberOfReturnsToUse++;
         }
 
         return estimations;
     }
-    
+
     /**
      * Computes VaR using the volatility and value of the portfolio.
      * @param volatility of the portfolio
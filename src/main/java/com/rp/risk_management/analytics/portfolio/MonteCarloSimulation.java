@@ -3,22 +3,33 @@
  */
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.analytics.covariance.CholeskyCorrelator;
+import com.rp.risk_management.analytics.covariance.CovarianceEstimator;
+import com.rp.risk_management.analytics.covariance.DrawCorrelator;
+import com.rp.risk_management.analytics.covariance.FactorCovariance;
 import com.rp.risk_management.analytics.security.options.monte_carlo.MonteCarlo;
 import com.rp.risk_management.analytics.security.options.monte_carlo.MonteCarloBinomialTree;
 import com.rp.risk_management.analytics.security.options.monte_carlo.MonteCarloBlackScholes;
+import com.rp.risk_management.analytics.security.options.monte_carlo.VarianceReduction;
+import com.rp.risk_management.analytics.security.options.monte_carlo.VarianceReductions;
+import com.rp.risk_management.analytics.simulation.GaussianSource;
+import com.rp.risk_management.analytics.simulation.GbmStepper;
+import com.rp.risk_management.analytics.simulation.ParallelMonteCarlo;
+import com.rp.risk_management.analytics.simulation.PathSummary;
+import com.rp.risk_management.analytics.simulation.TiltedGaussianSource;
+import com.rp.risk_management.analytics.simulation.ZigguratGaussianSource;
+import com.rp.risk_management.analytics.statistics.NormalQuantile;
 import com.rp.risk_management.marketdata.model.Quote;
 import com.rp.risk_management.model.Option;
 import com.rp.risk_management.model.Portfolio;
-import com.rp.risk_management.util.QuoteHelper;
 import com.rp.risk_management.util.model.PortfolioUtil;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Implementation of the Monte Carlo Simulation model for computing VaR and pricing options.
@@ -32,6 +43,9 @@ public class MonteCarloSimulation
     /** Number of days to simulate prices over and getOptionPrice VaR for. */
     public static final int DEFAULT_NUMBER_OF_SIMULATIONS = 1000;
 
+    /** Simulations revalued together, whose draws are correlated in one pass. */
+    private static final int SCENARIO_BATCH = ParallelMonteCarlo.PATHS_PER_PARTITION;
+
     /** List of investments in assets. */
     private final List<Double> portfolioValues_;
     /** List of historical stock price data, in same order as investments. */
@@ -43,9 +57,27 @@ public class MonteCarloSimulation
     /** Number of days to simulate prices over and getOptionPrice VaR for. */
     private final int timePeriod_;
     /** Number of simulations of stock prices, for Monte Carlo methods. */
-    private final int numberOfSimulations_ = DEFAULT_NUMBER_OF_SIMULATIONS;
+    private int numberOfSimulations_ = DEFAULT_NUMBER_OF_SIMULATIONS;
     /** The portfolio_ to getOptionPrice VaR for. */
     private final Portfolio portfolio_;
+    /** Estimates the covariance matrix of the returns, the sample covariance by default. */
+    private CovarianceEstimator covarianceEstimator_ = VarUtils::generateCovarianceMatrix;
+    /** Number of principal components correlating the assets, or 0 for the full covariance matrix. */
+    private int numberOfFactors_ = 0;
+    /** Runs the simulations in parallel and reproducibly, or null for the shared random generator. */
+    private ParallelMonteCarlo engine_;
+    /** How the draws are sampled when no engine is set, pseudo-random by default. */
+    private com.rp.risk_management.analytics.simulation.MonteCarlo.Sampling sampling_ = com.rp.risk_management.analytics.simulation.MonteCarlo.Sampling.PSEUDO_RANDOM;
+    /** Days a single stock is simulated on by exact GBM steps, or null for daily arithmetic steps. */
+    private int[] exactCheckpoints_;
+    /** Standard error of the VaR to simulate down to in batches, or 0 for a fixed number of simulations. */
+    private double standardErrorTolerance_ = 0.0;
+    /** Most simulations of an adaptive run. */
+    private int maximumNumberOfSimulations_ = DEFAULT_NUMBER_OF_SIMULATIONS;
+    /** Whether the draws are tilted towards the losses and the paths weighted by their likelihood ratio. */
+    private boolean importanceSampling_ = false;
+    /** Variance reduction of the revaluation of the options, none by default. */
+    private Set<VarianceReduction> optionVarianceReduction_ = EnumSet.noneOf(VarianceReduction.class);
 
     /**
      * Initialises a Monte Carlo simulation model using a portfolio_, confidence_ and time period for
@@ -65,6 +97,111 @@ public class MonteCarloSimulation
         this.timePeriod_ = timePeriod;
     }
 
+    /**
+     * @param covarianceEstimator used instead of the sample covariance, e.g. an {@link com.rp.risk_management.analytics.covariance.EwmaCovariance}
+     */
+    public void setCovarianceEstimator(CovarianceEstimator covarianceEstimator)
+    {
+        covarianceEstimator_ = covarianceEstimator;
+    }
+
+    /**
+     * Runs the simulations of prices and returns on a {@link ParallelMonteCarlo}, whose seed makes
+     * the results repeatable on any number of threads.
+     * @param engine the engine, or null for the shared random generator
+     */
+    public void setSimulationEngine(ParallelMonteCarlo engine)
+    {
+        engine_ = engine;
+    }
+
+    /**
+     * Samples the draws of the simulations by the given method, e.g. Sobol points, which need far
+     * fewer simulations for the same accuracy. Used when no simulation engine is set.
+     */
+    public void setSampling(com.rp.risk_management.analytics.simulation.MonteCarlo.Sampling sampling)
+    {
+        sampling_ = sampling;
+    }
+
+    /**
+     * Revalues the options with the given variance reduction, for the same precision from fewer paths.
+     * Antithetic paths come in pairs, so they need an even number of simulations.
+     */
+    public void setOptionVarianceReduction(Set<VarianceReduction> varianceReduction)
+    {
+        optionVarianceReduction_ = VarianceReductions.copyOf(varianceReduction);
+    }
+
+    /**
+     * Simulates a single stock by exact geometric Brownian motion steps to the given days, one draw
+     * each, instead of an arithmetic step every day. With the time period as the only checkpoint
+     * each simulation needs one draw; the maximum VaR is then monitored at the checkpoints only.
+     * @param checkpoints increasing days up to the time period, or none for daily arithmetic steps
+     */
+    public void setExactStepping(int... checkpoints)
+    {
+        if (checkpoints.length == 0)
+        {
+            exactCheckpoints_ = null;
+            return;
+        }
+        if (checkpoints[checkpoints.length - 1] != timePeriod_)
+            throw new IllegalArgumentException("The last checkpoint must be the time period ["+timePeriod_+"] ["+checkpoints[checkpoints.length - 1]+"]");
+        exactCheckpoints_ = checkpoints.clone();
+    }
+
+    public void setNumberOfSimulations(int numberOfSimulations)
+    {
+        if (numberOfSimulations < 1)
+            throw new IllegalArgumentException("Number of simulations must be positive ["+numberOfSimulations+"]");
+        numberOfSimulations_ = numberOfSimulations;
+    }
+
+    /**
+     * Simulates in batches of the number of simulations, rounded up to whole partitions of
+     * {@link ParallelMonteCarlo#PATHS_PER_PARTITION}, until the standard error of the final VaR is
+     * within the tolerance or the maximum number of simulations is reached. Simulations given to
+     * {@link #computeValueAtRiskForPortfolio(List)} are never extended.
+     * @param tolerance standard error to reach, in the currency of the portfolio, or 0 for a fixed number of simulations
+     * @param maximumNumberOfSimulations most simulations to run
+     */
+    public void setAdaptiveSimulation(double tolerance, int maximumNumberOfSimulations)
+    {
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException("Tolerance must not be negative ["+tolerance+"]");
+        if (maximumNumberOfSimulations < 1)
+            throw new IllegalArgumentException("Maximum number of simulations must be positive ["+maximumNumberOfSimulations+"]");
+        standardErrorTolerance_ = tolerance;
+        maximumNumberOfSimulations_ = maximumNumberOfSimulations;
+    }
+
+    /**
+     * Tilts the pseudo-random draws towards the losses at the confidence, and weights every path
+     * by its likelihood ratio for the final VaR, a weighted percentile. Most paths then land in
+     * the tail instead of one in a hundred at 99%, for a far smaller standard error from as many
+     * simulations. Simulations given to {@link #computeValueAtRiskForPortfolio(List)} are not
+     * weighted, and Sobol sampling is not combined with it. The maximum VaR is NaN: the worst of
+     * the tilted paths, pushed into the tail, says nothing of the worst untilted one.
+     */
+    public void setImportanceSampling(boolean importanceSampling)
+    {
+        importanceSampling_ = importanceSampling;
+    }
+
+    /**
+     * Correlates the assets with a {@link FactorCovariance} of that many factors instead of the
+     * Cholesky decomposition of the full covariance matrix. Each simulation then needs
+     * numberOfFactors + numberOfStocks draws.
+     * @param numberOfFactors number of factors, or 0 for the full covariance matrix
+     */
+    public void setNumberOfFactors(int numberOfFactors)
+    {
+        if (numberOfFactors < 0 || numberOfFactors > numberOfStocks_)
+            throw new IllegalArgumentException("Number of factors must be in [0, "+numberOfStocks_+"] ["+numberOfFactors+"]");
+        numberOfFactors_ = numberOfFactors;
+    }
+
     /**
      * @see MonteCarloSimulation#computeValueAtRiskForPortfolio(List)
      */
@@ -75,7 +212,8 @@ public class MonteCarloSimulation
 
     /**
      * Computes VaR for portfolio_ using Monte Carlo simulation and user-defined option pricing
-     * types.
+     * types. The options are revalued over the time period from as many simulations as the
+     * stocks, and the standard error of their values is added to that of the stocks in quadrature.
      * @param allSimulatedReturns Length of allSimulatedReturns must be <code>numberOfSimulations_</code> and the length of each element must be <code>portfolio_.size()</code>
      * @return an array containing final and max VaRs.
      */
@@ -85,7 +223,7 @@ public class MonteCarloSimulation
         double finalPortfolioValue = 0.0;
 
         MonteCarloResults monteCarloResults= computeForMultipleStocks( this.portfolioValues_,allSimulatedReturns);
-        double optionsFinalValue = 0.0, optionsMinValue = 0.0;
+        double optionsFinalValue = 0.0, optionsMinValue = 0.0, optionsVariance = 0.0;
         // take initial values of investments and options
         double initialOptionsValue = 0.0;
 
@@ -99,24 +237,21 @@ public class MonteCarloSimulation
             }
 
             for (Option o : options) {
-                double[] finalMinPrices = new double[2];
+                com.rp.risk_management.analytics.security.options.monte_carlo.MonteCarloResults optionResults;
                 switch (o.getOptionStyle()) {
                     case European:
-                        MonteCarloBlackScholes monteCarloBlackScholes = new MonteCarloBlackScholes(o);
-                        optionsFinalValue += monteCarloBlackScholes.getMonteCarloResults().finalValueOfOption_;
-                        optionsMinValue += monteCarloBlackScholes.getMonteCarloResults().minValueOfOption_;
+                        optionResults = new MonteCarloBlackScholes(o, null, numberOfSimulations_, timePeriod_, optionVarianceReduction_).getMonteCarloResults();
                         break;
                     case American:
-                        MonteCarloBinomialTree monteCarloBinomialTree = new MonteCarloBinomialTree(o);
-                        optionsFinalValue += monteCarloBinomialTree.getMonteCarloResults().finalValueOfOption_;
-                        optionsMinValue += monteCarloBinomialTree.getMonteCarloResults().minValueOfOption_;
+                        optionResults = new MonteCarloBinomialTree(o, numberOfSimulations_, timePeriod_, optionVarianceReduction_).getMonteCarloResults();
                         break;
                     default:
-                        MonteCarlo monteCarlo = new MonteCarlo(o);
-                        optionsFinalValue += monteCarlo.getMonteCarloResults().finalValueOfOption_;
-                        optionsMinValue += monteCarlo.getMonteCarloResults().minValueOfOption_;
+                        optionResults = new MonteCarlo(o, numberOfSimulations_, timePeriod_, optionVarianceReduction_).getMonteCarloResults();
                         break;
                 }
+                optionsFinalValue += optionResults.finalValueOfOption_;
+                optionsMinValue += optionResults.minValueOfOption_;
+                optionsVariance += optionResults.standardError_ * optionResults.standardError_;
             }
         }
 
@@ -126,7 +261,9 @@ public class MonteCarloSimulation
         double finalVaR = initialPortFolioValue - finalPortfolioValue;
         double maxVaR = initialPortFolioValue - minPortfolioValue;
 
-        return new MonteCarloResults(finalVaR, maxVaR);
+        double standardError = Math.sqrt(monteCarloResults.standardError * monteCarloResults.standardError + optionsVariance);
+
+        return new MonteCarloResults(finalVaR, maxVaR, standardError, monteCarloResults.numberOfSimulations);
     }
 
     /**
@@ -139,8 +276,7 @@ public class MonteCarloSimulation
         MonteCarloResults ret = null;
         if( numberOfStocks_ == 1 )
         {
-            double[] returnsFromFile = VarUtils.computeDailyReturns(QuoteHelper
-                                               .getClosingPrices( allStockQuotes_.get( 0 ) ));
+            double[] returnsFromFile = ReturnSeriesCache.getInstance().getDailyReturns( allStockQuotes_.get( 0 ) );
             double volatility = VarUtils.computeVolatility_EWMA( returnsFromFile );
             ret = computeForOneStock( portfolioValues_.get( 0 ), volatility );
         }
@@ -162,8 +298,7 @@ public class MonteCarloSimulation
 
     private MonteCarloResults computeForOneStock( double stockValue, double volatility)
     {
-        return computeForOneStock(stockValue,volatility,
-            com.rp.risk_management.analytics.simulation.MonteCarlo.simulatePrices( stockValue, volatility, numberOfSimulations_, timePeriod_));
+        return computeForOneStock(stockValue,volatility, null);
     }
 
     /**
@@ -176,41 +311,116 @@ public class MonteCarloSimulation
      */
     private MonteCarloResults computeForOneStock( double stockValue, double volatility, double[][] stockValues )
     {
+        // stock price from last day of each simulation, and the lowest
+        // stock price of each simulation for maximal VaR calculation
+        SimulatedValues values;
         if (stockValues != null)
         {
             assert stockValues.length == numberOfSimulations_;
             for (int i = 0; i < stockValues.length; i++)
                 assert stockValues[i].length == timePeriod_;
+
+            double[] finalValues = new double[stockValues.length];
+            double[] maximumLosses = new double[stockValues.length];
+            for(int sim = 0; sim < stockValues.length; sim++ )
+            {
+                finalValues[sim] = stockValues[sim][timePeriod_ - 1];
+                maximumLosses[sim] = VarUtils.getMinimum( stockValues[sim] );
+            }
+            values = new SimulatedValues( finalValues, maximumLosses, null, confidence_ );
         }
         else {
-            stockValues = com.rp.risk_management.analytics.simulation.MonteCarlo.simulatePrices(stockValue, volatility, numberOfSimulations_, timePeriod_);
+            values = simulate( (from, to, finalValues, minValues, weights) -> simulateOneStock( stockValue, volatility, from, to, finalValues, minValues, weights ), true );
         }
-        double[] finalValues = new double[numberOfSimulations_];
-        double[] maximumLosses = new double[numberOfSimulations_];
-        for(int sim = 0; sim < numberOfSimulations_; sim++ )
-        {
-            // store stock price from last day of each simulation
-            finalValues[sim] = stockValues[sim][timePeriod_ - 1];
-            // sort the stock prices of each simulation for maximal VaR
-            // calculation
-            Arrays.sort( stockValues[sim] );
-            maximumLosses[sim] = stockValues[sim][0];
-        }
-
-        // sort final losses for final VaR calculation
-        Arrays.sort( finalValues );
 
         // VaR computation using final stock values
-        double stockValueAtRequiredPercentile = VarUtils.getPercentile(
-                                                                        finalValues, confidence_);
+        double stockValueAtRequiredPercentile = values.getPercentile( confidence_ );
         double finalVaR = stockValue - stockValueAtRequiredPercentile;
 
         // maximum VaR during stock price path simulation
-        Arrays.sort( maximumLosses );
-        double maximumVaR = stockValue - maximumLosses[0];
+        double maximumVaR = stockValue - values.getMinimum( values.minValues_ );
         logger_.debug( "Monte Carlo VaR (1 stock - Maximum): "+ VarUtils.round( maximumVaR ) );
 
-        return new MonteCarloResults(finalVaR, maximumVaR);
+        return new MonteCarloResults(finalVaR, maximumVaR, values.standardError_, values.finalValues_.length);
+    }
+
+    /**
+     * Simulates a range of the paths of one stock.
+     * @param weights filled with the likelihood ratio of every path when importance sampling, otherwise null
+     */
+    private void simulateOneStock( double stockValue, double volatility, int from, int to, double[] finalValues, double[] minValues, double[] weights )
+    {
+        GbmStepper stepper = exactCheckpoints_ == null ? null : new GbmStepper(volatility, exactCheckpoints_);
+        double[] shifts = weights == null ? null : getOneStockTilt( stepper );
+        if (engine_ != null) {
+            engine_.forEachBlock(from, to, (first, end, random) ->
+                    simulateOneStock( random, shifts, stepper, stockValue, volatility, first, end, finalValues, minValues, weights ));
+        }
+        else if (weights != null || sampling_ == com.rp.risk_management.analytics.simulation.MonteCarlo.Sampling.PSEUDO_RANDOM) {
+            simulateOneStock( ZigguratGaussianSource.current(), shifts, stepper, stockValue, volatility, from, to, finalValues, minValues, weights );
+        }
+        else {
+            com.rp.risk_management.analytics.simulation.MonteCarlo.PathConsumer summaries = (sim, summary) -> {
+                finalValues[from + sim] = summary.getFinalValue();
+                minValues[from + sim] = summary.getMinimum();
+            };
+            if (stepper != null)
+                com.rp.risk_management.analytics.simulation.MonteCarlo.streamPrices(sampling_, stepper, stockValue, to - from, summaries);
+            else
+                com.rp.risk_management.analytics.simulation.MonteCarlo.streamPrices(sampling_, stockValue, volatility, to - from, timePeriod_, summaries);
+        }
+    }
+
+    /**
+     * Simulates paths of one stock from a source of draws, tilted by the shifts unless null.
+     * @param stepper exact steps, or null for daily arithmetic steps
+     */
+    private void simulateOneStock( GaussianSource gaussians, double[] shifts, GbmStepper stepper, double stockValue, double volatility,
+                                   int from, int to, double[] finalValues, double[] minValues, double[] weights )
+    {
+        TiltedGaussianSource tilted = shifts == null ? null : new TiltedGaussianSource(gaussians, shifts);
+        GaussianSource draws = tilted == null ? gaussians : tilted;
+        PathSummary summary = new PathSummary();
+        for (int path = from; path < to; path++)
+        {
+            if (tilted != null)
+                tilted.startPath();
+            if (stepper != null)
+                stepper.simulate(draws, stockValue, summary);
+            else
+                com.rp.risk_management.analytics.simulation.MonteCarlo.streamPrices(draws, stockValue, volatility, timePeriod_, summary);
+            finalValues[path] = summary.getFinalValue();
+            minValues[path] = summary.getMinimum();
+            if (tilted != null)
+                weights[path] = tilted.getLikelihoodRatio();
+        }
+    }
+
+    /**
+     * Shifts of the draws of a path of one stock that move its final value to the percentile of
+     * the confidence: the final log price is a sum of the draws, each scaled by the square root of
+     * its step, so each draw is shifted in proportion.
+     */
+    private double[] getOneStockTilt( GbmStepper stepper )
+    {
+        double quantile = NormalQuantile.inverseCumulativeProbability( 1 - confidence_ / 100.0 );
+        if (stepper == null)
+        {
+            double[] shifts = new double[timePeriod_];
+            Arrays.fill( shifts, quantile / Math.sqrt( timePeriod_ ) );
+            return shifts;
+        }
+
+        int[] checkpoints = stepper.getCheckpoints();
+        double horizon = checkpoints[checkpoints.length - 1];
+        double[] shifts = new double[checkpoints.length];
+        int previous = 0;
+        for (int i = 0; i < checkpoints.length; i++)
+        {
+            shifts[i] = quantile * Math.sqrt( ( checkpoints[i] - previous ) / horizon );
+            previous = checkpoints[i];
+        }
+        return shifts;
     }
 
     /**
@@ -235,82 +445,313 @@ public class MonteCarloSimulation
 
         }
 
-        List<double[]> returnList = new ArrayList<>();
+        DrawCorrelator correlator = getDrawCorrelator();
+        double[] investments = new double[numberOfStocks_];
+        for (int stock = 0; stock < numberOfStocks_; stock++)
+            investments[stock] = stockValues.get( stock );
 
-        for( List<Quote> stockQuotes : allStockQuotes_)
-        {
-            double[] returnsFromFile = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( stockQuotes ));
-            returnList.add( returnsFromFile );
-        }
-        double[][] covarianceMatrix = VarUtils.generateCovarianceMatrix(
-                                                                         returnList, numberOfStocks_);
-        double[][] decomposedMatrix = VarUtils
-                                              .decomposeMatrix( covarianceMatrix );
+        double[] shifts = importanceSampling_ && allSimulatedReturns == null ? getPortfolioTilt( correlator, investments ) : null;
+        SimulatedValues values = simulate( (from, to, finalValues, minValues, weights) ->
+                                                   simulatePortfolio( correlator, investments, allSimulatedReturns, shifts, from, to, finalValues, minValues, weights ),
+                                           allSimulatedReturns == null );
+        double[] portfolioFinalSimulatedValues = values.finalValues_;
+        double[] portfolioMinSimulatedValues = values.minValues_;
 
-        double[][] finalDayPrices = new double[numberOfStocks_][numberOfSimulations_];
-        double[][] maximumLosses = new double[numberOfStocks_][numberOfSimulations_];
+        double valueAtPercentile = values.getPercentile( confidence_ );
+
+        double portfolioValue = 0.0;
 
-        for (int iteration = 0; iteration < numberOfSimulations_; iteration++)
+        for( double stockValue : stockValues )
         {
-            // need to do this 1000 times, and then record the final prices and
-            // lowest prices (highest VaR)
-            com.rp.risk_management.analytics.simulation.MonteCarlo.SimulationResults simulatedReturnsIteration = (allSimulatedReturns== null? com.rp.risk_management.analytics.simulation.MonteCarlo.simulateReturns(numberOfStocks_, timePeriod_):allSimulatedReturns.get(iteration));
+            portfolioValue += stockValue;
+        }
 
-            double[] finalDayReturns = simulatedReturnsIteration.finalStockReturn;
-            double[] minReturns = simulatedReturnsIteration.minStockReturn;
+        double maximumVaR = portfolioValue - values.getMinimum( portfolioMinSimulatedValues );
+        logger_.debug( "Monte Carlo VaR (Portfolio - Maximum): "
+                            + VarUtils.round( maximumVaR ) );
 
-            RealMatrix L = MatrixUtils.createRealMatrix( decomposedMatrix );
+        return new MonteCarloResults(valueAtPercentile, values.getMinimum( portfolioFinalSimulatedValues ),
+                                     values.standardError_, portfolioFinalSimulatedValues.length);
 
-            double[] correlatedFinalReturns = L.operate( finalDayReturns );
-            double[] correlatedMinReturns = L.operate( minReturns );
+    }
 
-            for(int stock = 0; stock < numberOfStocks_; stock++ )
+    /**
+     * Simulates and revalues a range of the scenarios of the portfolio.
+     * @param allSimulatedReturns given returns of every simulation, or null to simulate them
+     * @param shifts tilt of the draws of a simulation, or null unless importance sampling
+     * @param weights filled with the likelihood ratio of every simulation when importance sampling, otherwise null
+     */
+    private void simulatePortfolio( DrawCorrelator correlator, double[] investments,
+                                    List<com.rp.risk_management.analytics.simulation.MonteCarlo.SimulationResults> allSimulatedReturns, double[] shifts,
+                                    int from, int to, double[] portfolioFinalSimulatedValues, double[] portfolioMinSimulatedValues, double[] weights )
+    {
+        if (allSimulatedReturns == null && engine_ != null)
+        {
+            engine_.forEachBlock( from, to, (first, end, random) -> {
+                ScenarioBuffer scenarios = new ScenarioBuffer( correlator, end - first );
+                scenarios.simulate( random, shifts, first, end, timePeriod_, weights );
+                scenarios.revalue( end - first, investments, first, portfolioFinalSimulatedValues, portfolioMinSimulatedValues );
+            } );
+            return;
+        }
+        if (allSimulatedReturns == null && ( shifts != null || sampling_ == com.rp.risk_management.analytics.simulation.MonteCarlo.Sampling.PSEUDO_RANDOM ))
+        {
+            ScenarioBuffer scenarios = new ScenarioBuffer( correlator, Math.min( SCENARIO_BATCH, to - from ) );
+            for (int first = from; first < to; first += SCENARIO_BATCH)
             {
-                // price = e^(return) * stockValue
-                finalDayPrices[stock][iteration] = Math
-                                                       .exp( correlatedFinalReturns[stock] )
-                                                   * stockValues.get( stock );
-                maximumLosses[stock][iteration] = Math
-                                                      .exp( correlatedMinReturns[stock] )
-                                                  * stockValues.get( stock );
+                int end = Math.min( to, first + SCENARIO_BATCH );
+                scenarios.simulate( ZigguratGaussianSource.current(), shifts, first, end, timePeriod_, weights );
+                scenarios.revalue( end - first, investments, first, portfolioFinalSimulatedValues, portfolioMinSimulatedValues );
             }
+            return;
+        }
+
+        // quasi-random returns are sampled for the range at once
+        List<com.rp.risk_management.analytics.simulation.MonteCarlo.SimulationResults> returns = allSimulatedReturns;
+        int firstReturn = 0;
+        if (returns == null)
+        {
+            returns = com.rp.risk_management.analytics.simulation.MonteCarlo.simulateReturns( sampling_, correlator.getNumberOfDraws(), timePeriod_, to - from );
+            firstReturn = from;
+        }
+
+        ScenarioBuffer scenarios = new ScenarioBuffer( correlator, Math.min( SCENARIO_BATCH, to - from ) );
+        for (int first = from; first < to; first += SCENARIO_BATCH)
+        {
+            int end = Math.min( to, first + SCENARIO_BATCH );
+            for (int iteration = first; iteration < end; iteration++)
+                scenarios.put( iteration - first, returns.get( iteration - firstReturn ) );
+            scenarios.revalue( end - first, investments, first, portfolioFinalSimulatedValues, portfolioMinSimulatedValues );
+        }
+    }
+
+    /**
+     * Simulates a range of the paths into the final and minimum values of each.
+     */
+    @FunctionalInterface
+    private interface SimulationBatch
+    {
+        /**
+         * @param weights filled with the likelihood ratio of every path when importance sampling, otherwise null
+         */
+        void simulate( int from, int to, double[] finalValues, double[] minValues, double[] weights );
+    }
+
+    /**
+     * Runs the number of simulations, or batches of it until the standard error of the VaR is
+     * within the tolerance when adaptive simulation is set. Only simulated paths, rather than given
+     * ones, are extended or importance sampled.
+     */
+    private SimulatedValues simulate( SimulationBatch batch, boolean simulated )
+    {
+        boolean weighted = simulated && importanceSampling_;
+        if (!simulated || standardErrorTolerance_ == 0.0)
+        {
+            double[] finalValues = new double[numberOfSimulations_];
+            double[] minValues = new double[numberOfSimulations_];
+            double[] weights = weighted ? new double[numberOfSimulations_] : null;
+            batch.simulate( 0, numberOfSimulations_, finalValues, minValues, weights );
+            return new SimulatedValues( finalValues, minValues, weights, confidence_ );
         }
 
-        double[] portfolioFinalSimulatedValues = new double[numberOfSimulations_];
-        double[] portfolioMinSimulatedValues = new double[numberOfSimulations_];
+        // whole partitions, so every batch of the engine starts a partition
+        int batchSize = ( numberOfSimulations_ + SCENARIO_BATCH - 1 ) / SCENARIO_BATCH * SCENARIO_BATCH;
+        double[] finalValues = new double[0];
+        double[] minValues = new double[0];
+        double[] weights = weighted ? new double[0] : null;
+        SimulatedValues values = null;
+        while (values == null || ( values.standardError_ > standardErrorTolerance_ && finalValues.length < maximumNumberOfSimulations_ ))
+        {
+            int from = finalValues.length;
+            int to = (int) Math.min( maximumNumberOfSimulations_, (long) from + batchSize );
+            finalValues = Arrays.copyOf( finalValues, to );
+            minValues = Arrays.copyOf( minValues, to );
+            if (weighted)
+                weights = Arrays.copyOf( weights, to );
+            batch.simulate( from, to, finalValues, minValues, weights );
+            values = new SimulatedValues( finalValues, minValues, weights, confidence_ );
+        }
+        logger_.debug( "Monte Carlo VaR standard error ["+values.standardError_+"] after ["+finalValues.length+"] simulations" );
+        return values;
+    }
+
+    /**
+     * Final and minimum values of every simulation, with the standard error of the percentile of the final ones.
+     */
+    private static class SimulatedValues
+    {
+        private final double[] finalValues_;
+        private final double[] minValues_;
+        /** Likelihood ratio of every simulation, or null when they are not weighted. */
+        private final double[] weights_;
+        private final double standardError_;
 
-        for(int sim = 0; sim < numberOfSimulations_; sim++ )
+        private SimulatedValues( double[] finalValues, double[] minValues, double[] weights, int confidence )
         {
-            double sumOfFinalStockValues = 0.0, sumOfMinStockValues = 0.0;
-            for(int stock = 0; stock < numberOfStocks_; stock++ )
+            finalValues_ = finalValues;
+            minValues_ = minValues;
+            weights_ = weights;
+            standardError_ = weights == null ? VarUtils.getPercentileStandardError( finalValues, confidence )
+                                             : VarUtils.getPercentileStandardError( finalValues, weights, confidence );
+        }
+
+        /**
+         * @return the final value at the percentile of the confidence, weighted when importance sampled
+         */
+        private double getPercentile( int confidence )
+        {
+            return weights_ == null ? VarUtils.getPercentile( finalValues_, confidence )
+                                    : VarUtils.getPercentile( finalValues_, weights_, confidence );
+        }
+
+        /**
+         * @return the lowest of the values, or NaN when importance sampled as the tilted paths overstate it
+         */
+        private double getMinimum( double[] values )
+        {
+            return weights_ == null ? VarUtils.getMinimum( values ) : Double.NaN;
+        }
+    }
+
+    /**
+     * Draws of a batch of simulations, laid out simulation by simulation, and their correlated
+     * returns. Reused from batch to batch, and correlated in one pass per batch.
+     */
+    private static class ScenarioBuffer
+    {
+        private final DrawCorrelator correlator_;
+        private final int numberOfDraws_;
+        private final int numberOfAssets_;
+        private final double[] finalDraws_;
+        private final double[] minDraws_;
+        private final double[] correlatedFinalReturns_;
+        private final double[] correlatedMinReturns_;
+
+        private ScenarioBuffer( DrawCorrelator correlator, int capacity )
+        {
+            correlator_ = correlator;
+            numberOfDraws_ = correlator.getNumberOfDraws();
+            numberOfAssets_ = correlator.getNumberOfAssets();
+            finalDraws_ = new double[capacity * numberOfDraws_];
+            minDraws_ = new double[capacity * numberOfDraws_];
+            correlatedFinalReturns_ = new double[capacity * numberOfAssets_];
+            correlatedMinReturns_ = new double[capacity * numberOfAssets_];
+        }
+
+        /**
+         * Simulates the draws of a range of simulations, the first at the start of the batch.
+         * @param shifts tilt of the draws of a simulation, or null
+         * @param weights filled with the likelihood ratio of every simulation when tilted
+         */
+        private void simulate( GaussianSource gaussians, double[] shifts,
+                               int from, int to, int timePeriod, double[] weights )
+        {
+            TiltedGaussianSource tilted = shifts == null ? null : new TiltedGaussianSource( gaussians, shifts );
+            for( int iteration = from; iteration < to; iteration++ )
             {
-                sumOfFinalStockValues += finalDayPrices[stock][sim];
-                sumOfMinStockValues += maximumLosses[stock][sim];
+                // need to do this 1000 times, and then record the final prices and
+                // lowest prices (highest VaR)
+                if( tilted != null )
+                    tilted.startPath();
+                com.rp.risk_management.analytics.simulation.MonteCarlo.simulateReturns( tilted == null ? gaussians : tilted, numberOfDraws_, timePeriod,
+                                                                                        minDraws_, finalDraws_, ( iteration - from ) * numberOfDraws_ );
+                if( tilted != null )
+                    weights[iteration] = tilted.getLikelihoodRatio();
             }
-            portfolioFinalSimulatedValues[sim] = sumOfFinalStockValues;
-            portfolioMinSimulatedValues[sim] = sumOfMinStockValues;
         }
 
-        Arrays.sort( portfolioFinalSimulatedValues );
+        /**
+         * Stores given draws for the simulation at a position of the batch.
+         */
+        private void put( int position, com.rp.risk_management.analytics.simulation.MonteCarlo.SimulationResults simulatedReturns )
+        {
+            if( simulatedReturns.finalStockReturn.length != numberOfDraws_ )
+                throw new IllegalArgumentException( "Expected ["+numberOfDraws_+"] draws per simulation, not ["+simulatedReturns.finalStockReturn.length+"]" );
+            System.arraycopy( simulatedReturns.finalStockReturn, 0, finalDraws_, position * numberOfDraws_, numberOfDraws_ );
+            System.arraycopy( simulatedReturns.minStockReturn, 0, minDraws_, position * numberOfDraws_, numberOfDraws_ );
+        }
 
-        double valueAtPercentile = VarUtils.getPercentile(
-                                                           portfolioFinalSimulatedValues,
-                confidence_);
+        /**
+         * Values the portfolio at the final and minimum returns of the first simulations of the batch.
+         * @param firstIteration index of the first simulation of the batch, where its values are stored
+         */
+        private void revalue( int numberOfSimulations, double[] investments, int firstIteration,
+                              double[] portfolioFinalSimulatedValues, double[] portfolioMinSimulatedValues )
+        {
+            correlator_.correlate( finalDraws_, correlatedFinalReturns_, numberOfSimulations );
+            correlator_.correlate( minDraws_, correlatedMinReturns_, numberOfSimulations );
 
-        double portfolioValue = 0.0;
+            for( int position = 0; position < numberOfSimulations; position++ )
+            {
+                int offset = position * numberOfAssets_;
+                double sumOfFinalStockValues = 0.0, sumOfMinStockValues = 0.0;
+                for( int stock = 0; stock < numberOfAssets_; stock++ )
+                {
+                    // price = e^(return) * stockValue
+                    sumOfFinalStockValues += Math.exp( correlatedFinalReturns_[offset + stock] ) * investments[stock];
+                    sumOfMinStockValues += Math.exp( correlatedMinReturns_[offset + stock] ) * investments[stock];
+                }
+                portfolioFinalSimulatedValues[firstIteration + position] = sumOfFinalStockValues;
+                portfolioMinSimulatedValues[firstIteration + position] = sumOfMinStockValues;
+            }
+        }
+    }
 
-        for( double stockValue : stockValues )
+    /**
+     * Shifts of the draws of a simulation of the portfolio that move its final value to the
+     * percentile of the confidence. Only the final day's draws set the final value, linearly
+     * through the correlator; they are shifted along the gradient of the portfolio value, the sum
+     * of the investments times their loadings on each draw, the direction of the steepest loss.
+     */
+    private double[] getPortfolioTilt( DrawCorrelator correlator, double[] investments )
+    {
+        int numberOfDraws = correlator.getNumberOfDraws();
+        int numberOfAssets = correlator.getNumberOfAssets();
+
+        // loadings of the assets on each draw, correlating a batch of unit draws at a time
+        double[] gradient = new double[numberOfDraws];
+        int capacity = Math.min( SCENARIO_BATCH, numberOfDraws );
+        double[] unitDraws = new double[capacity * numberOfDraws];
+        double[] loadings = new double[capacity * numberOfAssets];
+        for( int first = 0; first < numberOfDraws; first += capacity )
         {
-            portfolioValue += stockValue;
+            int end = Math.min( numberOfDraws, first + capacity );
+            Arrays.fill( unitDraws, 0.0 );
+            for( int draw = first; draw < end; draw++ )
+                unitDraws[( draw - first ) * numberOfDraws + draw] = 1.0;
+            correlator.correlate( unitDraws, loadings, end - first );
+            for( int draw = first; draw < end; draw++ )
+            {
+                int offset = ( draw - first ) * numberOfAssets;
+                for( int stock = 0; stock < numberOfAssets; stock++ )
+                    gradient[draw] += investments[stock] * loadings[offset + stock];
+            }
         }
 
-        Arrays.sort( portfolioMinSimulatedValues );
-        double maximumVaR = portfolioValue - portfolioMinSimulatedValues[0];
-        logger_.debug( "Monte Carlo VaR (Portfolio - Maximum): "
-                            + VarUtils.round( maximumVaR ) );
+        double norm = 0.0;
+        for( double derivative : gradient )
+            norm += derivative * derivative;
+        norm = Math.sqrt( norm );
+
+        // draws are made stock by stock, every day of one before the next
+        double quantile = NormalQuantile.inverseCumulativeProbability( 1 - confidence_ / 100.0 );
+        double[] shifts = new double[numberOfDraws * timePeriod_];
+        if( norm > 0 )
+            for( int draw = 0; draw < numberOfDraws; draw++ )
+                shifts[draw * timePeriod_ + timePeriod_ - 1] = quantile * gradient[draw] / norm;
+        return shifts;
+    }
 
-        return new MonteCarloResults(valueAtPercentile, portfolioFinalSimulatedValues[0]);
+    private DrawCorrelator getDrawCorrelator()
+    {
+        ReturnMatrix returns = ReturnMatrix.of( allStockQuotes_, ReturnMatrix.MissingDataPolicy.DROP );
+        if( numberOfFactors_ > 0 )
+        {
+            return FactorCovariance.fit( returns, numberOfFactors_ );
+        }
 
+        double[][] covarianceMatrix = covarianceEstimator_.estimate( returns );
+        return new CholeskyCorrelator( VarUtils.decomposeMatrix( covarianceMatrix ) );
     }
 
     /**
@@ -320,15 +761,28 @@ public class MonteCarloSimulation
      * @return array containing estimations of VaR for each day until the target number
      */
     double[] estimateVaRForBacktesting_OneStock( int numberOfDaysToTest, double[][] stockValues )
+    {
+        return estimateVaRForBacktesting_OneStock( numberOfDaysToTest, stockValues, VarUtils::computeVolatility_GARCH );
+    }
+
+    /**
+     * Same as {@link #estimateVaRForBacktesting_OneStock(int, double[][])}, with the volatility of each day
+     * estimated by the given source, e.g. a {@link com.rp.risk_management.analytics.volatility.GarchFitter}
+     * refitted on each day.
+     *
+     * @param numberOfDaysToTest number of days to estimate VaR over
+     * @param volatilitySource estimates the volatility from the returns available on each day
+     * @return array containing estimations of VaR for each day until the target number
+     */
+    double[] estimateVaRForBacktesting_OneStock( int numberOfDaysToTest, double[][] stockValues, VolatilitySource volatilitySource )
     {
         double[] estimations = new double[numberOfDaysToTest];
-        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices( allStockQuotes_.get( 0 ) ));
+        double[] returns = ReturnSeriesCache.getInstance().getDailyReturns( allStockQuotes_.get( 0 ) );
         int numberOfReturnsToUse = returns.length - 1 - numberOfDaysToTest;
 
         for( int day = 0 ; day < numberOfDaysToTest ; day++ )
         {
-            double[] returnsToUse = Arrays.copyOf( returns, numberOfReturnsToUse );
-            double volatility = VarUtils.computeVolatility_GARCH( returnsToUse );
+            double volatility = volatilitySource.volatility( returns, numberOfReturnsToUse );
             MonteCarloResults monteCarloResults = computeForOneStock( portfolioValues_.get( 0 ), volatility, stockValues );
             estimations[day] = monteCarloResults.finalVaR;
             numberOfReturnsToUse++;
@@ -339,11 +793,18 @@ public class MonteCarloSimulation
     public static class MonteCarloResults
     {
         public final double finalVaR;
+        /** NaN when importance sampled. */
         public final double maximumVaR;
+        /** Standard error of the final VaR, including that of the options, NaN for fewer than two simulations. */
+        public final double standardError;
+        /** Number of simulations run, more than set when simulating adaptively. */
+        public final int numberOfSimulations;
 
-         private MonteCarloResults(double finalVaR, double maximumVaR) {
+         private MonteCarloResults(double finalVaR, double maximumVaR, double standardError, int numberOfSimulations) {
             this.finalVaR = finalVaR;
             this.maximumVaR = maximumVaR;
+            this.standardError = standardError;
+            this.numberOfSimulations = numberOfSimulations;
         }
     }
 
@@ -0,0 +1,289 @@
+package com.rp.risk_management.analytics.portfolio;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Daily log returns of several assets aligned on their dates.
+ * <p>
+ * Returns are held in one dense row-major <code>double[]</code>: row <code>i</code> holds the return of every
+ * asset into the <code>i</code>th date, most recent first, so <code>get(row, asset)</code> is
+ * <code>data[row * numberOfAssets + asset]</code>. Each asset's column matches
+ * {@link VarUtils#computeDailyReturns(double[])} of its closing prices on the aligned dates.
+ */
+public class ReturnMatrix
+{
+    /**
+     * What to do with a date on which some, but not all, assets have a price.
+     */
+    public enum MissingDataPolicy
+    {
+        /** Only keep the dates on which every asset has a price. */
+        DROP,
+        /** Carry each asset's last price forward, its return on a filled date is 0. Dates before an asset's first price are dropped. */
+        FORWARD_FILL,
+        /** Keep every date, returns touching a missing price are <code>NaN</code>. */
+        MASK
+    }
+
+    private final List<Stock> stocks_;
+    private final int numberOfRows_;
+    private final int numberOfAssets_;
+    private final int[] epochDays_;
+    private final double[] data_;
+    private final boolean hasMissing_;
+
+    private ReturnMatrix(List<Stock> stocks, int numberOfRows, int[] epochDays, double[] data)
+    {
+        stocks_ = Collections.unmodifiableList(stocks);
+        numberOfRows_ = numberOfRows;
+        numberOfAssets_ = stocks.size();
+        epochDays_ = epochDays;
+        data_ = data;
+
+        boolean hasMissing = false;
+        for (double value : data)
+        {
+            if (Double.isNaN(value))
+            {
+                hasMissing = true;
+                break;
+            }
+        }
+        hasMissing_ = hasMissing;
+    }
+
+    /**
+     * @param allQuotes the quotes of each asset, most recent first
+     * @param policy how to treat dates missing from some assets
+     */
+    public static ReturnMatrix of(List<List<Quote>> allQuotes, MissingDataPolicy policy)
+    {
+        Builder builder = new Builder(policy);
+        for (List<Quote> quotes : allQuotes)
+            builder.add(quotes);
+        return builder.build();
+    }
+
+    public List<Stock> getStocks() {
+        return stocks_;
+    }
+
+    public int getNumberOfRows() {
+        return numberOfRows_;
+    }
+
+    public int getNumberOfAssets() {
+        return numberOfAssets_;
+    }
+
+    /**
+     * @return the date the returns of the row are into, as an epoch day
+     */
+    public int getEpochDay(int row)
+    {
+        checkRow(row);
+        return epochDays_[row];
+    }
+
+    public double get(int row, int asset)
+    {
+        checkRow(row);
+        if (asset < 0 || asset >= numberOfAssets_)
+            throw new IndexOutOfBoundsException("Asset ["+asset+"] outside matrix of ["+numberOfAssets_+"] assets");
+        return data_[row * numberOfAssets_ + asset];
+    }
+
+    /**
+     * @return true when some returns are <code>NaN</code>, which only happens with {@link MissingDataPolicy#MASK}
+     */
+    public boolean hasMissing()
+    {
+        return hasMissing_;
+    }
+
+    /**
+     * @return a copy of the returns of one asset, most recent first
+     */
+    public double[] copyColumn(int asset)
+    {
+        double[] ret = new double[numberOfRows_];
+        for (int row = 0, i = asset; row < numberOfRows_; row++, i += numberOfAssets_)
+            ret[row] = data_[i];
+        return ret;
+    }
+
+    /**
+     * Copies the returns of every asset on one date into a buffer.
+     * @param buffer of at least <code>getNumberOfAssets()</code> elements
+     * @return the buffer
+     */
+    public double[] getRow(int row, double[] buffer)
+    {
+        checkRow(row);
+        System.arraycopy(data_, row * numberOfAssets_, buffer, 0, numberOfAssets_);
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the row-major returns
+     */
+    public double[] copyData()
+    {
+        return Arrays.copyOf(data_, data_.length);
+    }
+
+    /**
+     * The row-major returns, not copied, so must not be modified.
+     */
+    double[] getData()
+    {
+        return data_;
+    }
+
+    private void checkRow(int row)
+    {
+        if (row < 0 || row >= numberOfRows_)
+            throw new IndexOutOfBoundsException("Row ["+row+"] outside matrix of ["+numberOfRows_+"] rows");
+    }
+
+    @Override
+    public String toString() {
+        return "ReturnMatrix{" +
+                "stocks_=" + stocks_ +
+                ", numberOfRows_=" + numberOfRows_ +
+                '}';
+    }
+
+    /**
+     * Joins the closing prices of several series on their dates in a single merge pass and turns them into returns.
+     */
+    public static class Builder
+    {
+        private final MissingDataPolicy policy_;
+        private final List<QuoteSeries> series_ = new ArrayList<>();
+
+        public Builder(MissingDataPolicy policy)
+        {
+            policy_ = policy;
+        }
+
+        public Builder add(QuoteSeries series)
+        {
+            series_.add(series);
+            return this;
+        }
+
+        /**
+         * @param quotes non-empty quotes of one asset
+         */
+        public Builder add(List<Quote> quotes)
+        {
+            return add(QuoteSeries.of(quotes));
+        }
+
+        /**
+         * @throws IllegalArgumentException when fewer than two returns are left, e.g. when the dates of the assets do not overlap
+         */
+        public ReturnMatrix build()
+        {
+            int numberOfAssets = series_.size();
+            List<Stock> stocks = new ArrayList<>(numberOfAssets);
+            int[][] days = new int[numberOfAssets][];
+            double[][] closes = new double[numberOfAssets][];
+            int capacity = 0;
+            for (QuoteSeries series : series_)
+            {
+                stocks.add(series.getStock());
+                days[stocks.size() - 1] = series.copyEpochDays();
+                closes[stocks.size() - 1] = series.copyCloses();
+                capacity = Math.max(capacity, series.size());
+            }
+
+            // merge the dates, most recent first, into price rows with NaN where an asset has no price
+            int[] rowDays = new int[capacity];
+            double[] prices = new double[capacity * numberOfAssets];
+            int numberOfRows = 0;
+            int[] next = new int[numberOfAssets];
+            while (true)
+            {
+                int day = Integer.MIN_VALUE;
+                boolean complete = true;
+                for (int asset = 0; asset < numberOfAssets; asset++)
+                {
+                    if (next[asset] < days[asset].length)
+                        day = Math.max(day, days[asset][next[asset]]);
+                    else
+                        complete = false;
+                }
+                if (day == Integer.MIN_VALUE || (!complete && policy_ == MissingDataPolicy.DROP))
+                    break;
+
+                if (numberOfRows == rowDays.length)
+                {
+                    rowDays = Arrays.copyOf(rowDays, Math.max(1, rowDays.length * 2));
+                    prices = Arrays.copyOf(prices, rowDays.length * numberOfAssets);
+                }
+
+                boolean missing = false;
+                int offset = numberOfRows * numberOfAssets;
+                for (int asset = 0; asset < numberOfAssets; asset++)
+                {
+                    if (next[asset] < days[asset].length && days[asset][next[asset]] == day)
+                        prices[offset + asset] = closes[asset][next[asset]++];
+                    else
+                    {
+                        prices[offset + asset] = Double.NaN;
+                        missing = true;
+                    }
+                }
+
+                if (!missing || policy_ != MissingDataPolicy.DROP)
+                    rowDays[numberOfRows++] = day;
+            }
+
+            if (policy_ == MissingDataPolicy.FORWARD_FILL)
+                numberOfRows = forwardFill(prices, numberOfRows, numberOfAssets);
+
+            // returns into each date but the oldest
+            int numberOfReturns = Math.max(numberOfRows - 1, 0);
+            if (numberOfReturns < 2)
+                throw new IllegalArgumentException("Only ["+numberOfReturns+"] returns on the dates shared by "+stocks+" with policy ["+policy_+"]");
+            double[] data = new double[numberOfReturns * numberOfAssets];
+            for (int i = 0; i < data.length; i++)
+                data[i] = Math.log(prices[i] / prices[i + numberOfAssets]);
+
+            return new ReturnMatrix(stocks, numberOfReturns, Arrays.copyOf(rowDays, numberOfReturns), data);
+        }
+
+        /**
+         * Fills the gaps from the oldest row to the newest, then drops the oldest rows where some asset has not started yet.
+         * @return the number of rows kept
+         */
+        private static int forwardFill(double[] prices, int numberOfRows, int numberOfAssets)
+        {
+            int numberOfRowsKept = numberOfRows;
+            for (int asset = 0; asset < numberOfAssets; asset++)
+            {
+                int row = numberOfRows - 1;
+                while (row >= 0 && Double.isNaN(prices[row * numberOfAssets + asset]))
+                    row--;
+                numberOfRowsKept = Math.min(numberOfRowsKept, row + 1);
+
+                for (row--; row >= 0; row--)
+                {
+                    int i = row * numberOfAssets + asset;
+                    if (Double.isNaN(prices[i]))
+                        prices[i] = prices[i + numberOfAssets];
+                }
+            }
+            return numberOfRowsKept;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.rp.risk_management.analytics.portfolio;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.util.QuoteHelper;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes the daily log returns of the closing prices of a stock, so a risk run computes each
+ * series once however many models ask for it.
+ * <p>
+ * Entries are keyed by stock and window (first and last date of the quotes). An entry is reused for
+ * any list of quotes with the same closes, compared in full; a window whose closes changed, even in
+ * place, is recomputed. At most {@link #CAPACITY} windows are held, the least recently used evicted first.
+ * Callers get their own copy of the returns, which they are free to sort.
+ */
+public class ReturnSeriesCache
+{
+    public static final int CAPACITY = 1024;
+
+    private static final ReturnSeriesCache instance_ = new ReturnSeriesCache();
+
+    /** Guarded by itself. */
+    private final LinkedHashMap<Key, Series> entries_ = new LinkedHashMap<Key, Series>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Series> eldest)
+        {
+            return size() > CAPACITY;
+        }
+    };
+
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong misses_ = new AtomicLong();
+
+    private ReturnSeriesCache()
+    {}
+
+    public static ReturnSeriesCache getInstance() {
+        return instance_;
+    }
+
+    /**
+     * Same as <code>VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(quotes))</code>.
+     * @param quotes quotes of one stock, most recent first
+     * @return a copy of the returns, most recent first
+     */
+    public double[] getDailyReturns(List<Quote> quotes)
+    {
+        if (quotes.size() < 2)
+            return VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(quotes));
+
+        Key key = new Key(quotes);
+        double[] closes = getClosingPrices(quotes);
+        Series series;
+        synchronized (entries_)
+        {
+            series = entries_.get(key);
+        }
+        if (series != null && Arrays.equals(series.closes_, closes))
+        {
+            hits_.incrementAndGet();
+            return series.returns_.clone();
+        }
+
+        misses_.incrementAndGet();
+        series = new Series(closes, VarUtils.computeDailyReturns(closes));
+        synchronized (entries_)
+        {
+            entries_.put(key, series);
+        }
+        return series.returns_.clone();
+    }
+
+    /**
+     * @return number of requests answered without recomputing the returns
+     */
+    public long getHitCount()
+    {
+        return hits_.get();
+    }
+
+    /**
+     * @return number of return series computed
+     */
+    public long getMissCount()
+    {
+        return misses_.get();
+    }
+
+    /**
+     * @return number of windows held
+     */
+    public int size()
+    {
+        synchronized (entries_)
+        {
+            return entries_.size();
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (entries_)
+        {
+            entries_.clear();
+        }
+    }
+
+    /**
+     * Unboxes the closes, the cost of which is small next to a log per quote.
+     */
+    private static double[] getClosingPrices(List<Quote> quotes)
+    {
+        double[] ret = new double[quotes.size()];
+        int i = 0;
+        for (Quote quote : quotes)
+            ret[i++] = quote.getClose().doubleValue();
+        return ret;
+    }
+
+    private static class Key
+    {
+        private final Stock stock_;
+        private final int firstDay_;
+        private final int lastDay_;
+
+        private Key(List<Quote> quotes)
+        {
+            stock_ = quotes.get(0).getStock();
+            firstDay_ = quotes.get(quotes.size() - 1).getSimpleDate().getEpochDay();
+            lastDay_ = quotes.get(0).getSimpleDate().getEpochDay();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+
+            if (firstDay_ != key.firstDay_) return false;
+            if (lastDay_ != key.lastDay_) return false;
+            return stock_.equals(key.stock_);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = stock_.hashCode();
+            result = 31 * result + firstDay_;
+            result = 31 * result + lastDay_;
+            return result;
+        }
+    }
+
+    private static class Series
+    {
+        /** Closes the returns were computed from. */
+        private final double[] closes_;
+        private final double[] returns_;
+
+        private Series(double[] closes, double[] returns)
+        {
+            closes_ = closes;
+            returns_ = returns;
+        }
+    }
+}
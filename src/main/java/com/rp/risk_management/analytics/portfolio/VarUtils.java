@@ -3,6 +3,14 @@
  */
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.analytics.covariance.BlockedCovariance;
+import com.rp.risk_management.analytics.covariance.CovarianceEstimator;
+import com.rp.risk_management.analytics.statistics.PercentileEstimator;
+import com.rp.risk_management.analytics.statistics.PercentileStandardError;
+import com.rp.risk_management.analytics.statistics.QuickSelectPercentile;
+import com.rp.risk_management.analytics.statistics.WeightedPercentile;
+import com.rp.risk_management.analytics.volatility.EwmaVolatility;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
 import org.apache.commons.math3.linear.CholeskyDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -39,23 +47,20 @@ public abstract class VarUtils
     /**
      * The decay factor in the EWMA algorithm.
      */
-    private static final double lambda = 0.94;
+    private static final double lambda = EwmaVolatility.DEFAULT_LAMBDA;
     private static final double firstDayVariance = 0.01;
     private static final double firstDayReturn = 0.02;
+    /** Centres the returns once and computes the upper triangle in parallel tiles. */
+    private static final CovarianceEstimator covarianceEstimator_ = new BlockedCovariance();
+    /** Estimates the percentiles of every model, exact by selection unless replaced. */
+    private static volatile PercentileEstimator percentileEstimator_ = new QuickSelectPercentile();
     /**
-     * Parameters for the GARCH(1,1) estimation of volatility.
+     * Fixed parameters for the GARCH(1,1) estimation of volatility. A backtest given a
+     * {@link com.rp.risk_management.analytics.volatility.GarchFitter} fits them to each day's returns instead.
      */
     static double gamma = 0.05;
     static double alpha = 0.13;
     static double beta = 0.90;
-
-    // TODO best backtest results for 99% confidence
-    // need to get MLE done for each set of returns to optimise parameters
-    /*
-     * static double gamma = 0.01;
-     * static double alpha = 0.02;
-     * static double beta = 0.97;
-     */
     static double               omega            = 0.000002;
 
     /**
@@ -112,6 +117,45 @@ public abstract class VarUtils
         return returns;
     }
 
+    /**
+     * Computes the daily returns from closing prices using natural logs, without boxing.
+     *
+     * @param prices closing prices, most recent first.
+     * @return an array of returns, most recent first
+     */
+    public static double[] computeDailyReturns( double[] prices )
+    {
+        int daysToCompute = Math.max( prices.length - 1, 0 );
+        double[] returns = new double[daysToCompute];
+
+        for( int i = 0 ; i < daysToCompute ; i++ )
+        {
+            returns[i] = Math.log( prices[i] / prices[i + 1] );
+        }
+        return returns;
+    }
+
+    /**
+     * Computes the daily returns from the closing prices of a series using natural logs, without boxing.
+     *
+     * @param series the quotes of the stock.
+     * @return an array of returns, most recent first
+     */
+    public static double[] computeDailyReturns( QuoteSeries series )
+    {
+        int daysToCompute = Math.max( series.size() - 1, 0 );
+        double[] returns = new double[daysToCompute];
+
+        double day2 = daysToCompute > 0 ? series.getClose( 0 ) : 0.0;
+        for( int i = 0 ; i < daysToCompute ; i++ )
+        {
+            double day1 = series.getClose( i + 1 );
+            returns[i] = Math.log( day2 / day1 );
+            day2 = day1;
+        }
+        return returns;
+    }
+
     /**
      * <ol>
      * <li>make new list with daily differences in stock price calculated using ln(Di/Di-1)</li>
@@ -149,9 +193,9 @@ public abstract class VarUtils
     }
 
     /**
-     * Recursively computes the running variance using the EWMA formula.<br>
-     * today's variance = yesterdaysVariance^2 * lambda + yesterdaysReturn^2 * (
-     * 1 - lambda )
+     * Computes the running variance using the EWMA formula, from the oldest day to the current day.<br>
+     * today's variance = yesterdaysVariance * lambda + yesterdaysReturn^2 * (
+     * 1 - lambda ) * lambda^currentDay
      * 
      * @param currentDay
      *            the day we are estimating the variance for.
@@ -162,59 +206,28 @@ public abstract class VarUtils
     private static double getVariance_EWMA( int currentDay, double[] returns )
     {
         // day 0 is most recent day
-        double variance = 0.0;
-        // first day variance = lambda * firstDayVariance^2 + yesterdayReturn^2
-        // * ( 1 - lambda )
-        if( currentDay == returns.length - 1 )
-        {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            variance =  lambda * firstDayVariance
-                       +  weight * firstDayReturnSquared ;
-        }
-        // today's variance = yesterdaysVariance^2 * lambda + yesterdaysReturn^2
-        // * ( 1 - lambda )
-        else if( currentDay >= 0 )
+        if( currentDay < 0 || currentDay > returns.length - 1 )
         {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_EWMA( currentDay + 1, returns );
-            double yesterdayReturnSquared = Math
-                                                .pow( returns[currentDay + 1], 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            variance =  lambda * yesterdayVariance
-                       +  weight * yesterdayReturnSquared ;
+            return 0.0;
         }
 
-        return variance;
-    }
+        // first day variance = lambda * firstDayVariance + firstDayReturn^2
+        // * ( 1 - lambda ) * lambda^firstDay
+        int day = returns.length - 1;
+        double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
+        double variance = lambda * firstDayVariance
+                          + ( 1 - lambda ) * Math.pow( lambda, day ) * firstDayReturnSquared;
 
-    @SuppressWarnings("unused")
-    private double getCovariance_EWMA( int currentDay,
-                                       ArrayList<Double> returns1, ArrayList<Double> returns2 )
-    {
-        ArrayList<Double> covariances_EWMA = new ArrayList<Double>();
-        double covariance = 0;
-
-        if( currentDay == returns1.size() - 1 )
-        {
-            double firstDayReturnsProduct = Math.pow( firstDayReturn, 2 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            covariance =  lambda * firstDayVariance
-                         +  weight * firstDayReturnsProduct;
-            covariances_EWMA.set( currentDay, covariance );
-        }
-        else if( currentDay >= 0 )
+        // today's variance = yesterdaysVariance * lambda + yesterdaysReturn^2
+        // * ( 1 - lambda ) * lambda^day
+        for( day-- ; day >= currentDay ; day-- )
         {
-            double yesterdayCovariance = getCovariance_EWMA( currentDay + 1,
-                                                             returns1, returns2 );
-            double yesterdayReturnsProduct = returns1.get( currentDay + 1 )
-                                             * returns2.get( currentDay + 1 );
-            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
-            covariance = lambda * yesterdayCovariance
-                         + weight * yesterdayReturnsProduct;
+            double yesterdayReturnSquared = Math.pow( returns[day + 1], 2 );
+            double weight = ( 1 - lambda ) * Math.pow( lambda, day );
+            variance = lambda * variance + weight * yesterdayReturnSquared;
         }
 
-        return covariance;
+        return variance;
     }
 
     /**
@@ -225,6 +238,17 @@ public abstract class VarUtils
      * @return estimated volatility of the stock.
      */
     static double computeVolatility_GARCH( double[] returns )
+    {
+        return computeVolatility_GARCH( returns, returns.length );
+    }
+
+    /**
+     * Same as {@link #computeVolatility_GARCH(double[])} for the first returns, without copying them.
+     * @param returns returns of the asset
+     * @param numberOfReturns number of the first returns to use
+     * @return volatility
+     */
+    static double computeVolatility_GARCH( double[] returns, int numberOfReturns )
     {
         /**
          * Accepted values for the weights of long run variance, previous return
@@ -232,50 +256,21 @@ public abstract class VarUtils
          */
         double longRunVariance = 0.0;
         DescriptiveStatistics stats = new DescriptiveStatistics();
-        for(int i = 0 ; i < returns.length; i++) {
+        for(int i = 0 ; i < numberOfReturns; i++) {
             stats.addValue(returns[i]);
         }
         longRunVariance = stats.getVariance();
         // tune parameters for returns
-        double variance = getVariance_GARCH( 0, longRunVariance, returns );
-        // double variance = getVariance_GARCH2( 0, returns );
+        double variance = getVariance_GARCH( 0, longRunVariance, returns, numberOfReturns );
         double volatility = Math.sqrt( variance );
         return volatility;
     }
 
-    // TODO using finmath to get optimal params
-    @SuppressWarnings("unused")
-    private static double getVariance_GARCH2( int day, double[] returns )
-    {
-        // values from Estimating Volatilities and Correlations, John Hull book.
-        double variance = 0.0;
-        if( day == returns.length - 1 )
-        {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            variance = omega +
-                       alpha * firstDayReturnSquared +
-                       beta * firstDayVariance;
-        }
-        // variance = weightLRV*longRunVariance + weightPR*previousReturn +
-        // weightVariance*previousVariance
-        else if( day >= 0 )
-        {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_GARCH2( day + 1,
-                                                           returns );
-            double yesterdayReturnSquared = Math.pow( returns[day + 1], 2 );
-            variance = omega +
-                        alpha * yesterdayReturnSquared +
-                        beta * yesterdayVariance;
-        }
-        return variance;
-    }
-
     // TODO long run average variance, at each variance calculation, calculate average to day and
     // use that in subsequent calculations
     /**
-     * Recursively computes the variance using the GARCH formula for daily
-     * returns.<br>
+     * Computes the variance using the GARCH formula for daily returns, from the oldest day to the
+     * requested day.<br>
      * variance = weightLRV*longRunVariance + weightPR*previousReturn +
      * weightVariance*previousVariance
      * 
@@ -284,29 +279,29 @@ public abstract class VarUtils
      * @param longRunVariance
      *            the overall variance of the whole series of returns.
      * @param returns
+     * @param numberOfReturns number of the first returns to use
      * @return current day's variance.
      */
     private static double getVariance_GARCH( int day, double longRunVariance,
-                                             double[] returns )
+                                             double[] returns, int numberOfReturns )
     {
         // values from Estimating Volatilities and Correlations, John Hull book.
-        double variance = 0.0;
-        if( day == returns.length - 1 )
+        if( day < 0 || day > numberOfReturns - 1 )
         {
-            double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
-            variance = gamma * longRunVariance + alpha * firstDayReturnSquared
-                       + beta * firstDayVariance;
+            return 0.0;
         }
+
+        int currentDay = numberOfReturns - 1;
+        double firstDayReturnSquared = Math.pow( firstDayReturn, 2 );
+        double variance = gamma * longRunVariance + alpha * firstDayReturnSquared
+                          + beta * firstDayVariance;
         // variance = weightLRV*longRunVariance + weightPR*previousReturn +
         // weightVariance*previousVariance
-        else if( day >= 0 )
+        for( currentDay-- ; currentDay >= day ; currentDay-- )
         {
-            // recursively work out variance for prior days
-            double yesterdayVariance = getVariance_GARCH( day + 1,
-                                                          longRunVariance, returns );
-            double yesterdayReturnSquared = Math.pow( returns[day + 1], 2 );
+            double yesterdayReturnSquared = Math.pow( returns[currentDay + 1], 2 );
             variance = gamma * longRunVariance + alpha * yesterdayReturnSquared
-                       + beta * yesterdayVariance;
+                       + beta * variance;
         }
         return variance;
     }
@@ -353,24 +348,30 @@ public abstract class VarUtils
 
         for( int x = 0 ; x < v.length ; x++ )
         {
-            for( int y = 0 ; y < v[0].length ; y++ )
+            for( int y = x ; y < v[0].length ; y++ )
             {
-                if( x == y )
-                {
-                    v[x][y] = getCovariance( returnList.get( x ),
-                                             returnList.get( x ) );
-                }
-                else
-                {
-                    v[x][y] = getCovariance( returnList.get( x ),
-                                             returnList.get( y ) );
-                }
+                v[x][y] = getCovariance( returnList.get( x ),
+                                         returnList.get( y ) );
+                v[y][x] = v[x][y];
             }
         }
 
         return v;
     }
 
+    /**
+     * Matrix of covariances of date-aligned returns, where the [x][y] location is the covariance
+     * between asset x and asset y. With missing returns each pair uses the dates both assets have.
+     *
+     * @param returns aligned returns of every asset
+     * @return the covariance matrix
+     * @see BlockedCovariance
+     */
+    static double[][] generateCovarianceMatrix( ReturnMatrix returns )
+    {
+        return covarianceEstimator_.estimate( returns );
+    }
+
     /**
      * Computes the covariance of two series of returns.
      * 
@@ -483,7 +484,75 @@ public abstract class VarUtils
      */
     static double getPercentile( double[] data, int confidence )
     {
-        return StatUtils.percentile( data, 100 - confidence );
+        return percentileEstimator_.evaluate( data, 100 - confidence );
+    }
+
+    /**
+     * Gets the standard error of {@link #getPercentile(double[], int)}, from the spread of the
+     * data around the percentile.
+     *
+     * @param data Series of data, left unchanged.
+     * @param confidence The confidence level for which to get the percentile.
+     * @return standard error of the value at the desired percentile, NaN for fewer than two values
+     */
+    static double getPercentileStandardError( double[] data, int confidence )
+    {
+        return PercentileStandardError.estimate( data, 100 - confidence );
+    }
+
+    /**
+     * Gets the percentile for the confidence level from importance sampled data.
+     *
+     * @param data Series of data, left unchanged.
+     * @param weights likelihood ratio of every value of the data
+     * @param confidence The confidence level for which to get the percentile.
+     * @return value at the desired percentile from the weighted data
+     */
+    static double getPercentile( double[] data, double[] weights, int confidence )
+    {
+        return WeightedPercentile.evaluate( data, weights, 100 - confidence );
+    }
+
+    /**
+     * Gets the standard error of {@link #getPercentile(double[], double[], int)}.
+     *
+     * @param data Series of data, left unchanged.
+     * @param weights likelihood ratio of every value of the data
+     * @param confidence The confidence level for which to get the percentile.
+     * @return standard error of the value at the desired percentile, NaN for fewer than two values
+     */
+    static double getPercentileStandardError( double[] data, double[] weights, int confidence )
+    {
+        return WeightedPercentile.standardError( data, weights, 100 - confidence );
+    }
+
+    /**
+     * Replaces the estimator of {@link #getPercentile(double[], int)}.
+     *
+     * @param percentileEstimator estimator used by every model from now on
+     */
+    public static void setPercentileEstimator( PercentileEstimator percentileEstimator )
+    {
+        if( percentileEstimator == null )
+            throw new IllegalArgumentException( "PercentileEstimator cannot be null" );
+        percentileEstimator_ = percentileEstimator;
+    }
+
+    /**
+     * @param values Series of data, left unsorted.
+     * @return the smallest value, without sorting
+     */
+    static double getMinimum( double[] values )
+    {
+        double min = values[0];
+        for( int i = 1 ; i < values.length ; i++ )
+        {
+            if( values[i] < min )
+            {
+                min = values[i];
+            }
+        }
+        return min;
     }
 
     /**
@@ -510,23 +579,43 @@ public abstract class VarUtils
      */
     static double[] getReturnsOverVarHorizon( double[] returns, int varHorizon )
     {
-        int numberOfReturns = returns.length - varHorizon + 1;
-        double[] nDayHorizonReturns = new double[numberOfReturns];
-        for( int i = 0 ; i < numberOfReturns ; i++ )
+        return getReturnsOverVarHorizon( getCumulativeReturns( returns ), returns.length, varHorizon );
+    }
+
+    /**
+     * Same as {@link #getReturnsOverVarHorizon(double[], int)} for the first returns, in O(1) per window
+     * from the cumulative returns.
+     * @param cumulativeReturns from {@link #getCumulativeReturns(double[])}
+     * @param numberOfReturns number of the first returns to use
+     * @param varHorizon Window of VaR
+     * @return array of returns covering the risk_management horizon
+     */
+    static double[] getReturnsOverVarHorizon( double[] cumulativeReturns, int numberOfReturns, int varHorizon )
+    {
+        // assuming return over n days = sum of returns on each day from start to start + horizon
+        double[] nDayHorizonReturns = new double[Math.max( 0, numberOfReturns - varHorizon + 1 )];
+        for( int i = 0 ; i < nDayHorizonReturns.length ; i++ )
         {
-            ArrayList<Double> windowReturns = new ArrayList<>();
-            // assuming return over n days = sum of returns on each day from start to start +
-            // horizon
-            for( int day = i ; day < i + varHorizon ; day++ )
-            {
-                windowReturns.add( returns[day] );
-            }
-            nDayHorizonReturns[i] = VarUtils.sumOf( windowReturns );
+            nDayHorizonReturns[i] = cumulativeReturns[i + varHorizon] - cumulativeReturns[i];
         }
 
         return nDayHorizonReturns;
     }
 
+    /**
+     * @param returns returns of the asset
+     * @return prefix sums, where [i] is the sum of the first i returns
+     */
+    static double[] getCumulativeReturns( double[] returns )
+    {
+        double[] cumulativeReturns = new double[returns.length + 1];
+        for( int i = 0 ; i < returns.length ; i++ )
+        {
+            cumulativeReturns[i + 1] = cumulativeReturns[i] + returns[i];
+        }
+        return cumulativeReturns;
+    }
+
     /**
      * Cumulative Normal Distribution Function <br>
      * Taken from CS3930 Moodle Website
@@ -0,0 +1,16 @@
+package com.rp.risk_management.analytics.portfolio;
+
+/**
+ * Estimates the daily volatility of an asset from the first of its returns, used by backtesting to
+ * re-estimate the volatility on each day from the returns available up to it.
+ */
+@FunctionalInterface
+interface VolatilitySource
+{
+    /**
+     * @param returns returns of the asset, most recent first
+     * @param numberOfReturns number of the first returns to use
+     * @return volatility
+     */
+    double volatility( double[] returns, int numberOfReturns );
+}
@@ -6,13 +6,15 @@ import com.rp.risk_management.util.PreventValueCalculator;
 import com.rp.risk_management.model.Option;
 import org.apache.commons.math3.stat.StatUtils;
 
-import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class MonteCarlo implements OptionPricer
 {
     private final Option option_;
     private final int numberOfSimulations_;
     private final int timePeriod_;
+    private final Set<VarianceReduction> varianceReduction_;
     private final MonteCarloResults results_;
 
     public MonteCarlo(Option option)
@@ -21,10 +23,16 @@ public class MonteCarlo implements OptionPricer
     }
 
     public MonteCarlo(Option option, int numberOfSimulations, int timePeriod)
+    {
+        this(option, numberOfSimulations, timePeriod, EnumSet.noneOf(VarianceReduction.class));
+    }
+
+    public MonteCarlo(Option option, int numberOfSimulations, int timePeriod, Set<VarianceReduction> varianceReduction)
     {
         option_ = option;
         numberOfSimulations_ = numberOfSimulations;
         timePeriod_ = timePeriod;
+        varianceReduction_ = VarianceReductions.copyOf(varianceReduction);
         results_ =priceOptionUsingMonteCarlo();
     }
 
@@ -47,12 +55,12 @@ public class MonteCarlo implements OptionPricer
     private MonteCarloResults priceOptionUsingMonteCarlo()
     {
         // generate large number of random possible price paths
-        double[][] prices = com.rp.risk_management.analytics.simulation.MonteCarlo.simulatePrices( option_.getInitialStockPrice(),
-                option_.getDailyVolatility(),numberOfSimulations_, timePeriod_ );
+        double[][] prices = simulatePrices( option_, numberOfSimulations_, timePeriod_, varianceReduction_ );
         // calculate exercise value/payoff of option for each path
         // intrinsic value - Call option - Max[Sn-X, 0], Put option - Max[X-Sn,
         // 0]
         double[] exerciseValues = new double[numberOfSimulations_];
+        double[] finalPrices = new double[numberOfSimulations_];
         double currentPrice = 0.0;
         double exerciseValue = 0.0;
         for( int i = 0 ; i < numberOfSimulations_ ; i++ )
@@ -70,10 +78,11 @@ public class MonteCarlo implements OptionPricer
                         .max( option_.getStrike() - currentPrice, 0 );
             }
             exerciseValues[i] = exerciseValue;
+            finalPrices[i] = currentPrice;
         }
 
         // take average of the payoffs
-        double meanExerciseValue = StatUtils.mean( exerciseValues );
+        MonteCarloEstimate meanExerciseValue = estimate( exerciseValues, finalPrices, option_, varianceReduction_ );
 
         int discountPeriod = option_.getTimeToMaturity() - timePeriod_;
         if( discountPeriod < 1 )
@@ -81,18 +90,40 @@ public class MonteCarlo implements OptionPricer
             // for safety
             discountPeriod = option_.getTimeToMaturity();
         }
-        double finalValueOfOption = PreventValueCalculator.getDiscountedValue( meanExerciseValue, option_.getInterest(),
-                option_.getTimeToMaturity() - timePeriod_ );
-
-        Arrays.sort( exerciseValues );
+        double discountFactor = PreventValueCalculator.getDiscountedValue( 1.0, option_.getInterest(), discountPeriod );
+        double finalValueOfOption = discountFactor * meanExerciseValue.getMean();
 
-        double minExerciseValue = exerciseValues[0];
+        double minExerciseValue = StatUtils.min( exerciseValues );
 
-        double minValueOfOption = PreventValueCalculator.getDiscountedValue( minExerciseValue, option_.getInterest(),
-                option_.getTimeToMaturity() - timePeriod_ );
+        double minValueOfOption = discountFactor * minExerciseValue;
 
-        MonteCarloResults results = new MonteCarloResults(finalValueOfOption,minValueOfOption);
+        MonteCarloResults results = new MonteCarloResults(finalValueOfOption,minValueOfOption,
+                discountFactor * meanExerciseValue.getStandardError());
         return results;
     }
 
+    /**
+     * Simulates the prices of the underlying of an option, in antithetic pairs when asked.
+     */
+    static double[][] simulatePrices( Option option, int numberOfSimulations, int timePeriod, Set<VarianceReduction> varianceReduction )
+    {
+        if( varianceReduction.contains( VarianceReduction.ANTITHETIC ) )
+            return com.rp.risk_management.analytics.simulation.MonteCarlo.simulateAntitheticPrices( option.getInitialStockPrice(),
+                    option.getDailyVolatility(), numberOfSimulations, timePeriod );
+        return com.rp.risk_management.analytics.simulation.MonteCarlo.simulatePrices( option.getInitialStockPrice(),
+                option.getDailyVolatility(), numberOfSimulations, timePeriod );
+    }
+
+    /**
+     * Mean of simulated values, controlled by the final price of the underlying when asked, whose
+     * expectation is the initial price as every daily return has mean 0.
+     */
+    static MonteCarloEstimate estimate( double[] values, double[] finalPrices, Option option, Set<VarianceReduction> varianceReduction )
+    {
+        return MonteCarloEstimate.of( values,
+                varianceReduction.contains( VarianceReduction.CONTROL_VARIATE ) ? finalPrices : null,
+                option.getInitialStockPrice(),
+                varianceReduction.contains( VarianceReduction.ANTITHETIC ) );
+    }
+
 }
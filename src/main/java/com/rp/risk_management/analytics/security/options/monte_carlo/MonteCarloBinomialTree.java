@@ -7,13 +7,15 @@ import com.rp.risk_management.util.PreventValueCalculator;
 import com.rp.risk_management.model.Option;
 import org.apache.commons.math3.stat.StatUtils;
 
-import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class MonteCarloBinomialTree
 {
     private final Option option_;
     private final int numberOfSimulations_;
     private final int timePeriod_;
+    private final Set<VarianceReduction> varianceReduction_;
     private final MonteCarloResults results_;
 
     public MonteCarloBinomialTree(Option option)
@@ -22,11 +24,17 @@ public class MonteCarloBinomialTree
     }
 
     public MonteCarloBinomialTree(Option option, int numberOfSimulations, int timePeriod)
+    {
+        this(option, numberOfSimulations, timePeriod, EnumSet.noneOf(VarianceReduction.class));
+    }
+
+    public MonteCarloBinomialTree(Option option, int numberOfSimulations, int timePeriod, Set<VarianceReduction> varianceReduction)
     {
         option_ = option;
         numberOfSimulations_ = numberOfSimulations;
         timePeriod_ = timePeriod;
-        results_ =priceOptionUsingBinomialTree(option,numberOfSimulations,timePeriod);
+        varianceReduction_ = VarianceReductions.copyOf(varianceReduction);
+        results_ =priceOptionUsingBinomialTree(option,numberOfSimulations,timePeriod,varianceReduction_);
     }
 
     public MonteCarloResults getMonteCarloResults() {
@@ -40,10 +48,10 @@ public class MonteCarloBinomialTree
      * @param option
      * @return final and minimum simulated option values for VaR computation.
      */
-    private static MonteCarloResults priceOptionUsingBinomialTree(Option option, int numberOfSimulations, int timePeriod )
+    private static MonteCarloResults priceOptionUsingBinomialTree(Option option, int numberOfSimulations, int timePeriod,
+                                                                  Set<VarianceReduction> varianceReduction )
     {
-        double[][] stockPrices = com.rp.risk_management.analytics.simulation.MonteCarlo.simulatePrices( option.getInitialStockPrice(),
-                option.getDailyVolatility() ,numberOfSimulations, timePeriod);
+        double[][] stockPrices = MonteCarlo.simulatePrices( option, numberOfSimulations, timePeriod, varianceReduction );
         if (stockPrices.length != numberOfSimulations)
             throw new IllegalArgumentException("Simulated stock prices should be ["+numberOfSimulations+"] length");
         for (int i =0 ; i < stockPrices.length ; i++)
@@ -53,6 +61,7 @@ public class MonteCarloBinomialTree
         double[][] optionPrices = new double[numberOfSimulations][timePeriod];
         double[] finalDayOptionPrices = new double[numberOfSimulations];
         double[] minOptionPrices = new double[numberOfSimulations];
+        double[] finalStockPrices = new double[numberOfSimulations];
 
         for( int simulation = 0 ; simulation < numberOfSimulations ; simulation++ )
         {
@@ -68,13 +77,13 @@ public class MonteCarloBinomialTree
                         option.getTimeToMaturity()
                                 - day );
             }
-            finalDayOptionPrices[simulation] = optionPrices[simulation][timePeriod];
-            Arrays.sort( optionPrices[simulation] );
-            minOptionPrices[simulation] = optionPrices[simulation][0];
+            finalDayOptionPrices[simulation] = optionPrices[simulation][timePeriod - 1];
+            minOptionPrices[simulation] = StatUtils.min( optionPrices[simulation] );
+            finalStockPrices[simulation] = stockPrices[simulation][timePeriod - 1];
         }
 
         // get average of option prices
-        double meanFinalPrice = StatUtils.mean( finalDayOptionPrices );
+        MonteCarloEstimate meanFinalPrice = MonteCarlo.estimate( finalDayOptionPrices, finalStockPrices, option, varianceReduction );
         double meanMinPrice = StatUtils.mean( minOptionPrices );
 
         int discountPeriod = option.getTimeToMaturity() - timePeriod;
@@ -84,12 +93,13 @@ public class MonteCarloBinomialTree
             discountPeriod = option.getTimeToMaturity();
         }
 
-        double discountedFinalValue = PreventValueCalculator.getDiscountedValue( meanFinalPrice, option.getInterest(),
-                discountPeriod );
+        double discountFactor = PreventValueCalculator.getDiscountedValue( 1.0, option.getInterest(), discountPeriod );
+        double discountedFinalValue = discountFactor * meanFinalPrice.getMean();
         double discountedMinValue = PreventValueCalculator.getDiscountedValue( meanMinPrice, option.getInterest(),
                 discountPeriod );
 
-        MonteCarloResults monteCarloResults = new MonteCarloResults(discountedFinalValue,discountedMinValue);
+        MonteCarloResults monteCarloResults = new MonteCarloResults(discountedFinalValue,discountedMinValue,
+                discountFactor * meanFinalPrice.getStandardError());
         return monteCarloResults;
     }
 
@@ -3,24 +3,20 @@ package com.rp.risk_management.analytics.security.options.monte_carlo;
 import com.rp.risk_management.analytics.portfolio.MonteCarloSimulation;
 import com.rp.risk_management.analytics.security.options.BlackScholes;
 import com.rp.risk_management.analytics.security.options.OptionPricer;
+import com.rp.risk_management.analytics.simulation.ZigguratGaussianSource;
 import com.rp.risk_management.util.PreventValueCalculator;
 import com.rp.risk_management.model.Option;
 import org.apache.commons.math3.stat.StatUtils;
 
-import java.util.Arrays;
-import java.util.Random;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class MonteCarloBlackScholes implements OptionPricer
 {
-    /**
-     * Random number generator using to generate Gaussian (Normal) and regularly distributed random
-     * numbers for simulating prices.
-     */
-    private static final Random rng                 = new Random();
-
     private final Option option_;
     private final int numberOfSimulations_;
     private final int timePeriod_;
+    private final Set<VarianceReduction> varianceReduction_;
     private final MonteCarloResults results_;
 
     public MonteCarloBlackScholes(Option option)
@@ -29,24 +25,41 @@ public class MonteCarloBlackScholes implements OptionPricer
     }
 
     public MonteCarloBlackScholes(Option option, double[] simulationPerDay, int numberOfSimulations, int timePeriod)
+    {
+        this(option, simulationPerDay, numberOfSimulations, timePeriod, EnumSet.noneOf(VarianceReduction.class));
+    }
+
+    /**
+     * @param simulationPerDay the normal draw of every day of every simulation, simulation by simulation,
+     *                         or null to draw them. With antithetic paths only the first half is used.
+     */
+    public MonteCarloBlackScholes(Option option, double[] simulationPerDay, int numberOfSimulations, int timePeriod, Set<VarianceReduction> varianceReduction)
     {
         option_ = option;
         numberOfSimulations_ = numberOfSimulations;
         timePeriod_ = timePeriod;
+        varianceReduction_ = VarianceReductions.copyOf(varianceReduction);
 
+        boolean antithetic = varianceReduction_.contains(VarianceReduction.ANTITHETIC);
+        if (antithetic)
+            VarianceReductions.checkAntitheticPairs(numberOfSimulations);
+        int numberOfDraws = (antithetic ? numberOfSimulations / 2 : numberOfSimulations) * timePeriod;
         if (simulationPerDay == null)
         {
-            simulationPerDay=generateSimulation(numberOfSimulations,timePeriod);
+            simulationPerDay=generateSimulation(numberOfDraws);
+        }
+        else if (simulationPerDay.length < numberOfDraws)
+        {
+            throw new IllegalArgumentException("Expected ["+numberOfDraws+"] draws, not ["+simulationPerDay.length+"]");
         }
 
-        results_ =priceOptionUsingBlackScholes(option_,simulationPerDay,numberOfSimulations_,timePeriod_);
+        results_ =priceOptionUsingBlackScholes(option_,simulationPerDay,numberOfSimulations_,timePeriod_,varianceReduction_);
     }
 
-    private double[] generateSimulation(int numberOfSimulations, int timePeriod)
+    private double[] generateSimulation(int numberOfDraws)
     {
-        double[] simulationPerDay = new double[numberOfSimulations*timePeriod];
-        for (int i = 0 ; i < simulationPerDay.length ; i++)
-            simulationPerDay[i] = rng.nextGaussian();
+        double[] simulationPerDay = new double[numberOfDraws];
+        ZigguratGaussianSource.current().nextGaussians(simulationPerDay, 0, simulationPerDay.length);
 
         return simulationPerDay;
     }
@@ -63,8 +76,10 @@ public class MonteCarloBlackScholes implements OptionPricer
      * @param option
      * @return final and minimum simulated option values for VaR computation.
      */
-    private static MonteCarloResults priceOptionUsingBlackScholes(Option option, double[] simulationPerDay, int numberOfSimulations, int timePeriod )
+    private static MonteCarloResults priceOptionUsingBlackScholes(Option option, double[] simulationPerDay, int numberOfSimulations, int timePeriod,
+                                                                  Set<VarianceReduction> varianceReduction )
     {
+        boolean antithetic = varianceReduction.contains( VarianceReduction.ANTITHETIC );
         double interest = option.getInterest(), strike = option.getStrike(), dailyVolatility = option
                 .getDailyVolatility();
         double initialStockPrice = option.getInitialStockPrice();
@@ -73,49 +88,49 @@ public class MonteCarloBlackScholes implements OptionPricer
 
         double[] finalDayPrices = new double[numberOfSimulations];
         double[] minPrices = new double[numberOfSimulations];
-        double[][] optionPrices = new double[numberOfSimulations][timePeriod];
+        double[] finalStockPrices = new double[numberOfSimulations];
 
         for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
         {
             double stockPrice = initialStockPrice;
+            // path 2k + 1 of an antithetic pair negates the draws of path 2k
+            int firstDraw = ( antithetic ? sim / 2 : sim ) * timePeriod;
+            double sign = antithetic && sim % 2 == 1 ? -1.0 : 1.0;
+            double minPrice = Double.POSITIVE_INFINITY;
+            double optionPrice = 0;
 
             for( int day = 0 ; day < timePeriod ; day++ )
             {
-                double optionPrice = 0;
                 stockPrice = numShares
-                        * ( stockPrice + ( dailyVolatility * stockPrice * simulationPerDay[(sim+1)*(day+1)] ) );
+                        * ( stockPrice + ( dailyVolatility * stockPrice * sign * simulationPerDay[firstDraw + day] ) );
                 BlackScholes bs = new BlackScholes(option.getOptionType(), stockPrice, strike, timeToMaturity
                         - day, interest,
                         dailyVolatility );
                 optionPrice = numOptions
                         * bs.getOptionPrice( );
                 // TODO check time to maturity decreased by 1 every run
-                optionPrices[sim][day] = optionPrice;
+                minPrice = Math.min( minPrice, optionPrice );
             }
 
-            double[] simPrices = Arrays.copyOf( optionPrices[sim],
-                    optionPrices[sim].length );
-            finalDayPrices[sim] = simPrices[timePeriod - 1];
-            Arrays.sort( simPrices );
-            minPrices[sim] = simPrices[0];
+            finalDayPrices[sim] = optionPrice;
+            minPrices[sim] = minPrice;
+            finalStockPrices[sim] = stockPrice;
         }
 
-        Arrays.sort( minPrices );
         int discountPeriod = option.getTimeToMaturity() - timePeriod;
         if( discountPeriod < 1 )
         {
             // for safety
             discountPeriod = option.getTimeToMaturity();
         }
-        double meanFinalDayValue = StatUtils.mean( finalDayPrices );
+        MonteCarloEstimate meanFinalDayValue = MonteCarlo.estimate( finalDayPrices, finalStockPrices, option, varianceReduction );
         double meanMinValue = StatUtils.mean( minPrices );
-        double discountedFinalValue = PreventValueCalculator.getDiscountedValue( meanFinalDayValue,
-                option.getInitialStockPrice(),
-                discountPeriod );
+        double discountFactor = PreventValueCalculator.getDiscountedValue( 1.0, option.getInterest(), discountPeriod );
+        double discountedFinalValue = discountFactor * meanFinalDayValue.getMean();
         double discountedMinValue = PreventValueCalculator.getDiscountedValue( meanMinValue, option.getInterest(),
                 discountPeriod );
 
-        return new MonteCarloResults(discountedFinalValue,discountedMinValue);
+        return new MonteCarloResults(discountedFinalValue,discountedMinValue,discountFactor * meanFinalDayValue.getStandardError());
     }
 
     public MonteCarloResults getMonteCarloResults() {
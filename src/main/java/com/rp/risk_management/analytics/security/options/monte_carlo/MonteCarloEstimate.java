@@ -0,0 +1,90 @@
+package com.rp.risk_management.analytics.security.options.monte_carlo;
+
+/**
+ * Mean of simulated values and its standard error, with antithetic pairs and a control variate
+ * when asked.
+ */
+public class MonteCarloEstimate
+{
+    private final double mean_;
+    private final double standardError_;
+
+    private MonteCarloEstimate(double mean, double standardError)
+    {
+        mean_ = mean;
+        standardError_ = standardError;
+    }
+
+    /**
+     * @param values the simulated values, of path 2k and 2k + 1 antithetic to each other when asked
+     * @param controls the control of every path, or null for none
+     * @param controlMean the exact expectation of the control
+     * @param antithetic whether the paths are antithetic pairs, averaged into one independent sample each
+     */
+    public static MonteCarloEstimate of(double[] values, double[] controls, double controlMean, boolean antithetic)
+    {
+        double[] y = antithetic ? averagePairs(values) : values;
+        double[] c = controls == null ? null : antithetic ? averagePairs(controls) : controls;
+        int n = y.length;
+        if (n == 0)
+            throw new IllegalArgumentException("Unable to estimate from no values");
+
+        double meanY = 0.0, meanC = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            meanY += y[i];
+            if (c != null)
+                meanC += c[i];
+        }
+        meanY /= n;
+        meanC /= n;
+
+        double syy = 0.0, scc = 0.0, syc = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            double dy = y[i] - meanY;
+            syy += dy * dy;
+            if (c != null)
+            {
+                double dc = c[i] - meanC;
+                scc += dc * dc;
+                syc += dy * dc;
+            }
+        }
+
+        if (c == null || scc == 0.0)
+            return new MonteCarloEstimate(meanY, n < 2 ? Double.NaN : Math.sqrt(syy / (n - 1) / n));
+
+        // regression of the values on the control, which costs a degree of freedom
+        double beta = syc / scc;
+        double residual = Math.max(0.0, syy - beta * syc);
+        return new MonteCarloEstimate(meanY - beta * (meanC - controlMean),
+                                      n < 3 ? Double.NaN : Math.sqrt(residual / (n - 2) / n));
+    }
+
+    public double getMean() {
+        return mean_;
+    }
+
+    public double getStandardError() {
+        return standardError_;
+    }
+
+    private static double[] averagePairs(double[] values)
+    {
+        VarianceReductions.checkAntitheticPairs(values.length);
+
+        double[] ret = new double[values.length / 2];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = 0.5 * (values[2 * i] + values[2 * i + 1]);
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "MonteCarloEstimate{" +
+                "mean_=" + mean_ +
+                ", standardError_=" + standardError_ +
+                '}';
+    }
+}
@@ -3,10 +3,18 @@ package com.rp.risk_management.analytics.security.options.monte_carlo;
 public class MonteCarloResults {
     public final double finalValueOfOption_;
     public final double minValueOfOption_;
+    /** Standard error of the final value of the option, NaN when unknown. */
+    public final double standardError_;
 
     public MonteCarloResults(double finalValueOfOption, double minValueOfOption)
+    {
+        this(finalValueOfOption, minValueOfOption, Double.NaN);
+    }
+
+    public MonteCarloResults(double finalValueOfOption, double minValueOfOption, double standardError)
     {
         finalValueOfOption_ = finalValueOfOption;
         minValueOfOption_ = minValueOfOption;
+        standardError_ = standardError;
     }
 }
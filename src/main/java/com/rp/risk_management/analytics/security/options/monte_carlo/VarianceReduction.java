@@ -0,0 +1,15 @@
+package com.rp.risk_management.analytics.security.options.monte_carlo;
+
+/**
+ * Variance reduction techniques of the Monte Carlo option pricers, combined as a set.
+ */
+public enum VarianceReduction
+{
+    /** Simulates paths in pairs, the second driven by the negated draws of the first. */
+    ANTITHETIC,
+    /**
+     * Corrects the mean by its regression on the simulated final stock price, whose expectation
+     * under the simulation model is exactly the initial price.
+     */
+    CONTROL_VARIATE
+}
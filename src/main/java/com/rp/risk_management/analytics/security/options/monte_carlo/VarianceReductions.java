@@ -0,0 +1,32 @@
+package com.rp.risk_management.analytics.security.options.monte_carlo;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Checks and copies shared by the users of {@link VarianceReduction}.
+ */
+public final class VarianceReductions
+{
+    private VarianceReductions()
+    {}
+
+    /**
+     * @param varianceReduction any set, possibly empty
+     * @return a copy the caller owns, as {@link EnumSet#copyOf(java.util.Collection)} rejects an empty set that is not an EnumSet
+     */
+    public static Set<VarianceReduction> copyOf(Set<VarianceReduction> varianceReduction)
+    {
+        return varianceReduction.isEmpty() ? EnumSet.noneOf(VarianceReduction.class) : EnumSet.copyOf(varianceReduction);
+    }
+
+    /**
+     * @param numberOfPaths number of antithetic paths, counting both of every pair
+     * @throws IllegalArgumentException if the paths do not come in pairs
+     */
+    public static void checkAntitheticPairs(int numberOfPaths)
+    {
+        if (numberOfPaths % 2 != 0)
+            throw new IllegalArgumentException("Antithetic paths come in pairs, not ["+numberOfPaths+"]");
+    }
+}
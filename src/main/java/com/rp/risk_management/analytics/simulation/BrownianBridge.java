@@ -0,0 +1,94 @@
+package com.rp.risk_management.analytics.simulation;
+
+/**
+ * Builds the daily normal increments of a path from the end backwards (Brownian bridge).
+ * <p>
+ * The first normal sets where the path ends, the second where it is half way, and so on by
+ * bisection, each conditioned on the points already built. The increments are still independent
+ * standard normals, but the first draws carry most of the variance of the path. Fed with the
+ * first coordinates of a low-discrepancy point, as from {@link SobolSequence}, they are the
+ * coordinates with the best uniformity. Construction after Jaeckel, "Monte Carlo Methods in
+ * Finance", for any number of steps.
+ */
+public class BrownianBridge
+{
+    private final int numberOfSteps_;
+    /** Point built by every draw, and the points either side of it already built. */
+    private final int[] bridgeIndex_;
+    private final int[] leftIndex_;
+    private final int[] rightIndex_;
+    private final double[] leftWeight_;
+    private final double[] rightWeight_;
+    private final double[] standardDeviation_;
+
+    public BrownianBridge(int numberOfSteps)
+    {
+        if (numberOfSteps < 1)
+            throw new IllegalArgumentException("Number of steps must be positive ["+numberOfSteps+"]");
+
+        numberOfSteps_ = numberOfSteps;
+        bridgeIndex_ = new int[numberOfSteps];
+        leftIndex_ = new int[numberOfSteps];
+        rightIndex_ = new int[numberOfSteps];
+        leftWeight_ = new double[numberOfSteps];
+        rightWeight_ = new double[numberOfSteps];
+        standardDeviation_ = new double[numberOfSteps];
+
+        // point i is the path at time i + 1, in steps of one day
+        boolean[] built = new boolean[numberOfSteps];
+        built[numberOfSteps - 1] = true;
+        bridgeIndex_[0] = numberOfSteps - 1;
+        standardDeviation_[0] = Math.sqrt(numberOfSteps);
+
+        int j = 0;
+        for (int i = 1; i < numberOfSteps; i++)
+        {
+            // the next gap in the path, from point j to just before the built point k
+            while (built[j])
+                j++;
+            int k = j;
+            while (!built[k])
+                k++;
+            int l = j + ((k - 1 - j) >> 1);
+            built[l] = true;
+
+            // condition on the path at time j, the point before the gap, and at time k + 1
+            bridgeIndex_[i] = l;
+            leftIndex_[i] = j;
+            rightIndex_[i] = k;
+            double span = k + 1 - j;
+            leftWeight_[i] = (k - l) / span;
+            rightWeight_[i] = (l + 1 - j) / span;
+            standardDeviation_[i] = Math.sqrt((l + 1 - j) * (k - l) / span);
+
+            j = k + 1;
+            if (j >= numberOfSteps)
+                j = 0;
+        }
+    }
+
+    public int getNumberOfSteps() {
+        return numberOfSteps_;
+    }
+
+    /**
+     * @param normals independent standard normals, the most important first
+     * @param increments filled with the independent standard normal increments of the path, by day
+     */
+    public void buildIncrements(double[] normals, double[] increments)
+    {
+        // the path itself first, in place
+        increments[numberOfSteps_ - 1] = standardDeviation_[0] * normals[0];
+        for (int i = 1; i < numberOfSteps_; i++)
+        {
+            int j = leftIndex_[i];
+            int k = rightIndex_[i];
+            int l = bridgeIndex_[i];
+            double left = j == 0 ? 0.0 : increments[j - 1];
+            increments[l] = leftWeight_[i] * left + rightWeight_[i] * increments[k] + standardDeviation_[i] * normals[i];
+        }
+
+        for (int day = numberOfSteps_ - 1; day > 0; day--)
+            increments[day] -= increments[day - 1];
+    }
+}
@@ -0,0 +1,23 @@
+package com.rp.risk_management.analytics.simulation;
+
+/**
+ * Source of standard normal draws for the simulations.
+ * <p>
+ * Implementations need not be thread-safe; a thread, or a partition of the paths, owns its source.
+ */
+public interface GaussianSource
+{
+    /**
+     * @return a draw from the standard normal distribution
+     */
+    double nextGaussian();
+
+    /**
+     * Fills a range of an array with standard normal draws.
+     */
+    default void nextGaussians(double[] values, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            values[i] = nextGaussian();
+    }
+}
@@ -0,0 +1,123 @@
+package com.rp.risk_management.analytics.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Exact steps of a geometric Brownian motion without drift, from checkpoint day to checkpoint day.
+ * <p>
+ * Over dt days the price is multiplied by exp(-vol<sup>2</sup> dt / 2 + vol sqrt(dt) Z), exactly
+ * the distribution of the continuous process, so a step can span any number of days with one draw
+ * and prices stay positive. The expected price stays the initial price, as with the daily
+ * arithmetic steps of {@link MonteCarlo#simulatePrices(double, double, int, int)}. A value at risk
+ * over the horizon needs a single checkpoint, one draw per path instead of one per day.
+ */
+public class GbmStepper
+{
+    private final double volatility_;
+    private final int[] checkpoints_;
+    /** Drift and standard deviation of the log price from checkpoint to checkpoint. */
+    private final double[] drift_;
+    private final double[] diffusion_;
+
+    /**
+     * @param volatility daily volatility
+     * @param checkpoints days to simulate the price on, increasing from 1
+     */
+    public GbmStepper(double volatility, int... checkpoints)
+    {
+        if (checkpoints.length == 0)
+            throw new IllegalArgumentException("At least one checkpoint is needed");
+
+        volatility_ = volatility;
+        checkpoints_ = checkpoints.clone();
+        drift_ = new double[checkpoints.length];
+        diffusion_ = new double[checkpoints.length];
+        int previous = 0;
+        for (int i = 0; i < checkpoints.length; i++)
+        {
+            int days = checkpoints[i] - previous;
+            if (days < 1)
+                throw new IllegalArgumentException("Checkpoints must increase from 1 "+Arrays.toString(checkpoints));
+            drift_[i] = -0.5 * volatility * volatility * days;
+            diffusion_[i] = volatility * Math.sqrt(days);
+            previous = checkpoints[i];
+        }
+    }
+
+    /**
+     * @return a stepper to every day up to the time period
+     */
+    public static GbmStepper daily(double volatility, int timePeriod)
+    {
+        int[] checkpoints = new int[timePeriod];
+        for (int day = 0; day < timePeriod; day++)
+            checkpoints[day] = day + 1;
+        return new GbmStepper(volatility, checkpoints);
+    }
+
+    public double getVolatility() {
+        return volatility_;
+    }
+
+    public int[] getCheckpoints() {
+        return checkpoints_.clone();
+    }
+
+    public int getNumberOfCheckpoints() {
+        return checkpoints_.length;
+    }
+
+    /**
+     * @param prices filled with the price at every checkpoint
+     */
+    public void simulate(GaussianSource gaussians, double stockValue, double[] prices)
+    {
+        double price = stockValue;
+        for (int i = 0; i < checkpoints_.length; i++)
+        {
+            price *= Math.exp(drift_[i] + diffusion_[i] * gaussians.nextGaussian());
+            prices[i] = price;
+        }
+    }
+
+    /**
+     * Same as {@link #simulate(GaussianSource, double, double[])} into a summary of the path,
+     * monitored at the checkpoints only.
+     */
+    public void simulate(GaussianSource gaussians, double stockValue, PathSummary summary)
+    {
+        summary.reset(stockValue);
+        double price = stockValue;
+        for (int i = 0; i < checkpoints_.length; i++)
+        {
+            price *= Math.exp(drift_[i] + diffusion_[i] * gaussians.nextGaussian());
+            summary.accept(price);
+        }
+    }
+
+    /**
+     * Same as {@link #simulate(GaussianSource, double, PathSummary)} from given standard normals,
+     * one per checkpoint, such as quasi-random ones.
+     */
+    public void simulate(double[] normals, double stockValue, PathSummary summary)
+    {
+        summary.reset(stockValue);
+        double price = stockValue;
+        for (int i = 0; i < checkpoints_.length; i++)
+        {
+            price *= Math.exp(drift_[i] + diffusion_[i] * normals[i]);
+            summary.accept(price);
+        }
+    }
+
+    /**
+     * @return the price at the last checkpoint, adding up the steps in log space for one exponential
+     */
+    public double simulateFinal(GaussianSource gaussians, double stockValue)
+    {
+        double logReturn = 0.0;
+        for (int i = 0; i < checkpoints_.length; i++)
+            logReturn += drift_[i] + diffusion_[i] * gaussians.nextGaussian();
+        return stockValue * Math.exp(logReturn);
+    }
+}
@@ -0,0 +1,33 @@
+package com.rp.risk_management.analytics.simulation;
+
+import java.util.Random;
+
+/**
+ * Draws from {@link Random#nextGaussian()}, the generator the simulations used at first. Kept to
+ * reproduce earlier runs from their seeds.
+ */
+public class LegacyGaussianSource implements GaussianSource
+{
+    private final Random random_;
+
+    public LegacyGaussianSource()
+    {
+        this(new Random());
+    }
+
+    public LegacyGaussianSource(long seed)
+    {
+        this(new Random(seed));
+    }
+
+    public LegacyGaussianSource(Random random)
+    {
+        random_ = random;
+    }
+
+    @Override
+    public double nextGaussian()
+    {
+        return random_.nextGaussian();
+    }
+}
@@ -1,14 +1,25 @@
 package com.rp.risk_management.analytics.simulation;
 
-import java.util.Arrays;
-import java.util.Random;
+import com.rp.risk_management.analytics.security.options.monte_carlo.VarianceReductions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class MonteCarlo {
     /**
-     * Random number generator using to generate Gaussian (Normal) and regularly distributed random
-     * numbers for simulating prices.
+     * How the normal draws of the simulations are sampled.
      */
-    private static final Random rng                 = new Random();
+    public enum Sampling
+    {
+        /** Independent pseudo-random draws, from {@link ZigguratGaussianSource}. */
+        PSEUDO_RANDOM,
+        /**
+         * Randomised quasi-Monte Carlo, from {@link SobolPaths}, whose errors shrink nearly as 1/n
+         * rather than 1/sqrt(n).
+         */
+        SOBOL
+    }
 
     /**
      * Simulated normally distributed prices for a stock's initial price and its volatility.
@@ -18,32 +29,218 @@ public class MonteCarlo {
      * @return 2D array containing prices over the time period for simulation.
      */
     public static double[][] simulatePrices( double stockValue, double volatility, int numberOfSimulations, int timePeriod )
+    {
+        return simulatePrices( ZigguratGaussianSource.current(), stockValue, volatility, numberOfSimulations, timePeriod );
+    }
+
+    /**
+     * Same as {@link #simulatePrices(double, double, int, int)}, drawing from the given source.
+     */
+    public static double[][] simulatePrices( GaussianSource gaussians, double stockValue, double volatility, int numberOfSimulations, int timePeriod )
     {
         double[][] stockValues = new double[numberOfSimulations][timePeriod];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            simulatePrices( gaussians, stockValue, volatility, stockValues[sim] );
+        }
+        return stockValues;
+    }
+
+    /**
+     * Simulates one path of prices.
+     *
+     * @param prices filled with the price of every day of the path
+     */
+    public static void simulatePrices( GaussianSource gaussians, double stockValue, double volatility, double[] prices )
+    {
+        gaussians.nextGaussians( prices, 0, prices.length );
+        simulatePrices( stockValue, volatility, prices, prices );
+    }
 
-        double possibleStockValue;
+    /**
+     * Same as {@link #simulatePrices(double, double, int, int)}, sampled as given.
+     */
+    public static double[][] simulatePrices( Sampling sampling, double stockValue, double volatility, int numberOfSimulations, int timePeriod )
+    {
+        if( sampling == Sampling.PSEUDO_RANDOM )
+            return simulatePrices( stockValue, volatility, numberOfSimulations, timePeriod );
 
+        SobolPaths paths = new SobolPaths( 1, timePeriod, ThreadLocalRandom.current().nextLong() );
+        double[][] increments = new double[1][timePeriod];
+        double[][] stockValues = new double[numberOfSimulations][timePeriod];
         for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
         {
+            paths.nextPath( increments );
+            simulatePrices( stockValue, volatility, increments[0], stockValues[sim] );
+        }
+        return stockValues;
+    }
+
+    /**
+     * Receives the summary of every simulated path, instead of the path.
+     */
+    @FunctionalInterface
+    public interface PathConsumer
+    {
+        /**
+         * @param sim index of the path
+         * @param summary of the path, reused for the next path once this returns
+         */
+        void accept( int sim, PathSummary summary );
+    }
+
+    /**
+     * Same model as {@link #simulatePrices(double, double, int, int)}, streaming the summary of
+     * every path instead of storing it, so memory does not grow with the number of days or paths.
+     */
+    public static void streamPrices( GaussianSource gaussians, double stockValue, double volatility, int numberOfSimulations, int timePeriod, PathConsumer consumer )
+    {
+        PathSummary summary = new PathSummary();
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            streamPrices( gaussians, stockValue, volatility, timePeriod, summary );
+            consumer.accept( sim, summary );
+        }
+    }
+
+    /**
+     * Same as {@link #streamPrices(GaussianSource, double, double, int, int, PathConsumer)}, sampled as given.
+     */
+    public static void streamPrices( Sampling sampling, double stockValue, double volatility, int numberOfSimulations, int timePeriod, PathConsumer consumer )
+    {
+        if( sampling == Sampling.PSEUDO_RANDOM )
+        {
+            streamPrices( ZigguratGaussianSource.current(), stockValue, volatility, numberOfSimulations, timePeriod, consumer );
+            return;
+        }
+
+        SobolPaths paths = new SobolPaths( 1, timePeriod, ThreadLocalRandom.current().nextLong() );
+        double[][] increments = new double[1][timePeriod];
+        PathSummary summary = new PathSummary();
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            paths.nextPath( increments );
+            summary.reset( stockValue );
+            double possibleStockValue = stockValue;
             for( int day = 0 ; day < timePeriod ; day++ )
             {
-                if( day == 0 )
-                {
-                    possibleStockValue = stockValue
-                                         + ( volatility * rng.nextGaussian() * stockValue );
-                    stockValues[sim][day] = possibleStockValue;
-                }
-                else
-                {
-                    possibleStockValue = stockValues[sim][day - 1]
-                                         + ( volatility * rng.nextGaussian() * stockValues[sim][day - 1] );
-                    stockValues[sim][day] = possibleStockValue;
-                }
+                possibleStockValue = possibleStockValue
+                                     + ( volatility * increments[0][day] * possibleStockValue );
+                summary.accept( possibleStockValue );
             }
+            consumer.accept( sim, summary );
         }
+    }
+
+    /**
+     * Simulates one path of prices into a summary.
+     */
+    public static void streamPrices( GaussianSource gaussians, double stockValue, double volatility, int timePeriod, PathSummary summary )
+    {
+        summary.reset( stockValue );
+        double possibleStockValue = stockValue;
+        for( int day = 0 ; day < timePeriod ; day++ )
+        {
+            possibleStockValue = possibleStockValue
+                                 + ( volatility * gaussians.nextGaussian() * possibleStockValue );
+            summary.accept( possibleStockValue );
+        }
+    }
+
+    /**
+     * Simulates prices by exact geometric Brownian motion steps, one draw per checkpoint.
+     *
+     * @return the price at every checkpoint of the stepper, one row per simulation
+     */
+    public static double[][] simulatePrices( GaussianSource gaussians, GbmStepper stepper, double stockValue, int numberOfSimulations )
+    {
+        double[][] stockValues = new double[numberOfSimulations][stepper.getNumberOfCheckpoints()];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+            stepper.simulate( gaussians, stockValue, stockValues[sim] );
         return stockValues;
     }
 
+    /**
+     * @return the price at the last checkpoint of the stepper for every simulation, e.g. at the
+     *         horizon of a value at risk in one draw per simulation
+     */
+    public static double[] simulateFinalPrices( GaussianSource gaussians, GbmStepper stepper, double stockValue, int numberOfSimulations )
+    {
+        double[] finalValues = new double[numberOfSimulations];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+            finalValues[sim] = stepper.simulateFinal( gaussians, stockValue );
+        return finalValues;
+    }
+
+    /**
+     * Same as {@link #streamPrices(Sampling, double, double, int, int, PathConsumer)} by exact
+     * steps to the checkpoints of the stepper, which the summaries are monitored at.
+     */
+    public static void streamPrices( Sampling sampling, GbmStepper stepper, double stockValue, int numberOfSimulations, PathConsumer consumer )
+    {
+        PathSummary summary = new PathSummary();
+        if( sampling == Sampling.PSEUDO_RANDOM )
+        {
+            GaussianSource gaussians = ZigguratGaussianSource.current();
+            for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+            {
+                stepper.simulate( gaussians, stockValue, summary );
+                consumer.accept( sim, summary );
+            }
+            return;
+        }
+
+        int numberOfCheckpoints = stepper.getNumberOfCheckpoints();
+        SobolPaths paths = new SobolPaths( 1, numberOfCheckpoints, ThreadLocalRandom.current().nextLong() );
+        double[][] increments = new double[1][numberOfCheckpoints];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            paths.nextPath( increments );
+            stepper.simulate( increments[0], stockValue, summary );
+            consumer.accept( sim, summary );
+        }
+    }
+
+    /**
+     * Same as {@link #simulatePrices(double, double, int, int)} with antithetic paths: path 2k + 1
+     * is driven by the negated draws of path 2k, which cancels much of the noise of any estimate
+     * that is monotonic in the draws.
+     *
+     * @param numberOfSimulations even, the number of paths counting both of every pair
+     */
+    public static double[][] simulateAntitheticPrices( double stockValue, double volatility, int numberOfSimulations, int timePeriod )
+    {
+        VarianceReductions.checkAntitheticPairs( numberOfSimulations );
+
+        GaussianSource gaussians = ZigguratGaussianSource.current();
+        double[] normals = new double[timePeriod];
+        double[][] stockValues = new double[numberOfSimulations][timePeriod];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim += 2 )
+        {
+            gaussians.nextGaussians( normals, 0, timePeriod );
+            simulatePrices( stockValue, volatility, normals, stockValues[sim] );
+            for( int day = 0 ; day < timePeriod ; day++ )
+                normals[day] = -normals[day];
+            simulatePrices( stockValue, volatility, normals, stockValues[sim + 1] );
+        }
+        return stockValues;
+    }
+
+    /**
+     * @param normals the normal draw of every day
+     * @param prices filled with the price of every day, may be the array of draws
+     */
+    public static void simulatePrices( double stockValue, double volatility, double[] normals, double[] prices )
+    {
+        double possibleStockValue = stockValue;
+        for( int day = 0 ; day < prices.length ; day++ )
+        {
+            possibleStockValue = possibleStockValue
+                                 + ( volatility * normals[day] * possibleStockValue );
+            prices[day] = possibleStockValue;
+        }
+    }
+
     /**
      * Simulates normally distributed returns for each asset over the specified time period using
      * the Monte Carlo simulation model.
@@ -52,32 +249,73 @@ public class MonteCarlo {
      */
     public final static SimulationResults simulateReturns(int numberOfStocks, int timePeriod)
     {
-        double[][] simulatedReturns = new double[numberOfStocks][timePeriod];
+        return simulateReturns( ZigguratGaussianSource.current(), numberOfStocks, timePeriod );
+    }
+
+    /**
+     * Same as {@link #simulateReturns(int, int)}, drawing from the given source.
+     */
+    public static SimulationResults simulateReturns(GaussianSource gaussians, int numberOfStocks, int timePeriod)
+    {
         double[] minReturns = new double[numberOfStocks];
+        double[] finalDayReturns = new double[numberOfStocks];
+        simulateReturns( gaussians, numberOfStocks, timePeriod, minReturns, finalDayReturns, 0 );
+        return new SimulationResults(minReturns,finalDayReturns);
+    }
 
-        // simulate returns
+    /**
+     * Same as {@link #simulateReturns(GaussianSource, int, int)}, into arrays of many simulations.
+     *
+     * @param offset where the returns of the first stock go in both arrays
+     */
+    public static void simulateReturns(GaussianSource gaussians, int numberOfStocks, int timePeriod, double[] minReturns, double[] finalDayReturns, int offset)
+    {
+        // record minimum and final day returns for each stock as they are drawn
         for( int stock = 0 ; stock < numberOfStocks ; stock++ )
         {
+            double min = Double.POSITIVE_INFINITY;
+            double simulatedReturn = 0.0;
             for( int day = 0 ; day < timePeriod ; day++ )
             {
-                simulatedReturns[stock][day] = rng.nextGaussian();
+                simulatedReturn = gaussians.nextGaussian();
+                min = Math.min( min, simulatedReturn );
             }
+            finalDayReturns[offset + stock] = simulatedReturn;
+            minReturns[offset + stock] = min;
         }
+    }
 
-        double[] finalDayReturns = new double[numberOfStocks];
-
-        // record minimum and final day returns for each stock
-        for( int i = 0 ; i < numberOfStocks ; i++ )
+    /**
+     * Same as {@link #simulateReturns(int, int)} for every simulation, sampled as given.
+     */
+    public static List<SimulationResults> simulateReturns(Sampling sampling, int numberOfStocks, int timePeriod, int numberOfSimulations)
+    {
+        List<SimulationResults> ret = new ArrayList<>(numberOfSimulations);
+        if( sampling == Sampling.PSEUDO_RANDOM )
         {
-            finalDayReturns[i] = simulatedReturns[i][timePeriod - 1];
-
-            double[] returnsForStock = Arrays.copyOf( simulatedReturns[i],
-                    timePeriod );
-            Arrays.sort( returnsForStock );
-            minReturns[i] = returnsForStock[0];
+            for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+                ret.add( simulateReturns( numberOfStocks, timePeriod ) );
+            return ret;
         }
 
-        return new SimulationResults(minReturns,finalDayReturns);
+        SobolPaths paths = new SobolPaths( numberOfStocks, timePeriod, ThreadLocalRandom.current().nextLong() );
+        double[][] normals = new double[numberOfStocks][timePeriod];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            paths.nextNormals( normals );
+            double[] minReturns = new double[numberOfStocks];
+            double[] finalDayReturns = new double[numberOfStocks];
+            for( int stock = 0 ; stock < numberOfStocks ; stock++ )
+            {
+                double min = Double.POSITIVE_INFINITY;
+                for( double simulatedReturn : normals[stock] )
+                    min = Math.min( min, simulatedReturn );
+                finalDayReturns[stock] = normals[stock][timePeriod - 1];
+                minReturns[stock] = min;
+            }
+            ret.add( new SimulationResults(minReturns,finalDayReturns) );
+        }
+        return ret;
     }
 
     public static class SimulationResults
@@ -0,0 +1,217 @@
+package com.rp.risk_management.analytics.simulation;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the paths of a Monte Carlo simulation on a fork-join pool, reproducibly.
+ * <p>
+ * Paths are cut into partitions of {@link #PATHS_PER_PARTITION} consecutive paths, and each
+ * partition draws from its own {@link RandomStream} derived from the seed. The partitions do not
+ * depend on the number of threads, so neither do the results: a seed gives the same paths on one
+ * core or many. Partitions share nothing, so throughput grows with the cores.
+ */
+public class ParallelMonteCarlo
+{
+    public static final int PATHS_PER_PARTITION = 256;
+
+    private final long seed_;
+    private final ForkJoinPool pool_;
+
+    public ParallelMonteCarlo(long seed)
+    {
+        this(seed, ForkJoinPool.commonPool());
+    }
+
+    public ParallelMonteCarlo(long seed, ForkJoinPool pool)
+    {
+        seed_ = seed;
+        pool_ = pool;
+    }
+
+    /**
+     * Simulates one path.
+     */
+    @FunctionalInterface
+    public interface Path
+    {
+        /**
+         * @param path index of the path, from 0
+         * @param random stream of the partition the path belongs to
+         */
+        void simulate(int path, RandomStream random);
+    }
+
+    /**
+     * Simulates one path down to a single value, such as the value of a portfolio.
+     */
+    @FunctionalInterface
+    public interface PathValue
+    {
+        double simulate(RandomStream random);
+    }
+
+    /**
+     * Simulates the consecutive paths of a partition together, such as to revalue them in a batch.
+     */
+    @FunctionalInterface
+    public interface Block
+    {
+        /**
+         * @param from first path of the partition
+         * @param to end of the partition, at most {@link #PATHS_PER_PARTITION} paths after from
+         * @param random stream of the partition
+         */
+        void simulate(int from, int to, RandomStream random);
+    }
+
+    /**
+     * Simulates every path. Paths of a partition run in order on one thread, partitions run in parallel.
+     */
+    public void forEachPath(int numberOfPaths, Path path)
+    {
+        forEachBlock(numberOfPaths, (from, to, random) -> {
+            for (int i = from; i < to; i++)
+                path.simulate(i, random);
+        });
+    }
+
+    /**
+     * Simulates every partition of the paths, in parallel.
+     */
+    public void forEachBlock(int numberOfPaths, Block block)
+    {
+        forEachBlock(0, numberOfPaths, block);
+    }
+
+    /**
+     * Simulates the partitions of a range of the paths, in parallel, with the same draws as when
+     * all the paths are simulated at once. Lets a run be extended batch by batch.
+     * @param fromPath first path, at the start of a partition
+     * @param toPath end of the range
+     */
+    public void forEachBlock(int fromPath, int toPath, Block block)
+    {
+        if (fromPath % PATHS_PER_PARTITION != 0)
+            throw new IllegalArgumentException("First path must start a partition of ["+PATHS_PER_PARTITION+"] paths ["+fromPath+"]");
+        int numberOfPartitions = getNumberOfPartitions(toPath);
+        pool_.invoke(new PartitionTask(fromPath / PATHS_PER_PARTITION, numberOfPartitions, partition -> {
+            RandomStream random = RandomStream.forPartition(seed_, partition);
+            int end = Math.min(toPath, (partition + 1) * PATHS_PER_PARTITION);
+            block.simulate(partition * PATHS_PER_PARTITION, end, random);
+        }));
+    }
+
+    /**
+     * @return the value of every path
+     */
+    public double[] simulateValues(int numberOfPaths, PathValue value)
+    {
+        double[] ret = new double[numberOfPaths];
+        forEachPath(numberOfPaths, (path, random) -> ret[path] = value.simulate(random));
+        return ret;
+    }
+
+    /**
+     * Same model as {@link MonteCarlo#simulatePrices(double, double, int, int)}.
+     * @return prices over the time period, one row per simulation
+     */
+    public double[][] simulatePrices(double stockValue, double volatility, int numberOfSimulations, int timePeriod)
+    {
+        double[][] ret = new double[numberOfSimulations][timePeriod];
+        forEachPath(numberOfSimulations, (path, random) -> MonteCarlo.simulatePrices(random, stockValue, volatility, ret[path]));
+        return ret;
+    }
+
+    /**
+     * Same model as {@link MonteCarlo#streamPrices(GaussianSource, double, double, int, int, MonteCarlo.PathConsumer)}.
+     * The consumer is called from the partitions in parallel, each path once.
+     */
+    public void streamPrices(double stockValue, double volatility, int numberOfSimulations, int timePeriod, MonteCarlo.PathConsumer consumer)
+    {
+        forEachBlock(numberOfSimulations, (from, to, random) -> {
+            PathSummary summary = new PathSummary();
+            for (int path = from; path < to; path++)
+            {
+                MonteCarlo.streamPrices(random, stockValue, volatility, timePeriod, summary);
+                consumer.accept(path, summary);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #streamPrices(double, double, int, int, MonteCarlo.PathConsumer)} by exact
+     * steps to the checkpoints of the stepper.
+     */
+    public void streamPrices(GbmStepper stepper, double stockValue, int numberOfSimulations, MonteCarlo.PathConsumer consumer)
+    {
+        forEachBlock(numberOfSimulations, (from, to, random) -> {
+            PathSummary summary = new PathSummary();
+            for (int path = from; path < to; path++)
+            {
+                stepper.simulate(random, stockValue, summary);
+                consumer.accept(path, summary);
+            }
+        });
+    }
+
+    /**
+     * Same model as {@link MonteCarlo#simulateReturns(int, int)}, for every simulation.
+     */
+    public List<MonteCarlo.SimulationResults> simulateReturns(int numberOfStocks, int timePeriod, int numberOfSimulations)
+    {
+        MonteCarlo.SimulationResults[] ret = new MonteCarlo.SimulationResults[numberOfSimulations];
+        forEachPath(numberOfSimulations, (path, random) -> ret[path] = MonteCarlo.simulateReturns(random, numberOfStocks, timePeriod));
+        return new ArrayList<>(Arrays.asList(ret));
+    }
+
+    public long getSeed() {
+        return seed_;
+    }
+
+    private static int getNumberOfPartitions(int numberOfPaths)
+    {
+        if (numberOfPaths < 0)
+            throw new IllegalArgumentException("Number of paths must not be negative ["+numberOfPaths+"]");
+        return (numberOfPaths + PATHS_PER_PARTITION - 1) / PATHS_PER_PARTITION;
+    }
+
+    @FunctionalInterface
+    private interface Partition
+    {
+        void run(int partition);
+    }
+
+    private static class PartitionTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from_;
+        private final int to_;
+        private final Partition partition_;
+
+        private PartitionTask(int from, int to, Partition partition)
+        {
+            from_ = from;
+            to_ = to;
+            partition_ = partition;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to_ - from_ > 1)
+            {
+                int middle = (from_ + to_) >>> 1;
+                invokeAll(new PartitionTask(from_, middle, partition_), new PartitionTask(middle, to_, partition_));
+                return;
+            }
+            if (to_ > from_)
+                partition_.run(from_);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.rp.risk_management.analytics.simulation;
+
+/**
+ * Summary of one simulated path, accumulated value by value so the path itself is never stored.
+ * Reused from path to path with {@link #reset(double)}.
+ */
+public class PathSummary
+{
+    private double initialValue_;
+    private double finalValue_;
+    private double minimum_;
+    private double maximum_;
+    private double peak_;
+    private double maxDrawdown_;
+    private int length_;
+
+    /**
+     * Starts a new path.
+     * @param initialValue value before the first step, the first peak of the drawdown but not
+     *                     itself a value of the path
+     */
+    public void reset(double initialValue)
+    {
+        initialValue_ = initialValue;
+        finalValue_ = initialValue;
+        minimum_ = Double.POSITIVE_INFINITY;
+        maximum_ = Double.NEGATIVE_INFINITY;
+        peak_ = initialValue;
+        maxDrawdown_ = 0.0;
+        length_ = 0;
+    }
+
+    /**
+     * Adds the value of the next step of the path.
+     */
+    public void accept(double value)
+    {
+        finalValue_ = value;
+        minimum_ = Math.min(minimum_, value);
+        maximum_ = Math.max(maximum_, value);
+        peak_ = Math.max(peak_, value);
+        maxDrawdown_ = Math.max(maxDrawdown_, peak_ - value);
+        length_++;
+    }
+
+    public double getInitialValue() {
+        return initialValue_;
+    }
+
+    /**
+     * @return value of the last step, the initial value before any
+     */
+    public double getFinalValue() {
+        return finalValue_;
+    }
+
+    /**
+     * @return lowest value of the steps, infinite before any
+     */
+    public double getMinimum() {
+        return minimum_;
+    }
+
+    public double getMaximum() {
+        return maximum_;
+    }
+
+    /**
+     * @return largest fall from a running peak, the initial value included, to a later value
+     */
+    public double getMaxDrawdown() {
+        return maxDrawdown_;
+    }
+
+    /**
+     * @return number of steps so far
+     */
+    public int getLength() {
+        return length_;
+    }
+}
@@ -0,0 +1,65 @@
+package com.rp.risk_management.analytics.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Independent stream of random numbers for one partition of the paths of a simulation.
+ * <p>
+ * The stream of a partition is seeded from the seed of the simulation and the index of the
+ * partition alone, so it is the same whichever thread runs the partition and in whatever order.
+ * Not thread-safe, each partition owns its stream.
+ */
+public final class RandomStream implements GaussianSource
+{
+    /** Odd constant of SplitMix64, spacing the seeds of consecutive partitions. */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final SplittableRandom random_;
+    private final ZigguratGaussianSource gaussians_;
+
+    public RandomStream(long seed)
+    {
+        random_ = new SplittableRandom(seed);
+        gaussians_ = new ZigguratGaussianSource(random_);
+    }
+
+    /**
+     * @return the stream of one partition of a simulation
+     */
+    public static RandomStream forPartition(long seed, long partition)
+    {
+        return new RandomStream(mix(seed + GOLDEN_GAMMA * (partition + 1)));
+    }
+
+    /**
+     * @return uniform in [0, 1)
+     */
+    public double nextDouble()
+    {
+        return random_.nextDouble();
+    }
+
+    public long nextLong()
+    {
+        return random_.nextLong();
+    }
+
+    /**
+     * Standard normal, by {@link ZigguratGaussianSource} on the uniform draws of this stream.
+     */
+    @Override
+    public double nextGaussian()
+    {
+        return gaussians_.nextGaussian();
+    }
+
+    /**
+     * Finaliser of SplitMix64, so nearby seeds give unrelated streams.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
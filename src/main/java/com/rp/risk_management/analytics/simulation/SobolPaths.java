@@ -0,0 +1,65 @@
+package com.rp.risk_management.analytics.simulation;
+
+import com.rp.risk_management.analytics.statistics.NormalQuantile;
+
+/**
+ * Quasi-random normal increments for the paths of several stocks, from a {@link SobolSequence}
+ * through a {@link BrownianBridge} per stock.
+ * <p>
+ * Draw i of the bridge of every stock takes the coordinates i * numberOfStocks to
+ * (i + 1) * numberOfStocks - 1, so the end points of all the stocks take the first and most
+ * uniform coordinates. Not thread-safe.
+ */
+public class SobolPaths
+{
+    private final int numberOfStocks_;
+    private final int timePeriod_;
+    private final SobolSequence sequence_;
+    private final BrownianBridge bridge_;
+    private final double[] point_;
+    private final double[] normals_;
+
+    /**
+     * @param seed of the scrambling of the points
+     */
+    public SobolPaths(int numberOfStocks, int timePeriod, long seed)
+    {
+        numberOfStocks_ = numberOfStocks;
+        timePeriod_ = timePeriod;
+        sequence_ = new SobolSequence(numberOfStocks * timePeriod, seed);
+        bridge_ = new BrownianBridge(timePeriod);
+        point_ = new double[numberOfStocks * timePeriod];
+        normals_ = new double[timePeriod];
+    }
+
+    public SobolSequence getSequence() {
+        return sequence_;
+    }
+
+    /**
+     * @param increments filled with the standard normal increments of the next path, by stock and then day
+     */
+    public void nextPath(double[][] increments)
+    {
+        sequence_.nextPoint(point_);
+        for (int stock = 0; stock < numberOfStocks_; stock++)
+        {
+            for (int i = 0; i < timePeriod_; i++)
+                normals_[i] = NormalQuantile.inverseCumulativeProbability(point_[i * numberOfStocks_ + stock]);
+            bridge_.buildIncrements(normals_, increments[stock]);
+        }
+    }
+
+    /**
+     * Same points without the bridge, for independent daily draws of which the last day matters
+     * most, as in {@link MonteCarlo#simulateReturns(int, int)}.
+     * @param normals filled with standard normals by stock and then day, the last day from the first coordinates
+     */
+    public void nextNormals(double[][] normals)
+    {
+        sequence_.nextPoint(point_);
+        for (int stock = 0; stock < numberOfStocks_; stock++)
+            for (int i = 0; i < timePeriod_; i++)
+                normals[stock][timePeriod_ - 1 - i] = NormalQuantile.inverseCumulativeProbability(point_[i * numberOfStocks_ + stock]);
+    }
+}
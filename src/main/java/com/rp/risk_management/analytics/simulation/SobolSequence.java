@@ -0,0 +1,263 @@
+package com.rp.risk_management.analytics.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Scrambled Sobol low-discrepancy points in the unit cube.
+ * <p>
+ * Dimension j uses the j-th primitive polynomial over GF(2), by degree and then coefficients, as
+ * tabulated by Joe and Kuo. The first dimensions take the initial direction numbers of Joe and Kuo;
+ * later ones take random odd numbers from a fixed seed, which still gives a Sobol sequence, with
+ * weaker projections. Points follow the Gray code, one XOR per dimension per point.
+ * <p>
+ * The points are randomised by a random linear scrambling of the direction numbers and a random
+ * digital shift, both drawn from the seed (Matousek, "On the L2-discrepancy for anchored boxes").
+ * Every point is then uniform on the cube while the set keeps its low discrepancy, so independent
+ * seeds give independent estimates to measure the error with. Not thread-safe.
+ */
+public class SobolSequence
+{
+    /** Bits of every coordinate, the precision of a double. */
+    private static final int BITS = 53;
+    private static final double UNIT = 0x1.0p-53;
+    public static final int MAX_DIMENSION = 21201;
+
+    /** Initial direction numbers m_1 .. m_s of Joe and Kuo for dimensions 2 to 16. */
+    private static final int[][] INITIAL_DIRECTION_NUMBERS = {
+            { 1 },
+            { 1, 3 },
+            { 1, 3, 1 },
+            { 1, 1, 1 },
+            { 1, 1, 3, 3 },
+            { 1, 3, 5, 13 },
+            { 1, 1, 5, 5, 17 },
+            { 1, 1, 5, 5, 5 },
+            { 1, 1, 7, 11, 19 },
+            { 1, 1, 5, 1, 1 },
+            { 1, 1, 1, 3, 11 },
+            { 1, 3, 5, 5, 31 },
+            { 1, 3, 3, 9, 7, 49 },
+            { 1, 1, 1, 15, 21, 21 },
+            { 1, 3, 1, 13, 27, 49 } };
+
+    /** Seed of the initial direction numbers beyond the table, so every sequence uses the same. */
+    private static final long DIRECTION_NUMBER_SEED = 0x50B01L;
+
+    private final int dimension_;
+    /** Direction numbers, BITS per dimension. */
+    private final long[][] directions_;
+    private final long[] shift_;
+    /** Unshifted coordinates of the current point. */
+    private final long[] point_;
+    private long index_;
+
+    public SobolSequence(int dimension, long seed)
+    {
+        if (dimension < 1 || dimension > MAX_DIMENSION)
+            throw new IllegalArgumentException("Dimension must be in [1, "+MAX_DIMENSION+"] ["+dimension+"]");
+
+        dimension_ = dimension;
+        directions_ = new long[dimension][];
+        shift_ = new long[dimension];
+        point_ = new long[dimension];
+
+        SplittableRandom initial = new SplittableRandom(DIRECTION_NUMBER_SEED);
+        SplittableRandom scrambling = new SplittableRandom(seed);
+        List<long[]> polynomials = primitivePolynomials(dimension - 1);
+        for (int j = 0; j < dimension; j++)
+        {
+            long[] directions = j == 0 ? vanDerCorput() : directions(j, polynomials.get(j - 1), initial);
+            directions_[j] = scramble(directions, scrambling);
+            shift_[j] = scrambling.nextLong() >>> (64 - BITS);
+        }
+    }
+
+    public int getDimension() {
+        return dimension_;
+    }
+
+    /**
+     * @return index of the next point, from 0
+     */
+    public long getIndex() {
+        return index_;
+    }
+
+    /**
+     * Moves to a point directly, e.g. to give each partition of the paths its own block of points.
+     */
+    public void skipTo(long index)
+    {
+        if (index < 0)
+            throw new IllegalArgumentException("Index must not be negative ["+index+"]");
+
+        // the point of index n is the sum of the directions of the bits of its Gray code
+        long gray = index ^ (index >>> 1);
+        for (int j = 0; j < dimension_; j++)
+        {
+            long x = 0;
+            for (int bit = 0; bit < BITS && (gray >>> bit) != 0; bit++)
+                if (((gray >>> bit) & 1) != 0)
+                    x ^= directions_[j][bit];
+            point_[j] = x;
+        }
+        index_ = index;
+    }
+
+    /**
+     * @param point filled with the next point, every coordinate in (0, 1)
+     */
+    public void nextPoint(double[] point)
+    {
+        for (int j = 0; j < dimension_; j++)
+            // middle of the cell of the point, never 0 or 1
+            point[j] = ((point_[j] ^ shift_[j]) + 0.5) * UNIT;
+
+        // the next Gray code differs in the lowest zero bit of the index
+        int bit = Long.numberOfTrailingZeros(~index_);
+        if (bit >= BITS)
+            throw new IllegalStateException("Sobol sequence exhausted at ["+index_+"]");
+        for (int j = 0; j < dimension_; j++)
+            point_[j] ^= directions_[j][bit];
+        index_++;
+    }
+
+    private static long[] vanDerCorput()
+    {
+        long[] ret = new long[BITS];
+        for (int k = 0; k < BITS; k++)
+            ret[k] = 1L << (BITS - 1 - k);
+        return ret;
+    }
+
+    /**
+     * Direction numbers from a primitive polynomial, by the recurrence of Bratley and Fox.
+     * @param polynomial degree s and the coefficients a_1 .. a_(s-1), as bits of a long
+     */
+    private static long[] directions(int j, long[] polynomial, SplittableRandom initial)
+    {
+        int s = (int) polynomial[0];
+        long a = polynomial[1];
+        long[] m = new long[BITS];
+        for (int k = 0; k < Math.min(s, BITS); k++)
+        {
+            if (j - 1 < INITIAL_DIRECTION_NUMBERS.length)
+                m[k] = INITIAL_DIRECTION_NUMBERS[j - 1][k];
+            else
+                // odd and below 2^(k+1)
+                m[k] = (initial.nextLong() >>> (63 - k)) | 1;
+        }
+        for (int k = s; k < BITS; k++)
+        {
+            long value = m[k - s] ^ (m[k - s] << s);
+            for (int i = 1; i < s; i++)
+                if (((a >>> (s - 1 - i)) & 1) != 0)
+                    value ^= m[k - i] << i;
+            m[k] = value;
+        }
+
+        long[] ret = new long[BITS];
+        for (int k = 0; k < BITS; k++)
+            ret[k] = m[k] << (BITS - 1 - k);
+        return ret;
+    }
+
+    /**
+     * Multiplies the direction numbers by a random lower triangular matrix with a unit diagonal,
+     * so that every bit of a coordinate mixes the more significant ones.
+     */
+    private static long[] scramble(long[] directions, SplittableRandom random)
+    {
+        long[] rows = new long[BITS];
+        for (int i = 0; i < BITS; i++)
+        {
+            // bit (BITS - 1 - i) of the output depends on itself and the bits above it
+            long above = i == 0 ? 0 : (random.nextLong() >>> (64 - i)) << (BITS - i);
+            rows[i] = above | (1L << (BITS - 1 - i));
+        }
+
+        long[] ret = new long[BITS];
+        for (int k = 0; k < BITS; k++)
+        {
+            long scrambled = 0;
+            for (int i = 0; i < BITS; i++)
+                if ((Long.bitCount(rows[i] & directions[k]) & 1) != 0)
+                    scrambled |= 1L << (BITS - 1 - i);
+            ret[k] = scrambled;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the first primitive polynomials over GF(2), by degree and then coefficients, as
+     *         the degree and the coefficients a_1 .. a_(s-1) of the terms in between
+     */
+    static List<long[]> primitivePolynomials(int count)
+    {
+        List<long[]> ret = new ArrayList<>(count);
+        for (int s = 1; ret.size() < count; s++)
+        {
+            for (long a = 0; a < (1L << (s - 1)) && ret.size() < count; a++)
+            {
+                long polynomial = (1L << s) | (a << 1) | 1;
+                if (isPrimitive(polynomial, s))
+                    ret.add(new long[] { s, a });
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * A polynomial of degree s is primitive when x has order 2^s - 1 modulo it.
+     */
+    private static boolean isPrimitive(long polynomial, int s)
+    {
+        long order = (1L << s) - 1;
+        if (powerOfX(order, polynomial, s) != 1)
+            return false;
+        long remaining = order;
+        for (long factor = 2; factor * factor <= remaining; factor++)
+        {
+            if (remaining % factor == 0)
+            {
+                if (powerOfX(order / factor, polynomial, s) == 1)
+                    return false;
+                while (remaining % factor == 0)
+                    remaining /= factor;
+            }
+        }
+        return remaining == 1 || powerOfX(order / remaining, polynomial, s) != 1;
+    }
+
+    /**
+     * @return x^e modulo the polynomial
+     */
+    private static long powerOfX(long e, long polynomial, int s)
+    {
+        long ret = 1;
+        long base = s == 1 ? 1 : 2;
+        for (; e > 0; e >>>= 1)
+        {
+            if ((e & 1) != 0)
+                ret = multiply(ret, base, polynomial, s);
+            base = multiply(base, base, polynomial, s);
+        }
+        return ret;
+    }
+
+    private static long multiply(long x, long y, long polynomial, int s)
+    {
+        long ret = 0;
+        for (; y != 0; y >>>= 1)
+        {
+            if ((y & 1) != 0)
+                ret ^= x;
+            x <<= 1;
+            if (((x >>> s) & 1) != 0)
+                x ^= polynomial;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,56 @@
+package com.rp.risk_management.analytics.simulation;
+
+/**
+ * Normal draws shifted by a mean per draw of a path, for importance sampling.
+ * <p>
+ * The i-th draw of a path is a standard normal plus the i-th shift; draws past the shifts are left
+ * as they are. Pointing the shifts towards the losses makes the tail of a path model common
+ * instead of rare. The path is then weighted by its likelihood ratio, exp(-shift z + shift<sup>2</sup> / 2)
+ * over its draws z, so that weighted estimates stay those of the untilted model.
+ */
+public class TiltedGaussianSource implements GaussianSource
+{
+    private final GaussianSource source_;
+    private final double[] shifts_;
+    private int index_;
+    private double logLikelihoodRatio_;
+
+    /**
+     * @param source the standard normal draws
+     * @param shifts mean of each draw of a path, in the order the path model draws them
+     */
+    public TiltedGaussianSource(GaussianSource source, double[] shifts)
+    {
+        source_ = source;
+        shifts_ = shifts.clone();
+    }
+
+    /**
+     * Starts a path, from the first shift and a likelihood ratio of 1.
+     */
+    public void startPath()
+    {
+        index_ = 0;
+        logLikelihoodRatio_ = 0.0;
+    }
+
+    @Override
+    public double nextGaussian()
+    {
+        double draw = source_.nextGaussian();
+        if (index_ >= shifts_.length)
+            return draw;
+
+        double shift = shifts_[index_++];
+        double tilted = draw + shift;
+        logLikelihoodRatio_ += shift * (0.5 * shift - tilted);
+        return tilted;
+    }
+
+    /**
+     * @return density of the draws of the path so far without the shifts over with them
+     */
+    public double getLikelihoodRatio() {
+        return Math.exp(logLikelihoodRatio_);
+    }
+}
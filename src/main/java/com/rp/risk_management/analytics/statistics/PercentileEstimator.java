@@ -0,0 +1,14 @@
+package com.rp.risk_management.analytics.statistics;
+
+/**
+ * Estimates a percentile of a sample, as the VaR models need.
+ */
+public interface PercentileEstimator
+{
+    /**
+     * @param values the sample, which is left unchanged
+     * @param percentile in (0, 100]
+     * @return the value at the percentile, NaN for an empty sample
+     */
+    double evaluate(double[] values, double percentile);
+}
@@ -0,0 +1,43 @@
+package com.rp.risk_management.analytics.statistics;
+
+/**
+ * Standard error of a percentile of a sample, without assuming a distribution.
+ * <p>
+ * The rank of the true percentile among n values is binomial, with a standard deviation of
+ * sqrt(n p (1 - p)) ranks. Reading the values that many ranks either side of the percentile
+ * turns that into a standard deviation of the percentile itself, as the slope of the sample
+ * quantile function times the spread of the rank. Ranks follow the definition of
+ * {@link QuickSelectPercentile}, and the values are selected rather than sorted.
+ */
+public class PercentileStandardError
+{
+    private PercentileStandardError()
+    {
+    }
+
+    /**
+     * @param values the sample, which is left unchanged
+     * @param percentile in (0, 100]
+     * @return the standard error of the value at the percentile, NaN for fewer than two values
+     */
+    public static double estimate(double[] values, double percentile)
+    {
+        QuickSelectPercentile.checkPercentile(percentile);
+        int length = values.length;
+        if (length < 2)
+            return Double.NaN;
+
+        double probability = percentile / 100;
+        double position = percentile * (length + 1) / 100;
+        double spread = Math.sqrt(length * probability * (1 - probability));
+
+        // ranks from 1, at least one apart so the slope is defined
+        int upper = (int) Math.min(length, Math.max(2, Math.ceil(position + spread)));
+        int lower = (int) Math.max(1, Math.min(upper - 1, Math.floor(position - spread)));
+
+        double[] copy = values.clone();
+        double upperValue = QuickSelectPercentile.select(copy, upper - 1);
+        double lowerValue = QuickSelectPercentile.select(copy, lower - 1);
+        return (upperValue - lowerValue) / (upper - lower) * spread;
+    }
+}
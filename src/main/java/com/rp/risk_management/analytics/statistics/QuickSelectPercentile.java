@@ -0,0 +1,119 @@
+package com.rp.risk_management.analytics.statistics;
+
+/**
+ * Exact percentile by selection in expected O(n), rather than sorting the sample.
+ * <p>
+ * Follows the definition of the Commons Math <code>Percentile</code> the models used so far: with
+ * <code>pos = percentile * ( n + 1 ) / 100</code>, the minimum below 1, the maximum from n, and
+ * otherwise the interpolation between the values ranked <code>floor(pos)</code> and
+ * <code>floor(pos) + 1</code>. The values must not be NaN.
+ */
+public class QuickSelectPercentile implements PercentileEstimator
+{
+    /** Below this size a range is finished by insertion sort. */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    @Override
+    public double evaluate(double[] values, double percentile)
+    {
+        checkPercentile(percentile);
+        if (values.length == 0)
+            return Double.NaN;
+
+        return evaluateInPlace(values.clone(), percentile);
+    }
+
+    /**
+     * Same as {@link #evaluate(double[], double)}, reordering the values instead of a copy of them.
+     */
+    public double evaluateInPlace(double[] values, double percentile)
+    {
+        checkPercentile(percentile);
+        int length = values.length;
+        if (length == 0)
+            return Double.NaN;
+        if (length == 1)
+            return values[0];
+
+        double position = percentile * (length + 1) / 100;
+        double floor = Math.floor(position);
+        int index = (int) floor;
+        if (position < 1)
+            return select(values, 0);
+        if (position >= length)
+            return select(values, length - 1);
+
+        double lower = select(values, index - 1);
+        // after selection every value to the right of the lower one is at least as large
+        double upper = values[index];
+        for (int i = index + 1; i < length; i++)
+            if (values[i] < upper)
+                upper = values[i];
+        return lower + (position - floor) * (upper - lower);
+    }
+
+    static void checkPercentile(double percentile)
+    {
+        if (!(percentile > 0 && percentile <= 100))
+            throw new IllegalArgumentException("Percentile must be in (0, 100] ["+percentile+"]");
+    }
+
+    /**
+     * Moves the value of the given rank into place, smaller values to its left and larger ones to
+     * its right.
+     * @return the value ranked <code>rank</code>, from 0
+     */
+    static double select(double[] values, int rank)
+    {
+        int left = 0;
+        int right = values.length - 1;
+        while (right - left >= INSERTION_SORT_THRESHOLD)
+        {
+            // median of three as the pivot, which also guards both scans
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left])
+                swap(values, middle, left);
+            if (values[right] < values[left])
+                swap(values, right, left);
+            if (values[right] < values[middle])
+                swap(values, right, middle);
+            double pivot = values[middle];
+
+            int i = left;
+            int j = right;
+            while (i <= j)
+            {
+                while (values[i] < pivot)
+                    i++;
+                while (values[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(values, i++, j--);
+            }
+
+            if (rank <= j)
+                right = j;
+            else if (rank >= i)
+                left = i;
+            else
+                return values[rank];
+        }
+
+        for (int i = left + 1; i <= right; i++)
+        {
+            double value = values[i];
+            int j = i - 1;
+            for (; j >= left && values[j] > value; j--)
+                values[j + 1] = values[j];
+            values[j + 1] = value;
+        }
+        return values[rank];
+    }
+
+    private static void swap(double[] values, int i, int j)
+    {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,138 @@
+package com.rp.risk_management.analytics.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Exact percentiles of a window of values that changes one value at a time, as in a backtest.
+ * <p>
+ * Every value that may enter the window is ranked once up front. The window is then a Fenwick tree
+ * of counts over those ranks, so adding or removing a value and reading a percentile are
+ * O(log n), instead of copying and sorting the window every day. Percentiles follow the
+ * definition of {@link QuickSelectPercentile}.
+ */
+public class RollingPercentile
+{
+    /** Distinct values that may enter the window, ascending. */
+    private final double[] values_;
+    /** Fenwick tree of the count of each value in the window, from index 1. */
+    private final int[] tree_;
+    private final int highestPowerOfTwo_;
+    private int size_;
+
+    /**
+     * @param universe every value that may be added, in any order and with duplicates
+     */
+    public RollingPercentile(double[] universe)
+    {
+        double[] sorted = universe.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+        {
+            if (Double.isNaN(sorted[i]))
+                throw new IllegalArgumentException("Unable to rank NaN");
+            if (distinct == 0 || Double.compare(sorted[i], sorted[distinct - 1]) != 0)
+                sorted[distinct++] = sorted[i];
+        }
+        values_ = Arrays.copyOf(sorted, distinct);
+        tree_ = new int[distinct + 1];
+        highestPowerOfTwo_ = distinct == 0 ? 0 : Integer.highestOneBit(distinct);
+    }
+
+    public void add(double value)
+    {
+        update(indexOf(value), 1);
+        size_++;
+    }
+
+    public void remove(double value)
+    {
+        int index = indexOf(value);
+        if (getCount(index) == 0)
+            throw new IllegalArgumentException("Value not in the window ["+value+"]");
+        update(index, -1);
+        size_--;
+    }
+
+    /**
+     * @return number of values in the window
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * @param rank from 0, the smallest value in the window
+     * @return the value of that rank in the window
+     */
+    public double getValue(int rank)
+    {
+        if (rank < 0 || rank >= size_)
+            throw new IndexOutOfBoundsException("Rank ["+rank+"] outside window of ["+size_+"] values");
+
+        // descend the tree for the first index whose cumulative count exceeds the rank
+        int index = 0;
+        int remaining = rank;
+        for (int step = highestPowerOfTwo_; step > 0; step >>= 1)
+        {
+            int next = index + step;
+            if (next < tree_.length && tree_[next] <= remaining)
+            {
+                index = next;
+                remaining -= tree_[next];
+            }
+        }
+        return values_[index];
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return the value at the percentile of the window, NaN for an empty window
+     */
+    public double getPercentile(double percentile)
+    {
+        QuickSelectPercentile.checkPercentile(percentile);
+        if (size_ == 0)
+            return Double.NaN;
+        if (size_ == 1)
+            return getValue(0);
+
+        double position = percentile * (size_ + 1) / 100;
+        double floor = Math.floor(position);
+        if (position < 1)
+            return getValue(0);
+        if (position >= size_)
+            return getValue(size_ - 1);
+
+        double lower = getValue((int) floor - 1);
+        double upper = getValue((int) floor);
+        return lower + (position - floor) * (upper - lower);
+    }
+
+    private int indexOf(double value)
+    {
+        int index = Arrays.binarySearch(values_, value);
+        if (index < 0)
+            throw new IllegalArgumentException("Value not in the universe of the window ["+value+"]");
+        return index + 1;
+    }
+
+    private void update(int index, int delta)
+    {
+        for (int i = index; i < tree_.length; i += i & -i)
+            tree_[i] += delta;
+    }
+
+    private int getCount(int index)
+    {
+        return prefixCount(index) - prefixCount(index - 1);
+    }
+
+    private int prefixCount(int index)
+    {
+        int ret = 0;
+        for (int i = index; i > 0; i -= i & -i)
+            ret += tree_[i];
+        return ret;
+    }
+}
@@ -0,0 +1,144 @@
+package com.rp.risk_management.analytics.statistics;
+
+/**
+ * Percentile of a sample drawn by importance sampling, each value weighted by its likelihood ratio.
+ * <p>
+ * The distribution function at x is estimated as the sum of the weights of the values up to x over
+ * the number of values, which is unbiased whatever the weights of the other values. The percentile
+ * is the smallest value where that reaches the percentile, found by a weighted selection in
+ * expected O(n). With unit weights it is the value ranked ceil(n p), close to
+ * {@link QuickSelectPercentile}. The values must not be NaN and the weights must not be negative.
+ */
+public class WeightedPercentile
+{
+    private WeightedPercentile()
+    {
+    }
+
+    /**
+     * @param values the sample, which is left unchanged
+     * @param weights likelihood ratio of every value
+     * @param percentile in (0, 100]
+     * @return the value at the percentile, NaN for an empty sample
+     */
+    public static double evaluate(double[] values, double[] weights, double percentile)
+    {
+        QuickSelectPercentile.checkPercentile(percentile);
+        checkLengths(values, weights);
+        if (values.length == 0)
+            return Double.NaN;
+
+        return select(values.clone(), weights.clone(), percentile / 100 * values.length);
+    }
+
+    /**
+     * Standard error of {@link #evaluate(double[], double[], double)}: the standard deviation of
+     * the estimated distribution function at the percentile, turned into one of the percentile by
+     * the values that far either side of it.
+     * @return the standard error, NaN for fewer than two values
+     */
+    public static double standardError(double[] values, double[] weights, double percentile)
+    {
+        QuickSelectPercentile.checkPercentile(percentile);
+        checkLengths(values, weights);
+        int length = values.length;
+        if (length < 2)
+            return Double.NaN;
+
+        double probability = percentile / 100;
+        double[] copyOfValues = values.clone();
+        double[] copyOfWeights = weights.clone();
+        double value = select(copyOfValues, copyOfWeights, probability * length);
+
+        // variance of the mean of the weights of the values up to the percentile
+        double sum = 0.0, sumOfSquares = 0.0;
+        for (int i = 0; i < length; i++)
+        {
+            if (values[i] <= value)
+            {
+                sum += weights[i];
+                sumOfSquares += weights[i] * weights[i];
+            }
+        }
+        double mean = sum / length;
+        double spread = Math.sqrt(Math.max(0.0, sumOfSquares / length - mean * mean) / length);
+        if (spread == 0.0)
+            return 0.0;
+
+        double lower = select(copyOfValues, copyOfWeights, Math.max(0.0, probability - spread) * length);
+        double upper = select(copyOfValues, copyOfWeights, (probability + spread) * length);
+        return (upper - lower) / 2;
+    }
+
+    private static void checkLengths(double[] values, double[] weights)
+    {
+        if (values.length != weights.length)
+            throw new IllegalArgumentException("Expected a weight per value ["+values.length+"] not ["+weights.length+"]");
+    }
+
+    /**
+     * Reorders both arrays together, partitioning around pivots until the values whose weights
+     * add up to the target are found.
+     * @return the smallest value whose weight and that of the smaller values reach the target, the
+     *         largest value when the weights fall short of it
+     */
+    static double select(double[] values, double[] weights, double target)
+    {
+        int left = 0;
+        int right = values.length - 1;
+        // weight of the values to the left of the range
+        double below = 0.0;
+        while (left < right)
+        {
+            // median of three as the pivot, then three ways: less, equal and greater
+            int middle = (left + right) >>> 1;
+            double pivot = Math.max(Math.min(values[left], values[middle]),
+                                    Math.min(Math.max(values[left], values[middle]), values[right]));
+            int less = left;
+            int greater = right;
+            int i = left;
+            double weightOfLess = 0.0, weightOfEqual = 0.0;
+            while (i <= greater)
+            {
+                if (values[i] < pivot)
+                {
+                    weightOfLess += weights[i];
+                    swap(values, weights, less++, i++);
+                }
+                else if (values[i] > pivot)
+                {
+                    swap(values, weights, i, greater--);
+                }
+                else
+                {
+                    weightOfEqual += weights[i++];
+                }
+            }
+
+            if (below + weightOfLess >= target && less > left)
+            {
+                right = less - 1;
+            }
+            else if (below + weightOfLess + weightOfEqual >= target || greater == right)
+            {
+                return pivot;
+            }
+            else
+            {
+                below += weightOfLess + weightOfEqual;
+                left = greater + 1;
+            }
+        }
+        return values[left];
+    }
+
+    private static void swap(double[] values, double[] weights, int i, int j)
+    {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+}
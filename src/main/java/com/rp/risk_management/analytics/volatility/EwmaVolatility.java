@@ -0,0 +1,96 @@
+package com.rp.risk_management.analytics.volatility;
+
+/**
+ * Streaming EWMA (RiskMetrics) estimate of daily volatility.
+ * <p>
+ * variance = lambda * previousVariance + ( 1 - lambda ) * return^2
+ * <p>
+ * Each {@link #update(double)} is O(1) and allocates nothing, so a new tick refreshes the estimate
+ * without replaying the history. Not thread-safe, use one instance per series.
+ */
+public class EwmaVolatility
+{
+    /** The RiskMetrics decay factor for daily returns. */
+    public static final double DEFAULT_LAMBDA = 0.94;
+
+    private final double lambda_;
+    private double variance_;
+    private long count_;
+
+    /**
+     * @param lambda decay factor, in (0, 1)
+     * @param initialVariance variance before the first return
+     */
+    public EwmaVolatility(double lambda, double initialVariance)
+    {
+        if (!(lambda > 0 && lambda < 1))
+            throw new IllegalArgumentException("Lambda must be in (0, 1) ["+lambda+"]");
+        if (!(initialVariance >= 0))
+            throw new IllegalArgumentException("Initial variance must not be negative ["+initialVariance+"]");
+
+        lambda_ = lambda;
+        variance_ = initialVariance;
+    }
+
+    /**
+     * Adds the next return, which must be more recent than every return added so far.
+     * @return this
+     */
+    public EwmaVolatility update(double value)
+    {
+        variance_ = lambda_ * variance_ + (1 - lambda_) * value * value;
+        count_++;
+        return this;
+    }
+
+    /**
+     * Adds a history of returns.
+     * @param returns most recent first, as everywhere else in the program
+     * @return this
+     */
+    public EwmaVolatility update(double[] returns)
+    {
+        for (int i = returns.length - 1; i >= 0; i--)
+            update(returns[i]);
+        return this;
+    }
+
+    /**
+     * Restarts the estimate from a new initial variance.
+     */
+    public void reset(double initialVariance)
+    {
+        variance_ = initialVariance;
+        count_ = 0;
+    }
+
+    public double variance()
+    {
+        return variance_;
+    }
+
+    public double volatility()
+    {
+        return Math.sqrt(variance_);
+    }
+
+    public double getLambda() {
+        return lambda_;
+    }
+
+    /**
+     * @return number of returns added since construction or the last reset
+     */
+    public long getCount() {
+        return count_;
+    }
+
+    @Override
+    public String toString() {
+        return "EwmaVolatility{" +
+                "lambda_=" + lambda_ +
+                ", variance_=" + variance_ +
+                ", count_=" + count_ +
+                '}';
+    }
+}
@@ -0,0 +1,274 @@
+package com.rp.risk_management.analytics.volatility;
+
+/**
+ * Maximum likelihood fitting of {@link GarchParameters} to a window of daily returns.
+ * <p>
+ * The long run variance is targeted to the sample variance of the window, which leaves alpha and beta
+ * to a bounded Nelder-Mead search of the Gaussian likelihood. The likelihood is evaluated in a single
+ * loop over the returns without allocating. Each fit starts from the previous one, so refitting a
+ * window that moved by a day, as backtesting does, converges in a few iterations.
+ * <p>
+ * Not thread-safe, use one fitter per series.
+ */
+public class GarchFitter
+{
+    public static final int DEFAULT_MAX_ITERATIONS = 500;
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+
+    /** Upper bound of alpha + beta, keeping the model stationary. */
+    private static final double MAX_PERSISTENCE = 0.9999;
+    private static final double INITIAL_ALPHA = 0.1;
+    private static final double INITIAL_BETA = 0.85;
+    private static final double INITIAL_STEP = 0.05;
+    private static final double WARM_STEP = 0.01;
+
+    private final int maxIterations_;
+    private final double tolerance_;
+
+    /** Vertices (alpha, beta) of the simplex and the objective at each, reused across fits. */
+    private final double[][] simplex_ = new double[3][2];
+    private final double[] values_ = new double[3];
+
+    private GarchParameters lastFit_;
+    private int lastIterations_;
+
+    public GarchFitter()
+    {
+        this(DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param maxIterations maximum number of Nelder-Mead iterations per fit
+     * @param tolerance relative difference of the objective across the simplex at which a fit stops
+     */
+    public GarchFitter(int maxIterations, double tolerance)
+    {
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("Max iterations must be positive ["+maxIterations+"]");
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException("Tolerance must be positive ["+tolerance+"]");
+
+        maxIterations_ = maxIterations;
+        tolerance_ = tolerance;
+    }
+
+    /**
+     * @param returns most recent first
+     */
+    public GarchParameters fit(double[] returns)
+    {
+        return fit(returns, returns.length);
+    }
+
+    /**
+     * @param returns most recent first
+     * @param length number of the most recent returns to fit to, at least 2
+     * @return the fitted parameters, also used as the starting point of the next fit
+     */
+    public GarchParameters fit(double[] returns, int length)
+    {
+        if (length < 2 || length > returns.length)
+            throw new IllegalArgumentException("Unable to fit GARCH to ["+length+"] of ["+returns.length+"] returns");
+
+        double variance = getSampleVariance(returns, length);
+        if (!(variance > 0))
+            throw new IllegalArgumentException("Unable to fit GARCH to returns without variation");
+
+        double alpha = lastFit_ == null ? INITIAL_ALPHA : lastFit_.getAlpha();
+        double beta = lastFit_ == null ? INITIAL_BETA : lastFit_.getBeta();
+        double step = lastFit_ == null ? INITIAL_STEP : WARM_STEP;
+        setVertex(0, alpha, beta, variance, returns, length);
+        setVertex(1, alpha + step, Math.max(beta - step, 0), variance, returns, length);
+        setVertex(2, alpha, Math.max(beta - step, 0), variance, returns, length);
+
+        lastIterations_ = minimize(variance, returns, length);
+
+        int best = getBest();
+        lastFit_ = GarchParameters.withVarianceTarget(variance, simplex_[best][0], simplex_[best][1]);
+        return lastFit_;
+    }
+
+    /**
+     * Fits the parameters to the most recent returns and forecasts the volatility of the next day from them.
+     * @param returns most recent first
+     * @param length number of the most recent returns to fit to, at least 2
+     * @return forecast daily volatility
+     */
+    public double forecastVolatility(double[] returns, int length)
+    {
+        return fit(returns, length).forecastVolatility(returns, length);
+    }
+
+    /**
+     * @return the parameters of the last fit, null before the first fit or after a reset
+     */
+    public GarchParameters getLastFit()
+    {
+        return lastFit_;
+    }
+
+    /**
+     * @return number of iterations the last fit took
+     */
+    public int getLastIterations()
+    {
+        return lastIterations_;
+    }
+
+    /**
+     * Forgets the last fit, so the next fit starts from the default parameters.
+     */
+    public void reset()
+    {
+        lastFit_ = null;
+        lastIterations_ = 0;
+    }
+
+    /**
+     * Gaussian log likelihood, up to constants: <code>-sum( ln(variance) + return^2 / variance )</code>,
+     * the variance recursion starting from the long run variance.
+     * @param returns most recent first
+     * @param length number of the most recent returns to use
+     */
+    public static double logLikelihood(GarchParameters parameters, double[] returns, int length)
+    {
+        return -negativeLogLikelihood(parameters.getOmega(), parameters.getAlpha(), parameters.getBeta(),
+                parameters.getLongRunVariance(), returns, length);
+    }
+
+    private static double negativeLogLikelihood(double omega, double alpha, double beta, double initialVariance,
+                                                double[] returns, int length)
+    {
+        double variance = initialVariance;
+        double sum = 0.0;
+        for (int i = length - 1; i >= 0; i--)
+        {
+            double returnSquared = returns[i] * returns[i];
+            sum += Math.log(variance) + returnSquared / variance;
+            variance = omega + alpha * returnSquared + beta * variance;
+        }
+        return sum;
+    }
+
+    private static double getSampleVariance(double[] returns, int length)
+    {
+        double mean = 0.0;
+        for (int i = 0; i < length; i++)
+            mean += returns[i];
+        mean /= length;
+
+        double sum = 0.0;
+        for (int i = 0; i < length; i++)
+            sum += (returns[i] - mean) * (returns[i] - mean);
+        return sum / (length - 1);
+    }
+
+    private static double objective(double alpha, double beta, double variance, double[] returns, int length)
+    {
+        if (alpha < 0 || beta < 0 || alpha + beta > MAX_PERSISTENCE)
+            return Double.POSITIVE_INFINITY;
+        return negativeLogLikelihood(variance * (1 - alpha - beta), alpha, beta, variance, returns, length);
+    }
+
+    private void setVertex(int vertex, double alpha, double beta, double variance, double[] returns, int length)
+    {
+        simplex_[vertex][0] = alpha;
+        simplex_[vertex][1] = beta;
+        values_[vertex] = objective(alpha, beta, variance, returns, length);
+    }
+
+    /**
+     * Nelder-Mead with the usual coefficients: reflection 1, expansion 2, contraction and shrink 1/2.
+     * @return number of iterations
+     */
+    private int minimize(double variance, double[] returns, int length)
+    {
+        int iteration = 0;
+        for (; iteration < maxIterations_; iteration++)
+        {
+            int best = getBest();
+            int worst = getWorst(best);
+            int middle = 3 - best - worst;
+
+            if (values_[worst] - values_[best] <= tolerance_ * (Math.abs(values_[best]) + tolerance_))
+                break;
+
+            double centroidAlpha = (simplex_[best][0] + simplex_[middle][0]) / 2;
+            double centroidBeta = (simplex_[best][1] + simplex_[middle][1]) / 2;
+            double worstAlpha = simplex_[worst][0];
+            double worstBeta = simplex_[worst][1];
+
+            double reflectedAlpha = 2 * centroidAlpha - worstAlpha;
+            double reflectedBeta = 2 * centroidBeta - worstBeta;
+            double reflected = objective(reflectedAlpha, reflectedBeta, variance, returns, length);
+
+            if (reflected < values_[best])
+            {
+                double expandedAlpha = 3 * centroidAlpha - 2 * worstAlpha;
+                double expandedBeta = 3 * centroidBeta - 2 * worstBeta;
+                double expanded = objective(expandedAlpha, expandedBeta, variance, returns, length);
+                if (expanded < reflected)
+                    replaceVertex(worst, expandedAlpha, expandedBeta, expanded);
+                else
+                    replaceVertex(worst, reflectedAlpha, reflectedBeta, reflected);
+            }
+            else if (reflected < values_[middle])
+            {
+                replaceVertex(worst, reflectedAlpha, reflectedBeta, reflected);
+            }
+            else
+            {
+                // contract towards the better of the worst and reflected points
+                boolean outside = reflected < values_[worst];
+                double fromAlpha = outside ? reflectedAlpha : worstAlpha;
+                double fromBeta = outside ? reflectedBeta : worstBeta;
+                double contractedAlpha = (centroidAlpha + fromAlpha) / 2;
+                double contractedBeta = (centroidBeta + fromBeta) / 2;
+                double contracted = objective(contractedAlpha, contractedBeta, variance, returns, length);
+
+                if (contracted < Math.min(reflected, values_[worst]))
+                {
+                    replaceVertex(worst, contractedAlpha, contractedBeta, contracted);
+                }
+                else
+                {
+                    // shrink towards the best vertex
+                    for (int vertex = 0; vertex < 3; vertex++)
+                    {
+                        if (vertex != best)
+                        {
+                            setVertex(vertex, (simplex_[best][0] + simplex_[vertex][0]) / 2,
+                                    (simplex_[best][1] + simplex_[vertex][1]) / 2, variance, returns, length);
+                        }
+                    }
+                }
+            }
+        }
+        return iteration;
+    }
+
+    private void replaceVertex(int vertex, double alpha, double beta, double value)
+    {
+        simplex_[vertex][0] = alpha;
+        simplex_[vertex][1] = beta;
+        values_[vertex] = value;
+    }
+
+    private int getBest()
+    {
+        int best = 0;
+        for (int vertex = 1; vertex < 3; vertex++)
+            if (values_[vertex] < values_[best])
+                best = vertex;
+        return best;
+    }
+
+    private int getWorst(int best)
+    {
+        int worst = best == 0 ? 1 : 0;
+        for (int vertex = 0; vertex < 3; vertex++)
+            if (vertex != best && values_[vertex] > values_[worst])
+                worst = vertex;
+        return worst;
+    }
+}
@@ -0,0 +1,108 @@
+package com.rp.risk_management.analytics.volatility;
+
+/**
+ * Parameters of a GARCH(1,1) model of daily variance.
+ * <p>
+ * variance = omega + alpha * previousReturn^2 + beta * previousVariance
+ * <p>
+ * With variance targeting <code>omega = longRunVariance * ( 1 - alpha - beta )</code>, which is the
+ * <code>gamma * longRunVariance</code> term of Hull's formulation.
+ */
+public final class GarchParameters
+{
+    private final double omega_;
+    private final double alpha_;
+    private final double beta_;
+
+    /**
+     * @throws IllegalArgumentException unless omega &gt; 0, alpha &gt;= 0, beta &gt;= 0 and alpha + beta &lt; 1
+     */
+    public GarchParameters(double omega, double alpha, double beta)
+    {
+        if (!(omega > 0) || !(alpha >= 0) || !(beta >= 0) || !(alpha + beta < 1))
+            throw new IllegalArgumentException("Not a stationary GARCH(1,1) ["+omega+", "+alpha+", "+beta+"]");
+
+        omega_ = omega;
+        alpha_ = alpha;
+        beta_ = beta;
+    }
+
+    /**
+     * @param longRunVariance variance the model reverts to
+     */
+    public static GarchParameters withVarianceTarget(double longRunVariance, double alpha, double beta)
+    {
+        return new GarchParameters(longRunVariance * (1 - alpha - beta), alpha, beta);
+    }
+
+    public double getOmega() {
+        return omega_;
+    }
+
+    public double getAlpha() {
+        return alpha_;
+    }
+
+    public double getBeta() {
+        return beta_;
+    }
+
+    /**
+     * @return omega / ( 1 - alpha - beta ), the variance the model reverts to
+     */
+    public double getLongRunVariance()
+    {
+        return omega_ / (1 - alpha_ - beta_);
+    }
+
+    /**
+     * Runs the variance recursion over a window of returns, starting from the long run variance.
+     * @param returns most recent first
+     * @param length number of the most recent returns to use
+     * @return the variance forecast for the day after the most recent return
+     */
+    public double forecastVariance(double[] returns, int length)
+    {
+        double variance = getLongRunVariance();
+        for (int i = length - 1; i >= 0; i--)
+            variance = omega_ + alpha_ * returns[i] * returns[i] + beta_ * variance;
+        return variance;
+    }
+
+    /**
+     * @see #forecastVariance(double[], int)
+     */
+    public double forecastVolatility(double[] returns, int length)
+    {
+        return Math.sqrt(forecastVariance(returns, length));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GarchParameters)) return false;
+
+        GarchParameters that = (GarchParameters) o;
+
+        if (Double.compare(that.omega_, omega_) != 0) return false;
+        if (Double.compare(that.alpha_, alpha_) != 0) return false;
+        return Double.compare(that.beta_, beta_) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(omega_);
+        result = 31 * result + Double.hashCode(alpha_);
+        result = 31 * result + Double.hashCode(beta_);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "GarchParameters{" +
+                "omega_=" + omega_ +
+                ", alpha_=" + alpha_ +
+                ", beta_=" + beta_ +
+                '}';
+    }
+}
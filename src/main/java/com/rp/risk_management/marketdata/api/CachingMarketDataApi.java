@@ -0,0 +1,338 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.date.SimpleDate;
+import com.rp.risk_management.util.date.SimpleDateHelper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a {@link MarketDataApi} with a bounded in-memory LRU cache and an optional on-disk tier.
+ * <p>
+ * Entries are keyed by (stock, from, to, interval). A request that is not cached exactly but lies
+ * within a cached range of the same stock and interval is answered from that range, ending on or
+ * before its to date as the delegate's ranges do. Disk entries survive restarts and are promoted
+ * to memory when read. Ranges reaching into the last week, whose bars may still be missing or
+ * partial, are only held in memory.
+ */
+public class CachingMarketDataApi implements MarketDataApi
+{
+    private static final Logger logger_ = LogManager.getLogger(CachingMarketDataApi.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final String FILE_EXTENSION = ".quotes";
+
+    private final MarketDataApi delegate_;
+    /** Directory of the on-disk tier, null when only memory is used. */
+    private final File directory_;
+    /** Guarded by itself. */
+    private final LinkedHashMap<CacheKey, List<Quote>> cache_;
+
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong diskHits_ = new AtomicLong();
+    private final AtomicLong misses_ = new AtomicLong();
+
+    /**
+     * Memory only cache.
+     * @param delegate the provider to fetch missing data from
+     * @param capacity maximum number of ranges held in memory
+     */
+    public CachingMarketDataApi(MarketDataApi delegate, int capacity)
+    {
+        this(delegate, capacity, null);
+    }
+
+    /**
+     * @param delegate the provider to fetch missing data from
+     * @param capacity maximum number of ranges held in memory
+     * @param directory directory for the persistent tier, created if needed. May be null.
+     */
+    public CachingMarketDataApi(MarketDataApi delegate, final int capacity, File directory)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive ["+capacity+"]");
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Unable to create cache directory ["+directory+"]");
+
+        delegate_ = delegate;
+        directory_ = directory;
+        cache_ = new LinkedHashMap<CacheKey, List<Quote>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, List<Quote>> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public Quote getMarketData(Stock stock, SimpleDate date) throws Exception
+    {
+        for (Quote quote : getMarketData(stock, date, SimpleDateHelper.addDays(date, 1)))
+        {
+            if (date.equals(quote.getSimpleDate()))
+                return quote;
+        }
+        throw new IllegalStateException("Unable to get quote for ["+stock+"] ["+date+"]");
+    }
+
+    @Override
+    public boolean isEndDateInclusive()
+    {
+        return delegate_.isEndDateInclusive();
+    }
+
+    @Override
+    public List<Quote> getMarketData(Position position) throws Exception
+    {
+        return getMarketData(position.getStock(), position.getStartDate(), position.getEndDate());
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate) throws Exception
+    {
+        return getMarketData(stock, fromDate, toDate, Interval.DAILY);
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception
+    {
+        CacheKey key = newKey(stock, fromDate, toDate, interval);
+
+        List<Quote> quotes = getFromMemory(key);
+        if (quotes != null)
+        {
+            hits_.incrementAndGet();
+            return quotes;
+        }
+
+        quotes = readFromDisk(key);
+        if (quotes != null)
+        {
+            diskHits_.incrementAndGet();
+        }
+        else
+        {
+            misses_.incrementAndGet();
+            quotes = Collections.unmodifiableList(new ArrayList<>(delegate_.getMarketData(stock, fromDate, toDate, interval)));
+            writeToDisk(key, quotes);
+        }
+
+        synchronized (cache_)
+        {
+            cache_.put(key, quotes);
+        }
+        return quotes;
+    }
+
+    /**
+     * Answers memory hits immediately on the calling thread, only misses are run on the executor.
+     */
+    @Override
+    public CompletableFuture<List<Quote>> getMarketDataAsync(Stock stock, SimpleDate fromDate, SimpleDate toDate,
+                                                            Interval interval, Executor executor)
+    {
+        List<Quote> quotes = getFromMemory(newKey(stock, fromDate, toDate, interval));
+        if (quotes != null)
+        {
+            hits_.incrementAndGet();
+            return CompletableFuture.completedFuture(quotes);
+        }
+        return MarketDataApi.super.getMarketDataAsync(stock, fromDate, toDate, interval, executor);
+    }
+
+    /**
+     * @return number of requests answered from memory
+     */
+    public long getHitCount()
+    {
+        return hits_.get();
+    }
+
+    /**
+     * @return number of requests answered from the on-disk tier
+     */
+    public long getDiskHitCount()
+    {
+        return diskHits_.get();
+    }
+
+    /**
+     * @return number of requests forwarded to the underlying provider
+     */
+    public long getMissCount()
+    {
+        return misses_.get();
+    }
+
+    /**
+     * Empties the in-memory tier, the on-disk tier is kept.
+     */
+    public void clear()
+    {
+        synchronized (cache_)
+        {
+            cache_.clear();
+        }
+    }
+
+    private CacheKey newKey(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval)
+    {
+        int end = delegate_.isEndDateInclusive() ? toDate.getEpochDay() + 1 : toDate.getEpochDay();
+        return new CacheKey(stock, fromDate.getEpochDay(), end, interval);
+    }
+
+    private List<Quote> getFromMemory(CacheKey key)
+    {
+        synchronized (cache_)
+        {
+            List<Quote> quotes = cache_.get(key);
+            if (quotes != null)
+                return quotes;
+
+            // fall back to any cached range of the same stock and interval covering the request
+            for (Map.Entry<CacheKey, List<Quote>> entry : cache_.entrySet())
+            {
+                if (entry.getKey().covers(key))
+                {
+                    List<Quote> covering = entry.getValue();
+                    // refresh the recency of the covering range
+                    cache_.get(entry.getKey());
+                    return subRange(covering, key);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Quote> subRange(List<Quote> quotes, CacheKey key)
+    {
+        List<Quote> ret = new ArrayList<>();
+        for (Quote quote : quotes)
+        {
+            int day = quote.getSimpleDate().getEpochDay();
+            if (day >= key.from_ && day < key.end_)
+                ret.add(quote);
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    private List<Quote> readFromDisk(CacheKey key)
+    {
+        if (directory_ == null)
+            return null;
+
+        File file = key.getFile(directory_);
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()))))
+        {
+            return Collections.unmodifiableList(QuoteFileCodec.read(in, key.stock_));
+        }
+        catch (IOException ex)
+        {
+            logger_.warn("Ignoring unreadable cache file ["+file+"]", ex);
+            return null;
+        }
+    }
+
+    private void writeToDisk(CacheKey key, List<Quote> quotes)
+    {
+        if (directory_ == null)
+            return;
+        // yesterday is the last complete day
+        if (key.end_ - 1 > LocalDate.now().toEpochDay() - 1 - IncrementalMarketDataApi.SETTLEMENT_DAYS)
+            return;
+
+        File file = key.getFile(directory_);
+        try
+        {
+            File tmp = File.createTempFile(file.getName(), ".tmp", directory_);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))))
+            {
+                QuoteFileCodec.write(out, quotes);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex)
+        {
+            // the cache is an optimisation, the caller still gets the data
+            logger_.warn("Unable to write cache file ["+file+"]", ex);
+        }
+    }
+
+    private static class CacheKey
+    {
+        private final Stock stock_;
+        /** Epoch days, from inclusive and end exclusive. */
+        private final int from_;
+        private final int end_;
+        private final Interval interval_;
+
+        private CacheKey(Stock stock, int from, int end, Interval interval)
+        {
+            stock_ = stock;
+            from_ = from;
+            end_ = end;
+            interval_ = interval;
+        }
+
+        private boolean covers(CacheKey other)
+        {
+            return stock_.equals(other.stock_) && interval_ == other.interval_
+                    && from_ <= other.from_ && end_ >= other.end_;
+        }
+
+        private File getFile(File directory)
+        {
+            String symbol = stock_.getStock().replaceAll("[^A-Za-z0-9.\\-]", "_");
+            String name = symbol + "_" + SimpleDate.ofEpochDay(from_).getyyyymmdd()
+                    + "_" + SimpleDate.ofEpochDay(end_).getyyyymmdd() + "_" + interval_ + FILE_EXTENSION;
+            return new File(directory, name);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+
+            CacheKey cacheKey = (CacheKey) o;
+
+            if (from_ != cacheKey.from_) return false;
+            if (end_ != cacheKey.end_) return false;
+            if (!stock_.equals(cacheKey.stock_)) return false;
+            return interval_ == cacheKey.interval_;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = stock_.hashCode();
+            result = 31 * result + from_;
+            result = 31 * result + end_;
+            result = 31 * result + interval_.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.date.EpochDay;
+import com.rp.risk_management.util.date.SimpleDate;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline {@link MarketDataApi} reading Yahoo-style <code>Date,Open,High,Low,Close,Volume,Adj Close</code>
+ * CSV files (see <code>APPLE.csv</code>).
+ * <p>
+ * Each file is memory-mapped and parsed directly from the mapped bytes: dates and prices are
+ * decoded digit by digit, so no intermediate <code>String</code> is built per row or per field.
+ * Quotes are returned most recent first, the same order as {@link YahooMarketDataApi}.
+ */
+public class CsvMarketDataApi implements MarketDataApi
+{
+    private static final String FILE_EXTENSION = ".csv";
+
+    /** Directory holding one <code>SYMBOL.csv</code> file per stock, may be null. */
+    private final File directory_;
+    /** Explicit stock to file mappings, checked before the directory. */
+    private final Map<Stock, File> files_;
+
+    /**
+     * @param directory directory containing one <code>SYMBOL.csv</code> file per stock
+     */
+    public CsvMarketDataApi(File directory)
+    {
+        this(directory, Collections.<Stock, File>emptyMap());
+    }
+
+    /**
+     * @param files the csv file to use for each stock
+     */
+    public CsvMarketDataApi(Map<Stock, File> files)
+    {
+        this(null, files);
+    }
+
+    private CsvMarketDataApi(File directory, Map<Stock, File> files)
+    {
+        directory_ = directory;
+        files_ = Collections.unmodifiableMap(new HashMap<>(files));
+    }
+
+    @Override
+    public Quote getMarketData(Stock stock, SimpleDate date) throws Exception
+    {
+        for (Quote quote : getMarketData(stock, date, date))
+        {
+            if (date.equals(quote.getSimpleDate()))
+                return quote;
+        }
+        throw new IllegalStateException("Unable to get quote for ["+stock+"] ["+date+"]");
+    }
+
+    @Override
+    public List<Quote> getMarketData(Position position) throws Exception
+    {
+        return getMarketData(position.getStock(), position.getStartDate(), position.getEndDate());
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate) throws Exception
+    {
+        return getMarketData(stock, fromDate, toDate, Interval.DAILY);
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception
+    {
+        if (interval != Interval.DAILY)
+            throw new UnsupportedOperationException("Csv market data only supports ["+Interval.DAILY+"] quotes, not ["+interval+"]");
+
+        List<Quote> ret = new ArrayList<>();
+        parse(stock, fromDate, toDate, ret, null);
+
+        // files are usually most recent first already, but do not rely on it
+        ret.sort(Comparator.comparingInt((Quote quote) -> quote.getSimpleDate().getEpochDay()).reversed());
+        return ret;
+    }
+
+    @Override
+    public boolean isEndDateInclusive()
+    {
+        return true;
+    }
+
+    /**
+     * Loads daily quotes straight into primitive columns, without creating a {@link Quote} per row.
+     * @param stock the stock to load
+     * @param fromDate first date, inclusive
+     * @param toDate last date, inclusive
+     * @return the quotes, most recent first
+     */
+    public QuoteSeries getQuoteSeries(Stock stock, SimpleDate fromDate, SimpleDate toDate) throws IOException
+    {
+        QuoteSeries.Builder builder = new QuoteSeries.Builder(stock);
+        parse(stock, fromDate, toDate, null, builder);
+        return builder.build();
+    }
+
+    private void parse(Stock stock, SimpleDate fromDate, SimpleDate toDate, List<Quote> quotes, QuoteSeries.Builder builder) throws IOException
+    {
+        File file = getFile(stock);
+        if (!file.isFile())
+            throw new IllegalArgumentException("Unable to find market data file ["+file+"] for ["+stock+"]");
+
+        int from = toYyyyMmDd(fromDate);
+        int to = toYyyyMmDd(toDate);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Market data file ["+file+"] is too large to map");
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new Parser(stock, buffer, file).parse(from, to, quotes, builder);
+        }
+    }
+
+    private File getFile(Stock stock)
+    {
+        File file = files_.get(stock);
+        if (file != null)
+            return file;
+        if (directory_ == null)
+            throw new IllegalArgumentException("No market data file configured for ["+stock+"]");
+
+        return new File(directory_, stock.getStock() + FILE_EXTENSION);
+    }
+
+    private static int toYyyyMmDd(SimpleDate simpleDate)
+    {
+        return EpochDay.toYyyyMmDd(simpleDate.getEpochDay());
+    }
+
+    /**
+     * Single pass parser over the mapped bytes of one file.
+     */
+    private static class Parser
+    {
+        private static final int OPEN = 0, HIGH = 1, LOW = 2, CLOSE = 3, VOLUME = 4, ADJ_CLOSE = 5;
+        private static final int NUMBER_OF_PRICES = 4;
+        private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+                1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+        /** Fields of the row being parsed, as unscaled values and scales. */
+        private final long[] unscaled_ = new long[6];
+        private final int[] scales_ = new int[6];
+
+        private final Stock stock_;
+        private final MappedByteBuffer buffer_;
+        private final File file_;
+        private final int limit_;
+        private int position_;
+        private int line_;
+
+        private Parser(Stock stock, MappedByteBuffer buffer, File file)
+        {
+            stock_ = stock;
+            buffer_ = buffer;
+            file_ = file;
+            limit_ = buffer.limit();
+        }
+
+        /**
+         * Parses every row within [from, to] into either the list of quotes or the builder, whichever is not null.
+         */
+        private void parse(int from, int to, List<Quote> quotes, QuoteSeries.Builder builder)
+        {
+            skipByteOrderMark();
+            while (position_ < limit_)
+            {
+                line_++;
+                if (!isDigit(buffer_.get(position_)))
+                {
+                    // header or blank line
+                    skipLine();
+                    continue;
+                }
+
+                int yyyymmdd = readDate();
+                if (yyyymmdd < from || yyyymmdd > to)
+                {
+                    skipLine();
+                    continue;
+                }
+
+                // file column order is open, high, low, close, volume, adj close
+                for (int i = 0; i < NUMBER_OF_PRICES; i++)
+                    readDecimal(i);
+                readDecimal(VOLUME);
+                if (unscaled_[VOLUME] < 0 || scales_[VOLUME] != 0)
+                    throw error("Expected a whole volume");
+                if (atEndOfLine())
+                {
+                    unscaled_[ADJ_CLOSE] = unscaled_[CLOSE];
+                    scales_[ADJ_CLOSE] = scales_[CLOSE];
+                }
+                else
+                    readDecimal(ADJ_CLOSE);
+                skipLine();
+
+                int epochDay = EpochDay.fromYyyyMmDd(yyyymmdd);
+                if (builder != null)
+                {
+                    builder.add(epochDay,
+                            toDouble(OPEN), toDouble(HIGH), toDouble(LOW), toDouble(CLOSE), toDouble(ADJ_CLOSE),
+                            unscaled_[VOLUME]);
+                }
+                else
+                {
+                    quotes.add(new Quote(stock_, SimpleDate.ofEpochDay(epochDay),
+                            toBigDecimal(OPEN), toBigDecimal(LOW), toBigDecimal(HIGH), toBigDecimal(CLOSE),
+                            toBigDecimal(ADJ_CLOSE), unscaled_[VOLUME]));
+                }
+            }
+        }
+
+        private BigDecimal toBigDecimal(int field)
+        {
+            return BigDecimal.valueOf(unscaled_[field], scales_[field]);
+        }
+
+        private double toDouble(int field)
+        {
+            // exact when the unscaled value fits in 53 bits, as for any realistic price
+            return unscaled_[field] / POWERS_OF_TEN[scales_[field]];
+        }
+
+        /** Reads a <code>yyyy-MM-dd</code> field into a <code>yyyyMMdd</code> int. */
+        private int readDate()
+        {
+            int yyyymmdd = 0;
+            int digits = 0;
+            while (position_ < limit_)
+            {
+                byte b = buffer_.get(position_);
+                if (b == ',')
+                    break;
+                if (isDigit(b))
+                {
+                    yyyymmdd = yyyymmdd * 10 + (b - '0');
+                    digits++;
+                }
+                else if (b != '-')
+                    throw error("Unexpected character in date");
+                position_++;
+            }
+            if (digits != 8)
+                throw error("Expected a yyyy-MM-dd date");
+            position_++;
+            return yyyymmdd;
+        }
+
+        /** Reads a decimal field exactly, as an unscaled long and a scale. */
+        private void readDecimal(int field)
+        {
+            long unscaled = 0;
+            int scale = 0;
+            int digits = 0;
+            boolean negative = false;
+            boolean fraction = false;
+            while (position_ < limit_)
+            {
+                byte b = buffer_.get(position_);
+                if (b == ',' || b == '\n' || b == '\r')
+                    break;
+                if (isDigit(b))
+                {
+                    unscaled = unscaled * 10 + (b - '0');
+                    digits++;
+                    if (fraction)
+                        scale++;
+                }
+                else if (b == '.' && !fraction)
+                    fraction = true;
+                else if (b == '-' && digits == 0 && !negative)
+                    negative = true;
+                else
+                    throw error("Unexpected character in number");
+                position_++;
+            }
+            if (digits == 0 || digits >= POWERS_OF_TEN.length)
+                throw error("Expected a number");
+            skipComma();
+            unscaled_[field] = negative ? -unscaled : unscaled;
+            scales_[field] = scale;
+        }
+
+        private boolean atEndOfLine()
+        {
+            if (position_ >= limit_)
+                return true;
+            byte b = buffer_.get(position_);
+            return b == '\n' || b == '\r';
+        }
+
+        private void skipComma()
+        {
+            if (position_ < limit_ && buffer_.get(position_) == ',')
+                position_++;
+        }
+
+        private void skipLine()
+        {
+            while (position_ < limit_ && buffer_.get(position_++) != '\n')
+            {
+                // consume
+            }
+        }
+
+        private void skipByteOrderMark()
+        {
+            if (limit_ >= 3 && buffer_.get(0) == (byte) 0xEF && buffer_.get(1) == (byte) 0xBB && buffer_.get(2) == (byte) 0xBF)
+                position_ = 3;
+        }
+
+        private static boolean isDigit(byte b)
+        {
+            return b >= '0' && b <= '9';
+        }
+
+        private IllegalStateException error(String message)
+        {
+            return new IllegalStateException(message + " at line ["+line_+"] of ["+file_+"]");
+        }
+    }
+}
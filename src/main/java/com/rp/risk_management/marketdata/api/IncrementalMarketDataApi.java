@@ -0,0 +1,310 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.date.SimpleDate;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a {@link MarketDataApi} with a persistent per-stock store of daily quotes.
+ * <p>
+ * The store remembers which date ranges it already holds for each stock. A request only fetches the
+ * sub-ranges that are missing and merges them in, so refreshing a long window every day costs one
+ * small fetch for the new bars instead of a download of the whole window.
+ * Days from today onwards are never recorded as held, as their bars may not be published yet, and
+ * neither are days of the last week after the last quote returned, so a late bar is fetched again.
+ * Gaps are fetched with the day after as an exclusive end date, as {@link YahooMarketDataApi} takes
+ * it; quotes outside a gap are dropped, so providers with an inclusive end work too.
+ * Only {@link Interval#DAILY} quotes are stored, other intervals are passed straight through.
+ */
+public class IncrementalMarketDataApi implements MarketDataApi
+{
+    private static final Logger logger_ = LogManager.getLogger(IncrementalMarketDataApi.class);
+
+    private static final int MAGIC = 0x52515331; // RQS1
+    private static final String FILE_EXTENSION = ".store";
+    /** Days after which a day without a quote is taken as a holiday rather than a bar to come. */
+    static final int SETTLEMENT_DAYS = 7;
+
+    private final MarketDataApi delegate_;
+    /** Directory of the persistent store, null when only memory is used. */
+    private final File directory_;
+    /** Guarded by itself, each store is guarded by its own lock. */
+    private final Map<Stock, StockStore> stores_ = new HashMap<>();
+
+    private final AtomicLong fetches_ = new AtomicLong();
+
+    /**
+     * Memory only store.
+     * @param delegate the provider to fetch missing data from
+     */
+    public IncrementalMarketDataApi(MarketDataApi delegate)
+    {
+        this(delegate, null);
+    }
+
+    /**
+     * @param delegate the provider to fetch missing data from
+     * @param directory directory for the persistent store, created if needed. May be null.
+     */
+    public IncrementalMarketDataApi(MarketDataApi delegate, File directory)
+    {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Unable to create store directory ["+directory+"]");
+
+        delegate_ = delegate;
+        directory_ = directory;
+    }
+
+    @Override
+    public Quote getMarketData(Stock stock, SimpleDate date) throws Exception
+    {
+        for (Quote quote : getMarketData(stock, date, date))
+        {
+            if (date.equals(quote.getSimpleDate()))
+                return quote;
+        }
+        throw new IllegalStateException("Unable to get quote for ["+stock+"] ["+date+"]");
+    }
+
+    @Override
+    public List<Quote> getMarketData(Position position) throws Exception
+    {
+        return getMarketData(position.getStock(), position.getStartDate(), position.getEndDate());
+    }
+
+    @Override
+    public boolean isEndDateInclusive()
+    {
+        return true;
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate) throws Exception
+    {
+        return getMarketData(stock, fromDate, toDate, Interval.DAILY);
+    }
+
+    @Override
+    public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception
+    {
+        if (interval != Interval.DAILY)
+            return delegate_.getMarketData(stock, fromDate, toDate, interval);
+
+        int from = fromDate.getEpochDay();
+        int to = toDate.getEpochDay();
+        if (from > to)
+            return new ArrayList<>();
+
+        StockStore store = getStore(stock);
+        synchronized (store)
+        {
+            boolean changed = false;
+            for (int[] gap : store.getGaps(from, to))
+            {
+                fetches_.incrementAndGet();
+                List<Quote> quotes = delegate_.getMarketData(stock, SimpleDate.ofEpochDay(gap[0]), SimpleDate.ofEpochDay(gap[1] + 1), Interval.DAILY);
+                store.merge(gap[0], gap[1], quotes, (int) LocalDate.now().toEpochDay() - 1);
+                changed = true;
+            }
+            if (changed)
+                write(store);
+
+            return store.get(from, to);
+        }
+    }
+
+    /**
+     * @return number of sub-range fetches forwarded to the underlying provider
+     */
+    public long getFetchCount()
+    {
+        return fetches_.get();
+    }
+
+    private StockStore getStore(Stock stock)
+    {
+        synchronized (stores_)
+        {
+            StockStore store = stores_.get(stock);
+            if (store == null)
+            {
+                store = read(stock);
+                stores_.put(stock, store);
+            }
+            return store;
+        }
+    }
+
+    private StockStore read(Stock stock)
+    {
+        StockStore store = new StockStore(stock);
+        if (directory_ == null)
+            return store;
+
+        File file = getFile(stock);
+        if (!file.isFile())
+            return store;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()))))
+        {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a quote store for ["+stock+"]");
+
+            int ranges = in.readInt();
+            for (int i = 0; i < ranges; i++)
+                store.addRange(in.readInt(), in.readInt());
+            for (Quote quote : QuoteFileCodec.read(in, stock))
+                store.quotes_.put(quote.getSimpleDate().getEpochDay(), quote);
+            return store;
+        }
+        catch (IOException ex)
+        {
+            // start over, the missing ranges are fetched again
+            logger_.warn("Ignoring unreadable store file ["+file+"]", ex);
+            return new StockStore(stock);
+        }
+    }
+
+    private void write(StockStore store)
+    {
+        if (directory_ == null)
+            return;
+
+        File file = getFile(store.stock_);
+        try
+        {
+            File tmp = File.createTempFile(file.getName(), ".tmp", directory_);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(store.ranges_.size());
+                for (Map.Entry<Integer, Integer> range : store.ranges_.entrySet())
+                {
+                    out.writeInt(range.getKey());
+                    out.writeInt(range.getValue());
+                }
+                QuoteFileCodec.write(out, new ArrayList<>(store.quotes_.values()));
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex)
+        {
+            // the store is an optimisation, the caller still gets the data
+            logger_.warn("Unable to write store file ["+file+"]", ex);
+        }
+    }
+
+    private File getFile(Stock stock)
+    {
+        String symbol = stock.getStock().replaceAll("[^A-Za-z0-9.\\-]", "_");
+        return new File(directory_, symbol + FILE_EXTENSION);
+    }
+
+    /**
+     * Quotes held for one stock, keyed by epoch day, and the disjoint ranges of days they cover.
+     */
+    private static class StockStore
+    {
+        private final Stock stock_;
+        private final TreeMap<Integer, Quote> quotes_ = new TreeMap<>();
+        /** First day to last day, both inclusive. Ranges never overlap nor touch. */
+        private final TreeMap<Integer, Integer> ranges_ = new TreeMap<>();
+
+        private StockStore(Stock stock)
+        {
+            stock_ = stock;
+        }
+
+        /**
+         * @return the sub-ranges of [from, to] that are not held, in date order
+         */
+        private List<int[]> getGaps(int from, int to)
+        {
+            List<int[]> ret = new ArrayList<>();
+            int start = from;
+
+            Map.Entry<Integer, Integer> floor = ranges_.floorEntry(from);
+            if (floor != null && floor.getValue() >= from)
+                start = floor.getValue() + 1;
+
+            for (Map.Entry<Integer, Integer> range : ranges_.subMap(from, false, to, true).entrySet())
+            {
+                if (range.getKey() > start)
+                    ret.add(new int[]{start, range.getKey() - 1});
+                start = Math.max(start, range.getValue() + 1);
+            }
+            if (start <= to)
+                ret.add(new int[]{start, to});
+            return ret;
+        }
+
+        /**
+         * Adds the fetched quotes within [from, to] and records the days as held up to the last
+         * complete day. Of the last {@link #SETTLEMENT_DAYS}, only those up to the last quote are held.
+         */
+        private void merge(int from, int to, List<Quote> quotes, int lastCompleteDay)
+        {
+            int lastQuote = from - 1;
+            for (Quote quote : quotes)
+            {
+                int day = quote.getSimpleDate().getEpochDay();
+                if (day < from || day > to)
+                    continue;
+                quotes_.put(day, quote);
+                lastQuote = Math.max(lastQuote, day);
+            }
+
+            int end = Math.min(to, lastCompleteDay);
+            if (end > lastCompleteDay - SETTLEMENT_DAYS)
+                end = Math.max(lastQuote, Math.min(end, lastCompleteDay - SETTLEMENT_DAYS));
+            if (from <= end)
+                addRange(from, end);
+        }
+
+        private void addRange(int from, int to)
+        {
+            Map.Entry<Integer, Integer> floor = ranges_.floorEntry(from);
+            if (floor != null && floor.getValue() >= from - 1)
+            {
+                from = floor.getKey();
+                to = Math.max(to, floor.getValue());
+            }
+
+            Map.Entry<Integer, Integer> next = ranges_.ceilingEntry(from);
+            while (next != null && next.getKey() <= to + 1)
+            {
+                to = Math.max(to, next.getValue());
+                ranges_.remove(next.getKey());
+                next = ranges_.ceilingEntry(from);
+            }
+            ranges_.put(from, to);
+        }
+
+        /**
+         * @return the held quotes within [from, to], most recent first
+         */
+        private List<Quote> get(int from, int to)
+        {
+            return new ArrayList<>(quotes_.subMap(from, true, to, true).descendingMap().values());
+        }
+    }
+}
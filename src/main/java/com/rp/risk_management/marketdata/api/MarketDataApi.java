@@ -7,6 +7,9 @@ import com.rp.risk_management.model.Position;
 import com.rp.risk_management.util.date.SimpleDate;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public interface MarketDataApi
 {
@@ -16,4 +19,51 @@ public interface MarketDataApi
     List<Quote> getMarketData(Position position)throws Exception;
     List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate) throws Exception;
     List<Quote> getMarketData(Stock stock,SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception;
+
+    /**
+     * @return whether quotes on the <code>toDate</code> of a range are returned. {@link YahooMarketDataApi}
+     *         stops the day before it, the default.
+     */
+    default boolean isEndDateInclusive()
+    {
+        return false;
+    }
+
+    /**
+     * Asynchronous variant of {@link #getMarketData(Stock, SimpleDate, SimpleDate, Interval)}.
+     * The default implementation runs the blocking call on the executor; failures complete the future
+     * exceptionally with a {@link CompletionException} wrapping the original exception.
+     *
+     * @param executor the executor to run the blocking call on
+     */
+    default CompletableFuture<List<Quote>> getMarketDataAsync(Stock stock, SimpleDate fromDate, SimpleDate toDate,
+                                                             Interval interval, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return getMarketData(stock, fromDate, toDate, interval);
+            }
+            catch (Exception ex)
+            {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * @see #getMarketDataAsync(Stock, SimpleDate, SimpleDate, Interval, Executor)
+     */
+    default CompletableFuture<List<Quote>> getMarketDataAsync(Stock stock, SimpleDate fromDate, SimpleDate toDate, Executor executor)
+    {
+        return getMarketDataAsync(stock, fromDate, toDate, Interval.DAILY, executor);
+    }
+
+    /**
+     * @see #getMarketDataAsync(Stock, SimpleDate, SimpleDate, Interval, Executor)
+     */
+    default CompletableFuture<List<Quote>> getMarketDataAsync(Position position, Executor executor)
+    {
+        return getMarketDataAsync(position.getStock(), position.getStartDate(), position.getEndDate(), executor);
+    }
 }
@@ -0,0 +1,121 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.util.date.EpochDay;
+import com.rp.risk_management.util.date.SimpleDate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a list of quotes for a single stock, used by the on-disk market data tiers.
+ * Prices are stored exactly (unscaled value and scale) so a decoded quote equals the original.
+ */
+class QuoteFileCodec
+{
+    private static final int MAGIC = 0x52514631; // RQF1
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte BIG = 2;
+
+    private QuoteFileCodec()
+    {}
+
+    static void write(DataOutput out, List<Quote> quotes) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(quotes.size());
+        for (Quote quote : quotes)
+        {
+            out.writeInt(EpochDay.toYyyyMmDd(quote.getSimpleDate().getEpochDay()));
+            writeDecimal(out, quote.getOpen());
+            writeDecimal(out, quote.getLow());
+            writeDecimal(out, quote.getHigh());
+            writeDecimal(out, quote.getClose());
+            writeDecimal(out, quote.getAdjClose());
+            if (quote.getVolume() == null)
+                out.writeByte(NULL);
+            else
+            {
+                out.writeByte(LONG);
+                out.writeLong(quote.getVolume());
+            }
+        }
+    }
+
+    static List<Quote> read(DataInput in, Stock stock) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a quote file for ["+stock+"]");
+
+        int size = in.readInt();
+        List<Quote> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            int yyyymmdd = in.readInt();
+            SimpleDate date = SimpleDate.ofEpochDay(EpochDay.fromYyyyMmDd(yyyymmdd));
+            BigDecimal open = readDecimal(in);
+            BigDecimal low = readDecimal(in);
+            BigDecimal high = readDecimal(in);
+            BigDecimal close = readDecimal(in);
+            BigDecimal adjClose = readDecimal(in);
+            Long volume = in.readByte() == NULL ? null : in.readLong();
+            ret.add(new Quote(stock, date, open, low, high, close, adjClose, volume));
+        }
+        return ret;
+    }
+
+    private static void writeDecimal(DataOutput out, BigDecimal value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL);
+            return;
+        }
+
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < Long.SIZE)
+        {
+            out.writeByte(LONG);
+            out.writeLong(unscaled.longValue());
+        }
+        else
+        {
+            byte[] bytes = unscaled.toByteArray();
+            out.writeByte(BIG);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(value.scale());
+    }
+
+    private static BigDecimal readDecimal(DataInput in) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case NULL:
+                return null;
+            case LONG:
+            {
+                long unscaled = in.readLong();
+                return BigDecimal.valueOf(unscaled, in.readInt());
+            }
+            case BIG:
+            {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new BigDecimal(new BigInteger(bytes), in.readInt());
+            }
+            default:
+                throw new IOException("Unknown decimal type ["+type+"]");
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.rp.risk_management.marketdata.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar, primitive representation of the quotes of one stock.
+ * <p>
+ * Dates are held as epoch days in an <code>int[]</code> and prices in <code>double[]</code> columns,
+ * so a long history costs a few bytes per field instead of a {@link Quote} object graph.
+ * Rows are ordered most recent first, the same order as the <code>List&lt;Quote&gt;</code> returned by
+ * the market data apis. Missing prices are held as <code>NaN</code>.
+ */
+public class QuoteSeries
+{
+    private final Stock stock_;
+    private final int size_;
+    private final int[] epochDays_;
+    private final double[] open_;
+    private final double[] high_;
+    private final double[] low_;
+    private final double[] close_;
+    private final double[] adjClose_;
+    private final long[] volume_;
+
+    private QuoteSeries(Stock stock, int size, int[] epochDays, double[] open, double[] high, double[] low,
+                        double[] close, double[] adjClose, long[] volume)
+    {
+        stock_ = stock;
+        size_ = size;
+        epochDays_ = epochDays;
+        open_ = open;
+        high_ = high;
+        low_ = low;
+        close_ = close;
+        adjClose_ = adjClose;
+        volume_ = volume;
+    }
+
+    /**
+     * Converts a list of quotes, most recent first, into a series.
+     * @param stock the stock the quotes belong to
+     * @param quotes the quotes to convert
+     */
+    public static QuoteSeries of(Stock stock, List<Quote> quotes)
+    {
+        Builder builder = new Builder(stock, quotes.size());
+        for (Quote quote : quotes)
+        {
+            builder.add(quote.getSimpleDate().getEpochDay(),
+                    toDouble(quote.getOpen()), toDouble(quote.getHigh()), toDouble(quote.getLow()),
+                    toDouble(quote.getClose()), toDouble(quote.getAdjClose()),
+                    quote.getVolume() == null ? 0L : quote.getVolume());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Converts a non-empty list of quotes, most recent first, into a series.
+     * @param quotes the quotes to convert, all for the same stock
+     */
+    public static QuoteSeries of(List<Quote> quotes)
+    {
+        if (quotes.isEmpty())
+            throw new IllegalArgumentException("Unable to infer the stock of an empty list of quotes");
+        return of(quotes.get(0).getStock(), quotes);
+    }
+
+    private static double toDouble(BigDecimal value)
+    {
+        return value == null ? Double.NaN : value.doubleValue();
+    }
+
+    public Stock getStock() {
+        return stock_;
+    }
+
+    public int size() {
+        return size_;
+    }
+
+    public int getEpochDay(int index) {
+        checkIndex(index);
+        return epochDays_[index];
+    }
+
+    public double getOpen(int index) {
+        checkIndex(index);
+        return open_[index];
+    }
+
+    public double getHigh(int index) {
+        checkIndex(index);
+        return high_[index];
+    }
+
+    public double getLow(int index) {
+        checkIndex(index);
+        return low_[index];
+    }
+
+    public double getClose(int index) {
+        checkIndex(index);
+        return close_[index];
+    }
+
+    public double getAdjClose(int index) {
+        checkIndex(index);
+        return adjClose_[index];
+    }
+
+    public long getVolume(int index) {
+        checkIndex(index);
+        return volume_[index];
+    }
+
+    /**
+     * @return a copy of the closing prices, most recent first
+     */
+    public double[] copyCloses()
+    {
+        return Arrays.copyOf(close_, size_);
+    }
+
+    /**
+     * @return a copy of the dates as epoch days, most recent first
+     */
+    public int[] copyEpochDays()
+    {
+        return Arrays.copyOf(epochDays_, size_);
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size_)
+            throw new IndexOutOfBoundsException("Index ["+index+"] outside series of size ["+size_+"]");
+    }
+
+    @Override
+    public String toString() {
+        return "QuoteSeries{" +
+                "stock_=" + stock_ +
+                ", size_=" + size_ +
+                '}';
+    }
+
+    /**
+     * Accumulates rows into growable primitive columns.
+     * Rows may be added in any date order, {@link #build()} orders them most recent first.
+     */
+    public static class Builder
+    {
+        private final Stock stock_;
+        private int size_;
+        private int[] epochDays_;
+        private double[] open_;
+        private double[] high_;
+        private double[] low_;
+        private double[] close_;
+        private double[] adjClose_;
+        private long[] volume_;
+
+        public Builder(Stock stock)
+        {
+            this(stock, 256);
+        }
+
+        public Builder(Stock stock, int expectedSize)
+        {
+            int capacity = Math.max(expectedSize, 1);
+            stock_ = stock;
+            epochDays_ = new int[capacity];
+            open_ = new double[capacity];
+            high_ = new double[capacity];
+            low_ = new double[capacity];
+            close_ = new double[capacity];
+            adjClose_ = new double[capacity];
+            volume_ = new long[capacity];
+        }
+
+        public Builder add(int epochDay, double open, double high, double low, double close, double adjClose, long volume)
+        {
+            if (size_ == epochDays_.length)
+                grow();
+
+            epochDays_[size_] = epochDay;
+            open_[size_] = open;
+            high_[size_] = high;
+            low_[size_] = low;
+            close_[size_] = close;
+            adjClose_[size_] = adjClose;
+            volume_[size_] = volume;
+            size_++;
+            return this;
+        }
+
+        public QuoteSeries build()
+        {
+            if (!isMostRecentFirst())
+            {
+                if (isOldestFirst())
+                    reverse();
+                else
+                    sortMostRecentFirst();
+            }
+
+            return new QuoteSeries(stock_, size_, Arrays.copyOf(epochDays_, size_),
+                    Arrays.copyOf(open_, size_), Arrays.copyOf(high_, size_), Arrays.copyOf(low_, size_),
+                    Arrays.copyOf(close_, size_), Arrays.copyOf(adjClose_, size_), Arrays.copyOf(volume_, size_));
+        }
+
+        private void grow()
+        {
+            int capacity = epochDays_.length * 2;
+            epochDays_ = Arrays.copyOf(epochDays_, capacity);
+            open_ = Arrays.copyOf(open_, capacity);
+            high_ = Arrays.copyOf(high_, capacity);
+            low_ = Arrays.copyOf(low_, capacity);
+            close_ = Arrays.copyOf(close_, capacity);
+            adjClose_ = Arrays.copyOf(adjClose_, capacity);
+            volume_ = Arrays.copyOf(volume_, capacity);
+        }
+
+        private boolean isMostRecentFirst()
+        {
+            for (int i = 1; i < size_; i++)
+                if (epochDays_[i - 1] < epochDays_[i])
+                    return false;
+            return true;
+        }
+
+        private boolean isOldestFirst()
+        {
+            for (int i = 1; i < size_; i++)
+                if (epochDays_[i - 1] > epochDays_[i])
+                    return false;
+            return true;
+        }
+
+        private void reverse()
+        {
+            for (int i = 0, j = size_ - 1; i < j; i++, j--)
+                swap(i, j);
+        }
+
+        private void sortMostRecentFirst()
+        {
+            // sort the rows by (-day, row), most recent first and stable, then gather each column once
+            long[] keys = new long[size_];
+            for (int i = 0; i < size_; i++)
+                keys[i] = (long) -epochDays_[i] << 32 | i;
+            Arrays.sort(keys);
+            int[] rows = new int[size_];
+            for (int i = 0; i < size_; i++)
+                rows[i] = (int) keys[i];
+
+            int[] epochDays = new int[epochDays_.length];
+            long[] volume = new long[volume_.length];
+            for (int i = 0; i < size_; i++)
+            {
+                epochDays[i] = epochDays_[rows[i]];
+                volume[i] = volume_[rows[i]];
+            }
+            epochDays_ = epochDays;
+            volume_ = volume;
+            open_ = gather(open_, rows);
+            high_ = gather(high_, rows);
+            low_ = gather(low_, rows);
+            close_ = gather(close_, rows);
+            adjClose_ = gather(adjClose_, rows);
+        }
+
+        private static double[] gather(double[] column, int[] rows)
+        {
+            double[] ret = new double[column.length];
+            for (int i = 0; i < rows.length; i++)
+                ret[i] = column[rows[i]];
+            return ret;
+        }
+
+        private void swap(int i, int j)
+        {
+            int day = epochDays_[i]; epochDays_[i] = epochDays_[j]; epochDays_[j] = day;
+            double d = open_[i]; open_[i] = open_[j]; open_[j] = d;
+            d = high_[i]; high_[i] = high_[j]; high_[j] = d;
+            d = low_[i]; low_[i] = low_[j]; low_[j] = d;
+            d = close_[i]; close_[i] = close_[j]; close_[j] = d;
+            d = adjClose_[i]; adjClose_[i] = adjClose_[j]; adjClose_[j] = d;
+            long v = volume_[i]; volume_[i] = volume_[j]; volume_[j] = v;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.rp.risk_management.util;
 
+import com.rp.risk_management.analytics.portfolio.ReturnSeriesCache;
 import com.rp.risk_management.analytics.portfolio.VarUtils;
 import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,7 +21,23 @@ public class QuoteHelper
         List<double[]> returns = new ArrayList<>();
         for( List<Quote> stockQuotes : allQuotes )
         {
-            returns.add( VarUtils.computeDailyReturns(getClosingPrices( stockQuotes ) ));
+            returns.add( ReturnSeriesCache.getInstance().getDailyReturns( stockQuotes ));
+        }
+
+        return returns;
+    }
+
+    /**
+     * Extracts returns from each series without boxing the prices.
+     *
+     * @return List of arrays containing returns for each series
+     */
+    public static List<double[]> getReturnsFromQuoteSeries(List<QuoteSeries> allSeries )
+    {
+        List<double[]> returns = new ArrayList<>(allSeries.size());
+        for( QuoteSeries series : allSeries )
+        {
+            returns.add( VarUtils.computeDailyReturns( series ) );
         }
 
         return returns;
@@ -39,4 +57,13 @@ public class QuoteHelper
 
         return ret;
     }
+
+    /**
+     * @param series historical stock data
+     * @return closing prices, most recent first
+     */
+    public static double[] getClosingPrices( QuoteSeries series )
+    {
+        return series.copyCloses();
+    }
 }
@@ -0,0 +1,100 @@
+package com.rp.risk_management.util.date;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversions between calendar dates and epoch days, the number of days since 1970-01-01.
+ * <p>
+ * The civil date arithmetic works on ints only (H. Hinnant's algorithms), so none of the conversions
+ * allocate and all of them are safe to call from many threads.
+ */
+public class EpochDay
+{
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    /** Zone {@link Date}s are read in, the default zone when the class was loaded. */
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    private EpochDay(){}
+
+    /**
+     * Lenient like {@link Calendar}: months and days outside their range roll into the neighbouring months and years.
+     * @param yyyy year
+     * @param mm month, 1 for January
+     * @param dd day of month, starting at 1
+     * @return the epoch day
+     */
+    public static int of(int yyyy, int mm, int dd)
+    {
+        int year = yyyy + Math.floorDiv(mm - 1, 12);
+        int month = Math.floorMod(mm - 1, 12) + 1;
+
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468 + dd - 1;
+    }
+
+    /**
+     * @return the calendar day of the date in the default time zone
+     */
+    public static int fromDate(Date date)
+    {
+        long time = date.getTime();
+        return (int) Math.floorDiv(time + ZONE.getOffset(time), MILLIS_PER_DAY);
+    }
+
+    /**
+     * @return the calendar day of the calendar, in its own time zone
+     */
+    public static int fromCalendar(Calendar calendar)
+    {
+        return of(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * @param yyyymmdd a date such as <code>20131203</code>
+     */
+    public static int fromYyyyMmDd(int yyyymmdd)
+    {
+        return of(yyyymmdd / 10000, (yyyymmdd / 100) % 100, yyyymmdd % 100);
+    }
+
+    /**
+     * @return the date as an int such as <code>20131203</code>
+     */
+    public static int toYyyyMmDd(int epochDay)
+    {
+        int z = epochDay + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int getYear(int epochDay)
+    {
+        return toYyyyMmDd(epochDay) / 10000;
+    }
+
+    /**
+     * @return the month, 1 for January
+     */
+    public static int getMonth(int epochDay)
+    {
+        return (toYyyyMmDd(epochDay) / 100) % 100;
+    }
+
+    public static int getDayOfMonth(int epochDay)
+    {
+        return toYyyyMmDd(epochDay) % 100;
+    }
+}
@@ -5,57 +5,68 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
+/**
+ * Immutable calendar day, held as a single int epoch day.
+ * Construction, comparison and hashing allocate nothing and are safe from many threads.
+ */
 public class SimpleDate implements Comparable<SimpleDate>
 {
+    /**
+     * @deprecated not used by {@link SimpleDate} any more, and not thread-safe. Use {@link #getyyyymmdd()}.
+     */
+    @Deprecated
     public static final SimpleDateFormat simpleDateFormat_ = new SimpleDateFormat("yyyyMMdd");
 
-    private Object lock_ = new Object();
-    private final Date date_;
+    private final int epochDay_;
+
+    private SimpleDate(int epochDay)
+    {
+        epochDay_ = epochDay;
+    }
+
+    /**
+     * @param date read as a calendar day in the default time zone
+     */
     public SimpleDate(Date date)
     {
-        try {
-            String formatedDate = simpleDateFormat_.format(date);
-            date_ = simpleDateFormat_.parse(formatedDate);
-        }
-        catch (Exception ex)
-        {
-            throw new IllegalArgumentException("Unable to format date");
-        }
+        this(EpochDay.fromDate(date));
     }
 
     public SimpleDate(Calendar calendar) {
-        this(calendar.getTime());
+        this(EpochDay.fromCalendar(calendar));
     }
 
     public SimpleDate(int yyyy, int mm, int dd)
     {
-        Calendar calendar = Calendar.getInstance();
-        calendar.set(Calendar.YEAR,yyyy);
-        calendar.set(Calendar.MONTH,mm-1);
-        calendar.set(Calendar.DAY_OF_MONTH,dd);
-
-        // strip off time
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
+        this(EpochDay.of(yyyy, mm, dd));
+    }
 
-        date_ = calendar.getTime();
+    /**
+     * @param epochDay the number of days since 1970-01-01
+     */
+    public static SimpleDate ofEpochDay(int epochDay)
+    {
+        return new SimpleDate(epochDay);
     }
 
     @Override
     public int compareTo(SimpleDate o) {
-        return o.date_.compareTo(this.date_);
+        return Integer.compare(o.epochDay_, this.epochDay_);
     }
 
+    /**
+     * @return a new date at midnight of this day in the default time zone
+     */
     public Date getDate() {
-        return date_;
+        return getCalendar().getTime();
     }
 
     public Calendar getCalendar()
     {
+        int yyyymmdd = EpochDay.toYyyyMmDd(epochDay_);
         Calendar calendar = Calendar.getInstance();
-        calendar.setTime(date_);
+        calendar.clear();
+        calendar.set(yyyymmdd / 10000, (yyyymmdd / 100) % 100 - 1, yyyymmdd % 100);
 
         return calendar;
     }
@@ -67,16 +78,12 @@ public class SimpleDate implements Comparable<SimpleDate>
 
         SimpleDate that = (SimpleDate) o;
 
-        if (!simpleDateFormat_.equals(that.simpleDateFormat_)) return false;
-        return date_.equals(that.date_);
-
+        return epochDay_ == that.epochDay_;
     }
 
     @Override
     public int hashCode() {
-        int result = simpleDateFormat_.hashCode();
-        result = 31 * result + date_.hashCode();
-        return result;
+        return epochDay_;
     }
 
     @Override
@@ -86,11 +93,19 @@ public class SimpleDate implements Comparable<SimpleDate>
                 '}';
     }
 
+    /**
+     * @return the number of days since 1970-01-01
+     */
+    public int getEpochDay()
+    {
+        return epochDay_;
+    }
+
     public String getyyyymmdd()
     {
-        synchronized (lock_)
-        {
-            return simpleDateFormat_.format(date_);
-        }
+        int yyyymmdd = EpochDay.toYyyyMmDd(epochDay_);
+        if (yyyymmdd < 10000000)
+            return String.format("%08d", yyyymmdd);
+        return Integer.toString(yyyymmdd);
     }
 }
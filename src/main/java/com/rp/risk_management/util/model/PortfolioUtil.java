@@ -1,17 +1,48 @@
 package com.rp.risk_management.util.model;
 
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import com.rp.risk_management.analytics.portfolio.ReturnSeriesCache;
+import com.rp.risk_management.marketdata.api.CachingMarketDataApi;
 import com.rp.risk_management.marketdata.api.MarketDataApi;
 import com.rp.risk_management.marketdata.api.YahooMarketDataApi;
 import com.rp.risk_management.marketdata.model.Quote;
 import com.rp.risk_management.model.Position;
 import com.rp.risk_management.model.Portfolio;
-import com.rp.risk_management.util.QuoteHelper;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class PortfolioUtil
 {
+    /**
+     * Provider used when no {@link MarketDataApi} is passed explicitly.
+     * Cached so the repeated loads made by the VaR models only reach Yahoo once per range.
+     */
+    private static volatile MarketDataApi marketDataApi_ =
+            new CachingMarketDataApi(new YahooMarketDataApi(), CachingMarketDataApi.DEFAULT_CAPACITY);
+
+    /**
+     * @return the provider used by {@link #getStockQuotes(Portfolio)}
+     */
+    public static MarketDataApi getMarketDataApi()
+    {
+        return marketDataApi_;
+    }
+
+    /**
+     * Replaces the provider used by {@link #getStockQuotes(Portfolio)}, and therefore by the VaR models,
+     * e.g. with a {@link com.rp.risk_management.marketdata.api.CsvMarketDataApi} for offline runs.
+     * @param marketDataApi the provider to use
+     */
+    public static void setMarketDataApi(MarketDataApi marketDataApi)
+    {
+        if (marketDataApi == null)
+            throw new IllegalArgumentException("MarketDataApi cannot be null");
+        marketDataApi_ = marketDataApi;
+    }
+
     /**
      *
      * @param portfolio
@@ -31,20 +62,28 @@ public class PortfolioUtil
      */
     public static List<List<Quote>> getStockQuotes(Portfolio portfolio)
     {
-        List<List<Quote>> allQuotes = new ArrayList<>();
-
-        MarketDataApi marketDataApi = new YahooMarketDataApi();
-
-        for (Position position : portfolio.getPositions()) {
-            try {
-                allQuotes.add(marketDataApi.getMarketData(position.getStock(), position.getStartDate(), position.getEndDate()));
-            }
-            catch (Exception ex)
-            {
-                throw new RuntimeException("Unable to get market data for the position ["+position+"]",ex);
-            }
-        }
-        return allQuotes;
+        return getStockQuotes(portfolio, marketDataApi_);
+    }
+
+    /**
+     * @param portfolio
+     * @param marketDataApi the provider to load the quotes from
+     */
+    public static List<List<Quote>> getStockQuotes(Portfolio portfolio, MarketDataApi marketDataApi)
+    {
+        return getStockQuotes(portfolio, marketDataApi, QuoteLoader.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Loads the quotes of every position concurrently, fetching each stock once.
+     * @param portfolio
+     * @param marketDataApi the provider to load the quotes from
+     * @param parallelism maximum number of concurrent fetches
+     * @see QuoteLoader
+     */
+    public static List<List<Quote>> getStockQuotes(Portfolio portfolio, MarketDataApi marketDataApi, int parallelism)
+    {
+        return new QuoteLoader(marketDataApi, parallelism).load(portfolio.getPositions());
     }
 
     /**
@@ -52,7 +91,57 @@ public class PortfolioUtil
      */
     public static List<double[]> getReturns(Portfolio portfolio)
     {
-        return QuoteHelper.getReturnsFromQuotes(getStockQuotes(portfolio));
+        return getReturns(portfolio, marketDataApi_);
+    }
+
+    /**
+     * Returns are computed for each position as soon as its quotes arrive, overlapping with the
+     * fetches still in flight.
+     * @param portfolio
+     * @param marketDataApi the provider to load the quotes from
+     */
+    public static List<double[]> getReturns(Portfolio portfolio, MarketDataApi marketDataApi)
+    {
+        return new QuoteLoader(marketDataApi, QuoteLoader.DEFAULT_PARALLELISM).load(portfolio.getPositions(),
+                quotes -> ReturnSeriesCache.getInstance().getDailyReturns(quotes));
+    }
+
+    /**
+     * @param portfolio
+     * @return the returns of every position aligned on the dates all of them have quotes for
+     */
+    public static ReturnMatrix getReturnMatrix(Portfolio portfolio)
+    {
+        return getReturnMatrix(portfolio, marketDataApi_, ReturnMatrix.MissingDataPolicy.DROP);
+    }
+
+    /**
+     * @param portfolio
+     * @param marketDataApi the provider to load the quotes from
+     * @param policy how to treat dates some positions have no quote for
+     * @return the returns of every position aligned on their dates, one column per position
+     */
+    public static ReturnMatrix getReturnMatrix(Portfolio portfolio, MarketDataApi marketDataApi, ReturnMatrix.MissingDataPolicy policy)
+    {
+        ReturnMatrix.Builder builder = new ReturnMatrix.Builder(policy);
+        for (List<Quote> quotes : getStockQuotes(portfolio, marketDataApi))
+            builder.add(quotes);
+        return builder.build();
+    }
+
+    /**
+     * Starts loading the returns of every position without waiting for them.
+     * @param portfolio
+     * @param marketDataApi the provider to load the quotes from
+     * @param executor runs the blocking fetches
+     * @return one future per position, in the same order as the positions
+     */
+    public static List<CompletableFuture<double[]>> getReturnsAsync(Portfolio portfolio, MarketDataApi marketDataApi, Executor executor)
+    {
+        List<CompletableFuture<double[]>> ret = new ArrayList<>();
+        for (CompletableFuture<List<Quote>> quotes : new QuoteLoader(marketDataApi, QuoteLoader.DEFAULT_PARALLELISM).loadAsync(portfolio.getPositions(), executor))
+            ret.add(quotes.thenApply(q -> ReturnSeriesCache.getInstance().getDailyReturns(q)));
+        return ret;
     }
 
     /**
@@ -0,0 +1,265 @@
+package com.rp.risk_management.util.model;
+
+import com.rp.risk_management.marketdata.api.MarketDataApi;
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.date.SimpleDate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Loads the quotes of many positions concurrently.
+ * <p>
+ * Positions on the same {@link Stock} are fetched once, over the union of their date ranges, and then
+ * sliced back to each position's range. Up to <code>parallelism</code> stocks are fetched at the same
+ * time, so the load time follows the slowest fetch rather than the sum of all fetches. The fetches
+ * share a pool of daemon threads that outlives any one load; a single stock is fetched on the calling
+ * thread. Every failure is reported together in a single exception.
+ */
+public class QuoteLoader
+{
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private static final AtomicInteger threadCount_ = new AtomicInteger();
+    /** Threads of every load, idle ones exit after a minute. */
+    private static final ExecutorService executor_ = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "quote-loader-" + threadCount_.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MarketDataApi marketDataApi_;
+    private final int parallelism_;
+
+    /**
+     * @param marketDataApi the provider to load from
+     * @param parallelism maximum number of concurrent fetches
+     */
+    public QuoteLoader(MarketDataApi marketDataApi, int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive ["+parallelism+"]");
+        marketDataApi_ = marketDataApi;
+        parallelism_ = parallelism;
+    }
+
+    /**
+     * @param positions the positions to load quotes for
+     * @return the quotes of each position, in the same order as the positions
+     * @throws RuntimeException listing every stock that failed, each failure attached as a cause or suppressed exception
+     */
+    public List<List<Quote>> load(List<Position> positions)
+    {
+        return load(positions, Function.identity());
+    }
+
+    /**
+     * Loads the quotes of each position and transforms them as soon as they arrive, so work on early
+     * stocks overlaps with the fetches still in flight.
+     *
+     * @param positions the positions to load quotes for
+     * @param transform applied to the quotes of each position, on the fetching thread
+     * @return the transformed quotes of each position, in the same order as the positions
+     * @throws RuntimeException listing every stock that failed, each failure attached as a cause or suppressed exception
+     */
+    public <T> List<T> load(List<Position> positions, Function<List<Quote>, T> transform)
+    {
+        Set<Stock> stocks = new HashSet<>();
+        for (Position position : positions)
+            stocks.add(position.getStock());
+        Executor executor = stocks.size() == 1 || parallelism_ == 1 ? Runnable::run : new BoundedExecutor(executor_, parallelism_);
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(positions.size());
+        for (CompletableFuture<List<Quote>> future : loadAsync(positions, executor))
+            futures.add(future.thenApply(transform));
+
+        return join(positions, futures);
+    }
+
+    /**
+     * Starts loading the quotes of each position without waiting for them.
+     *
+     * @param positions the positions to load quotes for
+     * @param executor runs the blocking fetches
+     * @return one future per position, in the same order as the positions
+     */
+    public List<CompletableFuture<List<Quote>>> loadAsync(List<Position> positions, Executor executor)
+    {
+        Map<Stock, Request> requests = new LinkedHashMap<>();
+        for (Position position : positions)
+        {
+            Request request = requests.get(position.getStock());
+            if (request == null)
+                requests.put(position.getStock(), new Request(position));
+            else
+                request.add(position);
+        }
+
+        for (Request request : requests.values())
+            request.start(executor);
+
+        List<CompletableFuture<List<Quote>>> ret = new ArrayList<>(positions.size());
+        for (Position position : positions)
+            ret.add(requests.get(position.getStock()).getQuotes(position));
+        return ret;
+    }
+
+    private static <T> List<T> join(List<Position> positions, List<CompletableFuture<T>> futures)
+    {
+        List<T> ret = new ArrayList<>(futures.size());
+        List<Stock> failedStocks = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try
+            {
+                ret.add(futures.get(i).join());
+            }
+            catch (CompletionException ex)
+            {
+                Stock stock = positions.get(i).getStock();
+                if (!failedStocks.contains(stock))
+                {
+                    failedStocks.add(stock);
+                    failures.add(ex.getCause() == null ? ex : ex.getCause());
+                }
+            }
+        }
+
+        if (!failures.isEmpty())
+        {
+            RuntimeException ex = new RuntimeException("Unable to get market data for ["+failedStocks.size()+"] stocks "
+                    + failedStocks, failures.get(0));
+            for (int i = 1; i < failures.size(); i++)
+                ex.addSuppressed(failures.get(i));
+            throw ex;
+        }
+        return ret;
+    }
+
+    /**
+     * Runs at most <code>parallelism</code> tasks at a time on the shared executor, queueing the rest.
+     */
+    private static class BoundedExecutor implements Executor
+    {
+        private final Executor executor_;
+        private final int parallelism_;
+        /** Guarded by itself, as is running_. */
+        private final Queue<Runnable> queue_ = new ArrayDeque<>();
+        private int running_;
+
+        private BoundedExecutor(Executor executor, int parallelism)
+        {
+            executor_ = executor;
+            parallelism_ = parallelism;
+        }
+
+        @Override
+        public void execute(Runnable task)
+        {
+            synchronized (queue_)
+            {
+                queue_.add(task);
+                if (running_ == parallelism_)
+                    return;
+                running_++;
+            }
+            executor_.execute(this::drain);
+        }
+
+        private void drain()
+        {
+            while (true)
+            {
+                Runnable task;
+                synchronized (queue_)
+                {
+                    task = queue_.poll();
+                    if (task == null)
+                    {
+                        running_--;
+                        return;
+                    }
+                }
+                // the fetches of loadAsync complete their future rather than throw
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * A single fetch covering every position on one stock.
+     */
+    private class Request
+    {
+        private final Stock stock_;
+        private SimpleDate from_;
+        private SimpleDate to_;
+        private CompletableFuture<List<Quote>> quotes_;
+
+        private Request(Position position)
+        {
+            stock_ = position.getStock();
+            from_ = position.getStartDate();
+            to_ = position.getEndDate();
+        }
+
+        private void add(Position position)
+        {
+            if (position.getStartDate().getEpochDay() < from_.getEpochDay())
+                from_ = position.getStartDate();
+            if (position.getEndDate().getEpochDay() > to_.getEpochDay())
+                to_ = position.getEndDate();
+        }
+
+        private void start(Executor executor)
+        {
+            final SimpleDate from = from_, to = to_;
+            quotes_ = marketDataApi_.getMarketDataAsync(stock_, from, to, executor).handle((quotes, ex) -> {
+                if (ex != null)
+                {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    throw new CompletionException(new RuntimeException("Unable to get market data for ["+stock_+"] ["+from+"] to ["+to+"]", cause));
+                }
+                return quotes;
+            });
+        }
+
+        /**
+         * @return the fetched quotes restricted to the range of the position
+         */
+        private CompletableFuture<List<Quote>> getQuotes(Position position)
+        {
+            if (position.getStartDate().equals(from_) && position.getEndDate().equals(to_))
+                return quotes_;
+
+            final int from = position.getStartDate().getEpochDay();
+            final int to = position.getEndDate().getEpochDay();
+            return quotes_.thenApply(quotes -> {
+                List<Quote> ret = new ArrayList<>();
+                for (Quote quote : quotes)
+                {
+                    int day = quote.getSimpleDate().getEpochDay();
+                    if (day >= from && day <= to)
+                        ret.add(quote);
+                }
+                return ret;
+            });
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class BlockedCovariance_UnitTest extends TestCase
+{
+    public void testShouldMatchPairwiseCovariance() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 130, 40, ReturnMatrix.MissingDataPolicy.DROP, false );
+
+        double[][] covariance = new BlockedCovariance( new ForkJoinPool( 4 ), 16 ).estimate( returns );
+        assertMatchesPairwise( returns, covariance );
+    }
+
+    public void testShouldNotDependOnThreadsOrBlockSize() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 70, 30, ReturnMatrix.MissingDataPolicy.DROP, false );
+
+        double[][] sequential = new BlockedCovariance( new ForkJoinPool( 1 ), 16 ).estimate( returns );
+        double[][] parallel = new BlockedCovariance( new ForkJoinPool( 4 ), 16 ).estimate( returns );
+        double[][] oneTile = new BlockedCovariance( new ForkJoinPool( 4 ), 100 ).estimate( returns );
+        for( int x = 0 ; x < sequential.length ; x++ )
+        {
+            Assert.assertArrayEquals( sequential[x], parallel[x], 0.0 );
+            Assert.assertArrayEquals( sequential[x], oneTile[x], 0.0 );
+        }
+    }
+
+    public void testShouldUseDatesPresentForBothAssets() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 20, 30, ReturnMatrix.MissingDataPolicy.MASK, true );
+        Assert.assertTrue( returns.hasMissing() );
+
+        double[][] covariance = new BlockedCovariance( new ForkJoinPool( 2 ), 8 ).estimate( returns );
+        assertMatchesPairwise( returns, covariance );
+    }
+
+    public void testShouldHaveNoEstimateForAssetsWithoutCommonDates() throws Exception
+    {
+        QuoteSeries.Builder early = new QuoteSeries.Builder( new Stock( "EARLY" ) );
+        QuoteSeries.Builder late = new QuoteSeries.Builder( new Stock( "LATE" ) );
+        for( int day = 4 ; day > 0 ; day-- )
+        {
+            early.add( day, day, day, day, day, day, 0L );
+            late.add( day + 10, day, day, day, day, day, 0L );
+        }
+        ReturnMatrix returns = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.MASK )
+                .add( early.build() ).add( late.build() ).build();
+
+        double[][] covariance = new BlockedCovariance().estimate( returns );
+        Assert.assertTrue( Double.isNaN( covariance[0][1] ) );
+        Assert.assertTrue( Double.isNaN( covariance[1][0] ) );
+        Assert.assertTrue( covariance[0][0] > 0.0 );
+    }
+
+    private static void assertMatchesPairwise( ReturnMatrix returns, double[][] covariance )
+    {
+        for( int x = 0 ; x < returns.getNumberOfAssets() ; x++ )
+        {
+            for( int y = 0 ; y < returns.getNumberOfAssets() ; y++ )
+            {
+                double expected = pairwiseCovariance( returns.copyColumn( x ), returns.copyColumn( y ) );
+                Assert.assertEquals( "[" + x + ", " + y + "]", expected, covariance[x][y], 1e-15 );
+            }
+        }
+    }
+
+    private static double pairwiseCovariance( double[] returns1, double[] returns2 )
+    {
+        double mean1 = 0.0;
+        double mean2 = 0.0;
+        int present = 0;
+        for( int i = 0 ; i < returns1.length ; i++ )
+        {
+            if( !Double.isNaN( returns1[i] ) && !Double.isNaN( returns2[i] ) )
+            {
+                mean1 += returns1[i];
+                mean2 += returns2[i];
+                present++;
+            }
+        }
+        mean1 /= present;
+        mean2 /= present;
+
+        double sum = 0.0;
+        for( int i = 0 ; i < returns1.length ; i++ )
+        {
+            if( !Double.isNaN( returns1[i] ) && !Double.isNaN( returns2[i] ) )
+            {
+                sum += ( returns1[i] - mean1 ) * ( returns2[i] - mean2 );
+            }
+        }
+        return sum / ( present - 1 );
+    }
+}
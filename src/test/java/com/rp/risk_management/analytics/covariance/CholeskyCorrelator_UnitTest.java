@@ -0,0 +1,46 @@
+package com.rp.risk_management.analytics.covariance;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Random;
+
+public class CholeskyCorrelator_UnitTest extends TestCase
+{
+    public void testShouldCorrelateOneScenario() throws Exception
+    {
+        double[][] lower = { { 2, 0 }, { 1, 3 } };
+        double[] out = new double[2];
+        new CholeskyCorrelator( lower ).correlate( new double[] { 1, -1 }, out );
+        Assert.assertArrayEquals( new double[] { 2, -2 }, out, 0.0 );
+    }
+
+    public void testShouldCorrelateBlockAsScenarioByScenario() throws Exception
+    {
+        // more assets than a tile and scenarios that do not fill the last group of four
+        int numberOfAssets = 2 * CholeskyCorrelator.ASSET_BLOCK + 17;
+        int numberOfScenarios = CholeskyCorrelator.SCENARIO_BLOCK + 7;
+        Random random = new Random( 9 );
+        double[][] lower = new double[numberOfAssets][numberOfAssets];
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+            for( int y = 0 ; y <= x ; y++ )
+                lower[x][y] = random.nextGaussian();
+        double[] draws = new double[numberOfScenarios * numberOfAssets];
+        for( int i = 0 ; i < draws.length ; i++ )
+            draws[i] = random.nextGaussian();
+
+        CholeskyCorrelator correlator = new CholeskyCorrelator( lower );
+        double[] out = new double[draws.length];
+        correlator.correlate( draws, out, numberOfScenarios );
+
+        double[] scenarioDraws = new double[numberOfAssets];
+        double[] scenarioOut = new double[numberOfAssets];
+        for( int scenario = 0 ; scenario < numberOfScenarios ; scenario++ )
+        {
+            System.arraycopy( draws, scenario * numberOfAssets, scenarioDraws, 0, numberOfAssets );
+            correlator.correlate( scenarioDraws, scenarioOut );
+            for( int x = 0 ; x < numberOfAssets ; x++ )
+                Assert.assertEquals( scenarioOut[x], out[scenario * numberOfAssets + x], 0.0 );
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import com.rp.risk_management.analytics.volatility.EwmaVolatility;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Random;
+
+public class EwmaCovariance_UnitTest extends TestCase
+{
+    public void testShouldMatchFullMatrixRecursion() throws Exception
+    {
+        Random random = new Random( 7 );
+        int numberOfAssets = 5;
+        double[][] days = new double[50][numberOfAssets];
+        for( double[] day : days )
+            for( int x = 0 ; x < numberOfAssets ; x++ )
+                day[x] = random.nextGaussian() * 0.01;
+
+        double[][] expected = new double[numberOfAssets][numberOfAssets];
+        EwmaCovariance ewma = new EwmaCovariance( numberOfAssets, 0.94 );
+        for( int d = 0 ; d < days.length ; d++ )
+        {
+            for( int x = 0 ; x < numberOfAssets ; x++ )
+                for( int y = 0 ; y < numberOfAssets ; y++ )
+                    expected[x][y] = d == 0 ? days[d][x] * days[d][y]
+                                            : 0.94 * expected[x][y] + 0.06 * days[d][x] * days[d][y];
+            ewma.update( days[d] );
+        }
+
+        double[][] actual = ewma.snapshot();
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+        {
+            Assert.assertArrayEquals( expected[x], actual[x], 1e-18 );
+            for( int y = 0 ; y < numberOfAssets ; y++ )
+            {
+                Assert.assertEquals( actual[x][y], actual[y][x], 0.0 );
+                Assert.assertEquals( actual[x][y], ewma.getCovariance( y, x ), 0.0 );
+            }
+        }
+        Assert.assertEquals( days.length, ewma.getCount() );
+    }
+
+    public void testShouldMatchEwmaVolatilityOnDiagonal() throws Exception
+    {
+        ReturnMatrix returns = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.DROP )
+                .add( series( "AAA", new double[] { 15, 14, 15.5, 13, 12, 12.5 } ) )
+                .add( series( "BBB", new double[] { 25, 26, 24, 24.5, 23, 22 } ) )
+                .build();
+
+        double[][] covariance = new EwmaCovariance( 2 ).estimate( returns );
+        for( int x = 0 ; x < 2 ; x++ )
+        {
+            double[] column = returns.copyColumn( x );
+            double oldest = column[column.length - 1];
+            EwmaVolatility volatility = new EwmaVolatility( EwmaVolatility.DEFAULT_LAMBDA, oldest * oldest );
+            for( int i = column.length - 2 ; i >= 0 ; i-- )
+                volatility.update( column[i] );
+            Assert.assertEquals( volatility.variance(), covariance[x][x], 1e-18 );
+        }
+    }
+
+    public void testShouldLeaveMissingPairsUnchanged() throws Exception
+    {
+        EwmaCovariance ewma = new EwmaCovariance( 2, 0.9 );
+        ewma.update( new double[] { 0.01, 0.02 } );
+        ewma.update( new double[] { 0.03, Double.NaN } );
+
+        Assert.assertEquals( 0.9 * 0.0001 + 0.1 * 0.0009, ewma.getVariance( 0 ), 1e-18 );
+        Assert.assertEquals( 0.0002, ewma.getCovariance( 0, 1 ), 1e-18 );
+        Assert.assertEquals( 0.0004, ewma.getVariance( 1 ), 1e-18 );
+
+        ewma.reset();
+        Assert.assertEquals( 0.0, ewma.getVariance( 0 ), 0.0 );
+        Assert.assertEquals( 0, ewma.getCount() );
+    }
+
+    private static QuoteSeries series( String symbol, double[] closes )
+    {
+        QuoteSeries.Builder builder = new QuoteSeries.Builder( new Stock( symbol ) );
+        for( int i = 0 ; i < closes.length ; i++ )
+        {
+            builder.add( closes.length - i, closes[i], closes[i], closes[i], closes[i], closes[i], 0L );
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class FactorCovariance_UnitTest extends TestCase
+{
+    public void testShouldReproduceSampleCovarianceWithAllFactors() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 6, 40, ReturnMatrix.MissingDataPolicy.DROP, false );
+        double[][] sample = new BlockedCovariance().estimate( returns );
+
+        FactorCovariance factors = FactorCovariance.fit( returns, 6 );
+        double[][] covariance = factors.toMatrix();
+        for( int x = 0 ; x < 6 ; x++ )
+        {
+            Assert.assertArrayEquals( sample[x], covariance[x], 1e-12 );
+            Assert.assertEquals( 0.0, factors.getSpecificVariance( x ), 1e-12 );
+        }
+        for( int k = 1 ; k < 6 ; k++ )
+        {
+            Assert.assertTrue( factors.getFactorVariance( k - 1 ) >= factors.getFactorVariance( k ) );
+        }
+    }
+
+    public void testShouldKeepVarianceOfEveryAsset() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 50, 20, ReturnMatrix.MissingDataPolicy.DROP, false );
+        double[][] sample = new BlockedCovariance().estimate( returns );
+
+        FactorCovariance factors = FactorCovariance.fit( returns, 3 );
+        Assert.assertEquals( 53, factors.getNumberOfDraws() );
+        for( int x = 0 ; x < 50 ; x++ )
+        {
+            Assert.assertEquals( sample[x][x], factors.getCovariance( x, x ), 1e-12 );
+        }
+    }
+
+    public void testShouldCorrelateWithLoadingsAndSpecificVolatility() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 8, 30, ReturnMatrix.MissingDataPolicy.DROP, false );
+        FactorCovariance factors = FactorCovariance.fit( returns, 2 );
+
+        double[] draws = new double[factors.getNumberOfDraws()];
+        for( int i = 0 ; i < draws.length ; i++ )
+            draws[i] = 0.5 - i * 0.1;
+        double[] correlated = new double[8];
+        factors.correlate( draws, correlated );
+
+        for( int x = 0 ; x < 8 ; x++ )
+        {
+            double expected = factors.getLoading( x, 0 ) * draws[0] + factors.getLoading( x, 1 ) * draws[1]
+                              + Math.sqrt( factors.getSpecificVariance( x ) ) * draws[2 + x];
+            Assert.assertEquals( expected, correlated[x], 1e-15 );
+        }
+    }
+}
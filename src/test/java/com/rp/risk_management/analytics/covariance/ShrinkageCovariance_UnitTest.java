@@ -0,0 +1,104 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class ShrinkageCovariance_UnitTest extends TestCase
+{
+    public void testShouldMatchLedoitWolfDefinition() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 12, 30, ReturnMatrix.MissingDataPolicy.DROP, false );
+        int n = returns.getNumberOfAssets();
+        int t = returns.getNumberOfRows();
+
+        double[][] x = new double[t][n];
+        for( int asset = 0 ; asset < n ; asset++ )
+        {
+            double[] column = returns.copyColumn( asset );
+            double mean = 0.0;
+            for( double value : column )
+                mean += value;
+            mean /= t;
+            for( int row = 0 ; row < t ; row++ )
+                x[row][asset] = column[row] - mean;
+        }
+        double[][] s = new double[n][n];
+        for( double[] day : x )
+            for( int i = 0 ; i < n ; i++ )
+                for( int j = 0 ; j < n ; j++ )
+                    s[i][j] += day[i] * day[j] / t;
+        double m = 0.0;
+        for( int i = 0 ; i < n ; i++ )
+            m += s[i][i] / n;
+        double d2 = 0.0;
+        for( int i = 0 ; i < n ; i++ )
+            for( int j = 0 ; j < n ; j++ )
+                d2 += Math.pow( s[i][j] - ( i == j ? m : 0.0 ), 2 );
+        double b2 = 0.0;
+        for( double[] day : x )
+            for( int i = 0 ; i < n ; i++ )
+                for( int j = 0 ; j < n ; j++ )
+                    b2 += Math.pow( day[i] * day[j] - s[i][j], 2 ) / ( (double) t * t );
+        double expected = Math.min( b2, d2 ) / d2;
+
+        ShrinkageCovariance shrinkage = new ShrinkageCovariance();
+        double[][] covariance = shrinkage.estimate( returns );
+        Assert.assertEquals( expected, shrinkage.getLastShrinkage(), 1e-10 );
+
+        double[][] sample = new BlockedCovariance().estimate( returns );
+        double averageVariance = m * t / ( t - 1 );
+        for( int i = 0 ; i < n ; i++ )
+            for( int j = 0 ; j < n ; j++ )
+                Assert.assertEquals( expected * ( i == j ? averageVariance : 0.0 ) + ( 1 - expected ) * sample[i][j], covariance[i][j], 1e-15 );
+    }
+
+    public void testShouldBePositiveDefiniteWithMoreAssetsThanDates() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 60, 20, ReturnMatrix.MissingDataPolicy.DROP, false );
+
+        Assert.assertFalse( isPositiveDefinite( new BlockedCovariance().estimate( returns ) ) );
+        ShrinkageCovariance shrinkage = new ShrinkageCovariance();
+        Assert.assertTrue( isPositiveDefinite( shrinkage.estimate( returns ) ) );
+        Assert.assertTrue( shrinkage.getLastShrinkage() > 0 && shrinkage.getLastShrinkage() <= 1 );
+    }
+
+    public void testShouldApplyFixedShrinkage() throws Exception
+    {
+        ReturnMatrix returns = TestReturns.random( 5, 20, ReturnMatrix.MissingDataPolicy.DROP, false );
+        double[][] sample = new BlockedCovariance().estimate( returns );
+        double[][] covariance = new ShrinkageCovariance( 0.25 ).estimate( returns );
+
+        double averageVariance = 0.0;
+        for( int i = 0 ; i < 5 ; i++ )
+            averageVariance += sample[i][i] / 5;
+        Assert.assertEquals( 0.75 * sample[0][1], covariance[0][1], 1e-18 );
+        Assert.assertEquals( 0.75 * sample[2][2] + 0.25 * averageVariance, covariance[2][2], 1e-18 );
+    }
+
+    private static boolean isPositiveDefinite( double[][] matrix )
+    {
+        int n = matrix.length;
+        double[][] l = new double[n][n];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            for( int j = 0 ; j <= i ; j++ )
+            {
+                double sum = matrix[i][j];
+                for( int k = 0 ; k < j ; k++ )
+                    sum -= l[i][k] * l[j][k];
+                if( i == j )
+                {
+                    if( sum <= 1e-12 * matrix[i][i] )
+                        return false;
+                    l[i][i] = Math.sqrt( sum );
+                }
+                else
+                {
+                    l[i][j] = sum / l[j][j];
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package com.rp.risk_management.analytics.covariance;
+
+import com.rp.risk_management.analytics.portfolio.ReturnMatrix;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+
+import java.util.Random;
+
+/**
+ * Returns shared by the covariance tests.
+ */
+final class TestReturns
+{
+    private TestReturns()
+    {}
+
+    /**
+     * Daily returns of 2% volatility, the same for every call with the same arguments.
+     * @param gaps whether every other asset skips some dates
+     */
+    static ReturnMatrix random( int numberOfAssets, int numberOfDays, ReturnMatrix.MissingDataPolicy policy, boolean gaps )
+    {
+        Random random = new Random( 11 );
+        ReturnMatrix.Builder builder = new ReturnMatrix.Builder( policy );
+        for( int x = 0 ; x < numberOfAssets ; x++ )
+        {
+            QuoteSeries.Builder series = new QuoteSeries.Builder( new Stock( "S" + x ) );
+            double price = 100;
+            for( int day = numberOfDays ; day > 0 ; day-- )
+            {
+                price *= Math.exp( random.nextGaussian() * 0.02 );
+                if( gaps && x % 2 == 1 && day % ( 3 + x % 5 ) == 0 )
+                {
+                    continue;
+                }
+                series.add( day, price, price, price, price, price, 0L );
+            }
+            builder.add( series.build() );
+        }
+        return builder.build();
+    }
+}
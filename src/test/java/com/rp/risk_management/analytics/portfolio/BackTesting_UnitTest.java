@@ -1,10 +1,14 @@
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.analytics.volatility.GarchFitter;
+import com.rp.risk_management.marketdata.api.CsvMarketDataApi;
+import com.rp.risk_management.marketdata.api.MarketDataApi;
 import com.rp.risk_management.marketdata.model.Stock;
 import com.rp.risk_management.model.Position;
 import com.rp.risk_management.model.Portfolio;
 import com.rp.risk_management.util.ResourceHelper;
 import com.rp.risk_management.util.date.SimpleDate;
+import com.rp.risk_management.util.model.PortfolioUtil;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -57,6 +61,32 @@ public class BackTesting_UnitTest
         Assert.assertEquals(0, results.numberOfExceptions);
     }
 
+    @Test
+    public void testRunModelBuildingTestWithFittedGarchForOneStock() throws Exception
+    {
+        Stock barclays = new Stock( "BARC" );
+        MarketDataApi marketDataApi = PortfolioUtil.getMarketDataApi();
+        PortfolioUtil.setMarketDataApi( new CsvMarketDataApi( Collections.singletonMap( barclays,
+                ResourceHelper.getInstance().getResource( "BARCLAYS_MAR2013_MAR2014.csv" ) ) ) );
+        try
+        {
+            Position position = new Position( barclays, 1000000.0, new SimpleDate( 2013, 3, 25 ), new SimpleDate( 2014, 3, 25 ) );
+            Portfolio portfolio = new Portfolio( Collections.singletonList( position ), null );
+            SimulationSetup simulationSetup = new SimulationSetup( portfolio, VarUtils.MB, 99, 1 );
+            BackTesting backTesting = new BackTesting( simulationSetup );
+            GarchFitter garchFitter = new GarchFitter();
+            backTesting.setGarchFitter( garchFitter );
+            BackTesting.BackTestingResults results = backTesting.backTestPortfolio();
+            Assert.assertNotNull( garchFitter.getLastFit() );
+            Assert.assertEquals( 1, results.acceptableExceptions );
+            Assert.assertEquals( 5, results.numberOfExceptions );
+        }
+        finally
+        {
+            PortfolioUtil.setMarketDataApi( marketDataApi );
+        }
+    }
+
     //This test case is not consistently passing.  Need to fix it...
 //    @Test
 //    public void testRunMonteCarloTestForOneStock() {
@@ -40,8 +40,11 @@ public class ModelBuilding_UnitTest
     }
 
 
-    @Test
-    public void shouldComputeCorrectVaRForThreeStocks() throws Exception
+    /**
+     * The 2004 to 2006 GOOG position shares no dates with the 2013 ones, so no returns can be aligned.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectStocksWithoutCommonDates() throws Exception
     {
         List<Position> allPositions = new ArrayList<>(3);
         {
@@ -57,8 +60,6 @@ public class ModelBuilding_UnitTest
         int confidence = 99;
         int timePeriod = 10;
         ModelBuilding modelBuilding = new ModelBuilding( new Portfolio(allPositions,null), confidence, timePeriod);
-        double calculatedVaR = modelBuilding.computeForMultipleStocks();
-        double expectedVaR = 413122.0;
-        assertEquals( expectedVaR, calculatedVaR, delta );
+        modelBuilding.computeForMultipleStocks();
     }
 }
@@ -3,19 +3,71 @@ package com.rp.risk_management.analytics.portfolio;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.rp.risk_management.analytics.simulation.MonteCarlo;
+import com.rp.risk_management.analytics.simulation.ParallelMonteCarlo;
+import com.rp.risk_management.marketdata.api.CsvMarketDataApi;
+import com.rp.risk_management.marketdata.api.MarketDataApi;
 import com.rp.risk_management.marketdata.model.Stock;
 import com.rp.risk_management.model.Position;
 import com.rp.risk_management.model.Portfolio;
+import com.rp.risk_management.util.ResourceHelper;
 import com.rp.risk_management.util.date.SimpleDate;
 import com.rp.risk_management.util.model.PortfolioUtil;
 import org.junit.Test;
 
 public class MonteCarloSimulation_UnitTest
 {
+    private static final Stock BARCLAYS = new Stock("BARC");
+    private static final Stock LLOYDS = new Stock("LLOY");
+    private static final Stock CENTRICA = new Stock("CNA");
+    private static final int NUMBER_OF_SIMULATIONS = 20000;
+
+    /**
+     * @return a simulation of the stocks, 1000 invested in each over the year to 25 March 2014,
+     *         with their quotes read from the test csv files
+     */
+    private static MonteCarloSimulation getSimulation(int timePeriod, Stock... stocks) throws Exception
+    {
+        Map<Stock, File> files = new HashMap<>();
+        files.put(BARCLAYS, ResourceHelper.getInstance().getResource("BARCLAYS_MAR2013_MAR2014.csv"));
+        files.put(LLOYDS, ResourceHelper.getInstance().getResource("LLOYDS_MARCH2013_MARCH2014.csv"));
+        files.put(CENTRICA, ResourceHelper.getInstance().getResource("CENTRICA_FEB2013_MARCH2014.csv"));
+
+        List<Position> positions = new ArrayList<>();
+        for (Stock stock : stocks)
+            positions.add(new Position(stock, 1000.0, new SimpleDate(2013,4,2), new SimpleDate(2014,3,25)));
+
+        // the quotes are loaded when the simulation is built
+        MarketDataApi marketDataApi = PortfolioUtil.getMarketDataApi();
+        PortfolioUtil.setMarketDataApi(new CsvMarketDataApi(files));
+        try
+        {
+            MonteCarloSimulation sim = new MonteCarloSimulation(new Portfolio(positions, null), 99, timePeriod);
+            sim.setNumberOfSimulations(NUMBER_OF_SIMULATIONS);
+            return sim;
+        }
+        finally
+        {
+            PortfolioUtil.setMarketDataApi(marketDataApi);
+        }
+    }
+
+    /**
+     * Asserts the final VaRs are within four standard errors of their difference.
+     */
+    private static void assertAgree(MonteCarloSimulation.MonteCarloResults expected, MonteCarloSimulation.MonteCarloResults actual)
+    {
+        double standardError = Math.hypot(expected.standardError, actual.standardError);
+        assertTrue(standardError > 0.0);
+        assertEquals(expected.finalVaR, actual.finalVaR, 4 * standardError);
+    }
+
     public void setUp() throws Exception
     {
     }
@@ -58,4 +110,120 @@ public class MonteCarloSimulation_UnitTest
         assertEquals("max risk_management",-(8.8612843164656),results.maximumVaR,0.001);
     }
 
+    @Test
+    public void shouldRepeatPortfolioVaRForSameEngineSeed() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS, LLOYDS, CENTRICA);
+        sim.setSimulationEngine(new ParallelMonteCarlo(42));
+        MonteCarloSimulation.MonteCarloResults first = sim.computeValueAtRiskForPortfolio();
+        sim.setSimulationEngine(new ParallelMonteCarlo(42));
+        MonteCarloSimulation.MonteCarloResults second = sim.computeValueAtRiskForPortfolio();
+
+        assertEquals(first.finalVaR, second.finalVaR, 0.0);
+        assertEquals(first.maximumVaR, second.maximumVaR, 0.0);
+        assertEquals(first.standardError, second.standardError, 0.0);
+    }
+
+    @Test
+    public void shouldAgreeWithFullCovarianceWhenCorrelatingByFactors() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS, LLOYDS, CENTRICA);
+        sim.setSimulationEngine(new ParallelMonteCarlo(1));
+        MonteCarloSimulation.MonteCarloResults full = sim.computeValueAtRiskForPortfolio();
+
+        // as many factors as stocks explain the whole sample covariance
+        sim.setNumberOfFactors(3);
+        sim.setSimulationEngine(new ParallelMonteCarlo(2));
+        assertAgree(full, sim.computeValueAtRiskForPortfolio());
+    }
+
+    @Test
+    public void shouldAgreeWithPseudoRandomWhenSamplingSobol() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS, LLOYDS);
+        sim.setSimulationEngine(new ParallelMonteCarlo(3));
+        MonteCarloSimulation.MonteCarloResults pseudoRandom = sim.computeValueAtRiskForPortfolio();
+
+        sim.setSimulationEngine(null);
+        sim.setSampling(MonteCarlo.Sampling.SOBOL);
+        assertAgree(pseudoRandom, sim.computeValueAtRiskForPortfolio());
+    }
+
+    @Test
+    public void shouldAgreeWithDailyStepsWhenSteppingExactly() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS);
+        sim.setSimulationEngine(new ParallelMonteCarlo(4));
+        MonteCarloSimulation.MonteCarloResults daily = sim.computeValueAtRisk();
+
+        sim.setExactStepping(10);
+        sim.setSimulationEngine(new ParallelMonteCarlo(5));
+        assertAgree(daily, sim.computeValueAtRisk());
+
+        sim.setExactStepping(5, 10);
+        sim.setSimulationEngine(new ParallelMonteCarlo(6));
+        MonteCarloSimulation.MonteCarloResults checkpoints = sim.computeValueAtRisk();
+        assertAgree(daily, checkpoints);
+        assertTrue(checkpoints.maximumVaR >= checkpoints.finalVaR);
+    }
+
+    @Test
+    public void shouldSimulateUntilWithinTolerance() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS);
+        sim.setSimulationEngine(new ParallelMonteCarlo(7));
+        sim.setNumberOfSimulations(1000);
+        sim.setAdaptiveSimulation(2.0, 200000);
+        MonteCarloSimulation.MonteCarloResults results = sim.computeValueAtRisk();
+
+        assertTrue(results.standardError <= 2.0);
+        assertTrue(results.numberOfSimulations > 1000);
+        assertTrue(results.numberOfSimulations < 200000);
+    }
+
+    @Test
+    public void shouldStopAtMaximumNumberOfSimulations() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS, LLOYDS);
+        sim.setSimulationEngine(new ParallelMonteCarlo(8));
+        sim.setNumberOfSimulations(1000);
+        sim.setAdaptiveSimulation(0.01, 30000);
+        MonteCarloSimulation.MonteCarloResults results = sim.computeValueAtRiskForPortfolio();
+
+        assertEquals(30000, results.numberOfSimulations);
+        assertTrue(results.standardError > 0.01);
+    }
+
+    @Test
+    public void shouldAgreeWithPlainSimulationWhenImportanceSampling() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS);
+        sim.setSimulationEngine(new ParallelMonteCarlo(9));
+        MonteCarloSimulation.MonteCarloResults plain = sim.computeValueAtRisk();
+
+        sim.setImportanceSampling(true);
+        sim.setSimulationEngine(new ParallelMonteCarlo(10));
+        MonteCarloSimulation.MonteCarloResults tilted = sim.computeValueAtRisk();
+
+        assertAgree(plain, tilted);
+        assertTrue(tilted.standardError < plain.standardError);
+        assertTrue(Double.isNaN(tilted.maximumVaR));
+    }
+
+    @Test
+    public void shouldAgreeWithPlainPortfolioSimulationWhenImportanceSampling() throws Exception
+    {
+        MonteCarloSimulation sim = getSimulation(10, BARCLAYS, LLOYDS, CENTRICA);
+        sim.setSimulationEngine(new ParallelMonteCarlo(11));
+        MonteCarloSimulation.MonteCarloResults plain = sim.computeValueAtRiskForPortfolio();
+
+        sim.setImportanceSampling(true);
+        sim.setSimulationEngine(new ParallelMonteCarlo(12));
+        MonteCarloSimulation.MonteCarloResults tilted = sim.computeValueAtRiskForPortfolio();
+
+        assertAgree(plain, tilted);
+        assertTrue(tilted.standardError < plain.standardError);
+        assertTrue(Double.isNaN(tilted.maximumVaR));
+    }
+
 }
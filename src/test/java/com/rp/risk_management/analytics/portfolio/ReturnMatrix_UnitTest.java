@@ -0,0 +1,86 @@
+package com.rp.risk_management.analytics.portfolio;
+
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class ReturnMatrix_UnitTest extends TestCase
+{
+    private QuoteSeries first_;
+    private QuoteSeries second_;
+
+    public void setUp() throws Exception
+    {
+        // second has no price on day 3 and starts a day later than first
+        first_ = series( "AAA", new int[] { 5, 4, 3, 2, 1 }, new double[] { 15, 14, 13, 12, 11 } );
+        second_ = series( "BBB", new int[] { 5, 4, 2 }, new double[] { 25, 24, 22 } );
+    }
+
+    public void testShouldDropDatesMissingFromAnyAsset() throws Exception
+    {
+        ReturnMatrix matrix = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.DROP ).add( first_ ).add( second_ ).build();
+
+        Assert.assertEquals( 2, matrix.getNumberOfRows() );
+        Assert.assertEquals( 5, matrix.getEpochDay( 0 ) );
+        Assert.assertEquals( 4, matrix.getEpochDay( 1 ) );
+        Assert.assertEquals( Math.log( 15.0 / 14 ), matrix.get( 0, 0 ), 0.0 );
+        Assert.assertEquals( Math.log( 14.0 / 12 ), matrix.get( 1, 0 ), 0.0 );
+        Assert.assertEquals( Math.log( 24.0 / 22 ), matrix.get( 1, 1 ), 0.0 );
+        Assert.assertFalse( matrix.hasMissing() );
+    }
+
+    public void testShouldForwardFillMissingDates() throws Exception
+    {
+        ReturnMatrix matrix = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.FORWARD_FILL ).add( first_ ).add( second_ ).build();
+
+        Assert.assertEquals( 3, matrix.getNumberOfRows() );
+        Assert.assertEquals( 3, matrix.getEpochDay( 2 ) );
+        Assert.assertEquals( Math.log( 24.0 / 22 ), matrix.get( 1, 1 ), 0.0 );
+        Assert.assertEquals( 0.0, matrix.get( 2, 1 ), 0.0 );
+        Assert.assertEquals( Math.log( 13.0 / 12 ), matrix.get( 2, 0 ), 0.0 );
+    }
+
+    public void testShouldMaskMissingDates() throws Exception
+    {
+        ReturnMatrix matrix = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.MASK ).add( first_ ).add( second_ ).build();
+
+        Assert.assertEquals( 4, matrix.getNumberOfRows() );
+        Assert.assertTrue( matrix.hasMissing() );
+        Assert.assertTrue( Double.isNaN( matrix.get( 1, 1 ) ) );
+        Assert.assertTrue( Double.isNaN( matrix.get( 3, 1 ) ) );
+        Assert.assertEquals( Math.log( 12.0 / 11 ), matrix.get( 3, 0 ), 0.0 );
+    }
+
+    public void testShouldMatchDailyReturnsForAlignedSeries() throws Exception
+    {
+        ReturnMatrix matrix = new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.DROP ).add( first_ ).add( first_ ).build();
+
+        Assert.assertArrayEquals( VarUtils.computeDailyReturns( first_ ), matrix.copyColumn( 0 ), 0.0 );
+        Assert.assertArrayEquals( VarUtils.computeDailyReturns( first_ ), matrix.copyColumn( 1 ), 0.0 );
+    }
+
+    public void testShouldRejectAssetsWithoutCommonDates() throws Exception
+    {
+        QuoteSeries later = series( "CCC", new int[] { 9, 8, 7 }, new double[] { 35, 34, 33 } );
+        try
+        {
+            new ReturnMatrix.Builder( ReturnMatrix.MissingDataPolicy.DROP ).add( first_ ).add( later ).build();
+            Assert.fail( "Expected assets without common dates to be rejected" );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            Assert.assertTrue( ex.getMessage(), ex.getMessage().contains( "CCC" ) );
+        }
+    }
+
+    private static QuoteSeries series( String symbol, int[] epochDays, double[] closes )
+    {
+        QuoteSeries.Builder builder = new QuoteSeries.Builder( new Stock( symbol ) );
+        for( int i = 0 ; i < epochDays.length ; i++ )
+        {
+            builder.add( epochDays[i], closes[i], closes[i], closes[i], closes[i], closes[i], 0L );
+        }
+        return builder.build();
+    }
+}
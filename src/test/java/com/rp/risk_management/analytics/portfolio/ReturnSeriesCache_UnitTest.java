@@ -0,0 +1,96 @@
+package com.rp.risk_management.analytics.portfolio;
+
+import com.rp.risk_management.marketdata.api.CsvMarketDataApi;
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.util.QuoteHelper;
+import com.rp.risk_management.util.ResourceHelper;
+import com.rp.risk_management.util.date.SimpleDate;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ReturnSeriesCache_UnitTest extends TestCase
+{
+    private final Stock stock_ = new Stock( "AAPL" );
+    private List<Quote> quotes_;
+
+    public void setUp() throws Exception
+    {
+        quotes_ = new CsvMarketDataApi( Collections.singletonMap( stock_, ResourceHelper.getInstance().getResource( "APPLE.csv" ) ) )
+                .getMarketData( stock_, new SimpleDate( 2013, 3, 7 ), new SimpleDate( 2013, 12, 3 ) );
+        ReturnSeriesCache.getInstance().clear();
+    }
+
+    public void testShouldComputeEachSeriesOnce() throws Exception
+    {
+        ReturnSeriesCache cache = ReturnSeriesCache.getInstance();
+        long misses = cache.getMissCount();
+        double[] expected = VarUtils.computeDailyReturns( QuoteHelper.getClosingPrices( quotes_ ) );
+
+        double[] returns = cache.getDailyReturns( quotes_ );
+        Assert.assertArrayEquals( expected, returns, 0.0 );
+
+        // callers may sort their copy
+        returns[0] = 1.0;
+        Assert.assertArrayEquals( expected, cache.getDailyReturns( quotes_ ), 0.0 );
+        Assert.assertArrayEquals( expected, cache.getDailyReturns( new ArrayList<>( quotes_ ) ), 0.0 );
+        Assert.assertEquals( misses + 1, cache.getMissCount() );
+    }
+
+    public void testShouldRecomputeWhenQuotesChange() throws Exception
+    {
+        ReturnSeriesCache cache = ReturnSeriesCache.getInstance();
+        cache.getDailyReturns( quotes_ );
+        long misses = cache.getMissCount();
+
+        List<Quote> changed = new ArrayList<>( quotes_ );
+        Quote quote = changed.get( 1 );
+        changed.set( 1, new Quote( stock_, quote.getSimpleDate(), quote.getOpen(), quote.getLow(), quote.getHigh(),
+                                   quote.getClose().add( BigDecimal.ONE ), quote.getAdjClose(), quote.getVolume() ) );
+
+        Assert.assertArrayEquals( VarUtils.computeDailyReturns( QuoteHelper.getClosingPrices( changed ) ),
+                                  cache.getDailyReturns( changed ), 0.0 );
+        Assert.assertEquals( misses + 1, cache.getMissCount() );
+    }
+
+    public void testShouldRecomputeWhenSameListChangesInPlace() throws Exception
+    {
+        ReturnSeriesCache cache = ReturnSeriesCache.getInstance();
+        List<Quote> quotes = new ArrayList<>( quotes_ );
+        cache.getDailyReturns( quotes );
+
+        // a corrected close keeps the size and the first and last dates
+        Quote quote = quotes.get( 5 );
+        quotes.set( 5, new Quote( stock_, quote.getSimpleDate(), quote.getOpen(), quote.getLow(), quote.getHigh(),
+                                  quote.getClose().add( BigDecimal.ONE ), quote.getAdjClose(), quote.getVolume() ) );
+
+        Assert.assertArrayEquals( VarUtils.computeDailyReturns( QuoteHelper.getClosingPrices( quotes ) ),
+                                  cache.getDailyReturns( quotes ), 0.0 );
+    }
+
+    public void testShouldEvictLeastRecentlyUsedWindows() throws Exception
+    {
+        ReturnSeriesCache cache = ReturnSeriesCache.getInstance();
+        List<Quote> window = quotes_.subList( 0, 5 );
+        cache.getDailyReturns( window );
+        for( int i = 0 ; i < ReturnSeriesCache.CAPACITY ; i++ )
+        {
+            Stock stock = new Stock( "S" + i );
+            List<Quote> quotes = new ArrayList<>();
+            for( Quote quote : window )
+                quotes.add( new Quote( stock, quote.getSimpleDate(), quote.getOpen(), quote.getLow(), quote.getHigh(),
+                                       quote.getClose(), quote.getAdjClose(), quote.getVolume() ) );
+            cache.getDailyReturns( quotes );
+        }
+        Assert.assertEquals( ReturnSeriesCache.CAPACITY, cache.size() );
+
+        long misses = cache.getMissCount();
+        cache.getDailyReturns( window );
+        Assert.assertEquals( misses + 1, cache.getMissCount() );
+    }
+}
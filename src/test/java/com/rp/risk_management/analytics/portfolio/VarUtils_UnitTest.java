@@ -1,16 +1,22 @@
 package com.rp.risk_management.analytics.portfolio;
 
+import com.rp.risk_management.marketdata.api.CsvMarketDataApi;
 import com.rp.risk_management.marketdata.api.MarketDataApi;
 import com.rp.risk_management.marketdata.api.YahooMarketDataApi;
 import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
 import com.rp.risk_management.marketdata.model.Stock;
 import com.rp.risk_management.util.QuoteHelper;
+import com.rp.risk_management.util.ResourceHelper;
 import com.rp.risk_management.util.date.SimpleDate;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -27,6 +33,18 @@ public class VarUtils_UnitTest
         assertTrue( closingPrices.size()-1 == dailyReturns.length );
     }
 
+    @Test
+    public void shouldComputeSameReturnsFromQuoteSeries() throws Exception
+    {
+        Stock stock = new Stock("AAPL");
+        MarketDataApi marketDataApi = new CsvMarketDataApi(Collections.singletonMap(stock, ResourceHelper.getInstance().getResource("APPLE.csv")));
+        List<Quote> quotes = marketDataApi.getMarketData(stock, new SimpleDate(2013,3,7), new SimpleDate(2013,12,3));
+
+        double[] expected = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(quotes));
+        assertArrayEquals(expected, VarUtils.computeDailyReturns(QuoteSeries.of(quotes)), 0.0);
+        assertArrayEquals(expected, VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(QuoteSeries.of(quotes))), 0.0);
+    }
+
     @Test
     public void shouldReturnCorrectSquareOfNumber()
     {
@@ -70,6 +88,74 @@ public class VarUtils_UnitTest
     }
 
 
+    @Test
+    public void shouldComputeSameEWMAVolatilityAsRecursion() throws Exception
+    {
+        Stock stock = new Stock("AAPL");
+        MarketDataApi marketDataApi = new CsvMarketDataApi(Collections.singletonMap(stock, ResourceHelper.getInstance().getResource("APPLE.csv")));
+        double[] returns = VarUtils.computeDailyReturns(QuoteHelper.getClosingPrices(marketDataApi.getMarketData(stock, new SimpleDate(2013,3,7), new SimpleDate(2013,12,3))));
+
+        double expected = Math.sqrt( 0.94 * getRecursiveVariance_EWMA( 0, returns ) + ( 1 - 0.94 ) * Math.pow( returns[0], 2 ) );
+        assertEquals( expected, VarUtils.computeVolatility_EWMA( returns ), 0.0 );
+    }
+
+    @Test
+    public void shouldComputeEWMAVolatilityForLongHistory()
+    {
+        double[] returns = new double[200000];
+        for( int i = 0 ; i < returns.length ; i++ )
+        {
+            returns[i] = ( i % 2 == 0 ? 0.01 : -0.01 );
+        }
+        // far deeper than the old recursion could go
+        double volatility = VarUtils.computeVolatility_EWMA( returns );
+        assertTrue( volatility > 0 && volatility < 0.1 );
+    }
+
+    @Test
+    public void shouldComputeSameGARCHVolatilityAsRecursion()
+    {
+        double[] returns = new double[500];
+        for( int i = 0 ; i < returns.length ; i++ )
+        {
+            returns[i] = 0.01 * Math.sin( i );
+        }
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        for( double value : returns )
+        {
+            stats.addValue( value );
+        }
+
+        double expected = Math.sqrt( getRecursiveVariance_GARCH( 0, stats.getVariance(), returns ) );
+        assertEquals( expected, VarUtils.computeVolatility_GARCH( returns ), 0.0 );
+    }
+
+    /** The original recursive GARCH variance, kept as the reference for the iterative one. */
+    private static double getRecursiveVariance_GARCH( int day, double longRunVariance, double[] returns )
+    {
+        if( day == returns.length - 1 )
+        {
+            return VarUtils.gamma * longRunVariance + VarUtils.alpha * Math.pow( 0.02, 2 ) + VarUtils.beta * 0.01;
+        }
+        double yesterdayVariance = getRecursiveVariance_GARCH( day + 1, longRunVariance, returns );
+        return VarUtils.gamma * longRunVariance + VarUtils.alpha * Math.pow( returns[day + 1], 2 )
+               + VarUtils.beta * yesterdayVariance;
+    }
+
+    /** The original recursive EWMA variance, kept as the reference for the iterative one. */
+    private static double getRecursiveVariance_EWMA( int currentDay, double[] returns )
+    {
+        double lambda = 0.94;
+        if( currentDay == returns.length - 1 )
+        {
+            double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
+            return lambda * 0.01 + weight * Math.pow( 0.02, 2 );
+        }
+        double yesterdayVariance = getRecursiveVariance_EWMA( currentDay + 1, returns );
+        double weight = ( 1 - lambda ) * Math.pow( lambda, currentDay );
+        return lambda * yesterdayVariance + weight * Math.pow( returns[currentDay + 1], 2 );
+    }
+
     @Test
     public void shouldComputeCorrectVolatilityUsingGARCH()throws Exception
     {
@@ -166,9 +252,11 @@ public class VarUtils_UnitTest
     public void shouldGetCorrectReturnsOverHorizon()
     {
         double[] returns = { 1.0, 2.0, 3.0, 4.0, 5.0 };
-        @SuppressWarnings("unused")
         double[] returnsOverVarHorizon = VarUtils.getReturnsOverVarHorizon( returns, 2 );
         // tested by hand
+        assertArrayEquals( new double[] { 3.0, 5.0, 7.0, 9.0 }, returnsOverVarHorizon, 0.0 );
+        assertArrayEquals( new double[] { 6.0, 9.0 },
+                           VarUtils.getReturnsOverVarHorizon( VarUtils.getCumulativeReturns( returns ), 4, 3 ), 0.0 );
     }
 
 }
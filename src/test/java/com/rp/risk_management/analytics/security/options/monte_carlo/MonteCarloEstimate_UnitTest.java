@@ -0,0 +1,35 @@
+package com.rp.risk_management.analytics.security.options.monte_carlo;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class MonteCarloEstimate_UnitTest extends TestCase
+{
+    public void testShouldEstimatePlainMeanAndStandardError() throws Exception
+    {
+        MonteCarloEstimate estimate = MonteCarloEstimate.of( new double[] { 1, 2, 3, 4 }, null, 0.0, false );
+        Assert.assertEquals( 2.5, estimate.getMean(), 1e-15 );
+        // sample variance 5/3 over 4 values
+        Assert.assertEquals( Math.sqrt( 5.0 / 3.0 / 4.0 ), estimate.getStandardError(), 1e-15 );
+    }
+
+    public void testShouldRemoveNoiseExplainedByControl() throws Exception
+    {
+        // values are 2 * control + 1, so the control explains them entirely
+        double[] controls = { 0.3, -1.2, 0.8, 2.0, -0.4 };
+        double[] values = new double[controls.length];
+        for( int i = 0 ; i < values.length ; i++ )
+            values[i] = 2 * controls[i] + 1;
+
+        MonteCarloEstimate estimate = MonteCarloEstimate.of( values, controls, 0.0, false );
+        Assert.assertEquals( 1.0, estimate.getMean(), 1e-12 );
+        Assert.assertEquals( 0.0, estimate.getStandardError(), 1e-7 );
+    }
+
+    public void testShouldAverageAntitheticPairs() throws Exception
+    {
+        MonteCarloEstimate estimate = MonteCarloEstimate.of( new double[] { 1, 3, 2, 2, 5, -1 }, null, 0.0, true );
+        Assert.assertEquals( 2.0, estimate.getMean(), 1e-15 );
+        Assert.assertEquals( 0.0, estimate.getStandardError(), 0.0 );
+    }
+}
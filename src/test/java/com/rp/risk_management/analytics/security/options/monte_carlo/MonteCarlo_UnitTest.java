@@ -0,0 +1,60 @@
+package com.rp.risk_management.analytics.security.options.monte_carlo;
+
+import com.rp.risk_management.model.Option;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Collections;
+import java.util.EnumSet;
+
+public class MonteCarlo_UnitTest extends TestCase
+{
+    private static Option getOption( Option.OptionStyle optionStyle, int timeToMaturity )
+    {
+        return new Option( 100.0, 1, 100.0, 0.05, 0.02, timeToMaturity, Collections.emptyList(), optionStyle, Option.OptionType.Call );
+    }
+
+    public void testShouldReduceStandardErrorOfPrice() throws Exception
+    {
+        Option option = getOption( Option.OptionStyle.European, 30 );
+        int numberOfSimulations = 10000;
+
+        MonteCarloResults plain = new MonteCarlo( option, numberOfSimulations, 10 ).getMonteCarloResults();
+        MonteCarloResults reduced = new MonteCarlo( option, numberOfSimulations, 10,
+                EnumSet.of( VarianceReduction.ANTITHETIC, VarianceReduction.CONTROL_VARIATE ) ).getMonteCarloResults();
+
+        Assert.assertTrue( plain.standardError_ > 0 );
+        Assert.assertTrue( reduced.standardError_ + " vs " + plain.standardError_, 2 * reduced.standardError_ < plain.standardError_ );
+        Assert.assertEquals( plain.finalValueOfOption_, reduced.finalValueOfOption_,
+                4 * Math.sqrt( plain.standardError_ * plain.standardError_ + reduced.standardError_ * reduced.standardError_ ) );
+    }
+
+    public void testShouldPriceWithBlackScholesOnAntitheticDraws() throws Exception
+    {
+        Option option = getOption( Option.OptionStyle.European, 30 );
+        // with antithetic paths, path 2k + 1 mirrors path 2k, so only half the draws are read
+        double[] draws = { 0.5, -1.0, 1.5, 0.2 };
+        MonteCarloResults results = new MonteCarloBlackScholes( option, draws, 4, 2,
+                EnumSet.of( VarianceReduction.ANTITHETIC ) ).getMonteCarloResults();
+        Assert.assertFalse( Double.isNaN( results.finalValueOfOption_ ) );
+        Assert.assertFalse( Double.isNaN( results.standardError_ ) );
+
+        try
+        {
+            new MonteCarloBlackScholes( option, draws, 4, 2 );
+            fail();
+        }
+        catch( IllegalArgumentException e )
+        {
+        }
+    }
+
+    public void testShouldPriceWithBinomialTreeOnFinalDay() throws Exception
+    {
+        // a short maturity keeps the trees small
+        MonteCarloResults results = new MonteCarloBinomialTree( getOption( Option.OptionStyle.American, 4 ), 20, 3,
+                EnumSet.of( VarianceReduction.CONTROL_VARIATE ) ).getMonteCarloResults();
+        Assert.assertTrue( results.finalValueOfOption_ > 0 );
+        Assert.assertTrue( results.standardError_ >= 0 );
+    }
+}
@@ -0,0 +1,46 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class BrownianBridge_UnitTest extends TestCase
+{
+    public void testShouldBuildIndependentStandardIncrements() throws Exception
+    {
+        // the increments are a linear map of the normals, orthogonal exactly when they are independent standard normals
+        for( int numberOfSteps : new int[] { 1, 2, 7, 10, 16 } )
+        {
+            BrownianBridge bridge = new BrownianBridge( numberOfSteps );
+            double[][] columns = new double[numberOfSteps][numberOfSteps];
+            for( int i = 0 ; i < numberOfSteps ; i++ )
+            {
+                double[] normals = new double[numberOfSteps];
+                normals[i] = 1.0;
+                bridge.buildIncrements( normals, columns[i] );
+            }
+            for( int day = 0 ; day < numberOfSteps ; day++ )
+            {
+                for( int other = 0 ; other < numberOfSteps ; other++ )
+                {
+                    double covariance = 0.0;
+                    for( int i = 0 ; i < numberOfSteps ; i++ )
+                        covariance += columns[i][day] * columns[i][other];
+                    Assert.assertEquals( day == other ? 1.0 : 0.0, covariance, 1e-12 );
+                }
+            }
+        }
+    }
+
+    public void testShouldEndPathWithFirstNormal() throws Exception
+    {
+        BrownianBridge bridge = new BrownianBridge( 10 );
+        double[] normals = { 1.5, -0.3, 0.2, 0.8, -1.1, 0.4, 0.0, 2.0, -0.7, 0.1 };
+        double[] increments = new double[10];
+        bridge.buildIncrements( normals, increments );
+
+        double end = 0.0;
+        for( double increment : increments )
+            end += increment;
+        Assert.assertEquals( Math.sqrt( 10 ) * 1.5, end, 1e-12 );
+    }
+}
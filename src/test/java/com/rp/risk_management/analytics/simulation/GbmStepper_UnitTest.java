@@ -0,0 +1,78 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class GbmStepper_UnitTest extends TestCase
+{
+    public void testShouldJumpToHorizonWithLogNormalDistribution() throws Exception
+    {
+        int numberOfSimulations = 200000;
+        double volatility = 0.02;
+        int horizon = 10;
+        double[] finalValues = MonteCarlo.simulateFinalPrices( new ZigguratGaussianSource( 5 ), new GbmStepper( volatility, horizon ), 100, numberOfSimulations );
+
+        double sum = 0.0, sumOfLogs = 0.0, sumOfSquaredLogs = 0.0;
+        for( double value : finalValues )
+        {
+            Assert.assertTrue( value > 0 );
+            double log = Math.log( value / 100 );
+            sum += value;
+            sumOfLogs += log;
+            sumOfSquaredLogs += log * log;
+        }
+        double meanOfLogs = sumOfLogs / numberOfSimulations;
+        double variance = volatility * volatility * horizon;
+        Assert.assertEquals( 100.0, sum / numberOfSimulations, 0.05 );
+        Assert.assertEquals( -0.5 * variance, meanOfLogs, 5e-4 );
+        Assert.assertEquals( variance, sumOfSquaredLogs / numberOfSimulations - meanOfLogs * meanOfLogs, 2e-4 );
+    }
+
+    public void testShouldMatchDailyStepsAtCheckpoints() throws Exception
+    {
+        // steps of 3 and 7 days with one draw each match 3 and 7 daily steps at days 3 and 10
+        int numberOfSimulations = 100000;
+        double volatility = 0.05;
+        double[][] checkpoints = MonteCarlo.simulatePrices( new ZigguratGaussianSource( 6 ), new GbmStepper( volatility, 3, 10 ), 100, numberOfSimulations );
+        double[][] daily = MonteCarlo.simulatePrices( new ZigguratGaussianSource( 7 ), GbmStepper.daily( volatility, 10 ), 100, numberOfSimulations );
+
+        double[] checkpointVariance = new double[2];
+        double[] dailyVariance = new double[2];
+        for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+        {
+            checkpointVariance[0] += square( Math.log( checkpoints[sim][0] / 100 ) );
+            checkpointVariance[1] += square( Math.log( checkpoints[sim][1] / checkpoints[sim][0] ) );
+            dailyVariance[0] += square( Math.log( daily[sim][2] / 100 ) );
+            dailyVariance[1] += square( Math.log( daily[sim][9] / daily[sim][2] ) );
+        }
+        Assert.assertEquals( dailyVariance[0] / numberOfSimulations, checkpointVariance[0] / numberOfSimulations, 2e-4 );
+        Assert.assertEquals( dailyVariance[1] / numberOfSimulations, checkpointVariance[1] / numberOfSimulations, 4e-4 );
+    }
+
+    public void testShouldStreamFinalValueOfSimulatedPaths() throws Exception
+    {
+        GbmStepper stepper = new GbmStepper( 0.03, 2, 5, 10 );
+        double[][] prices = MonteCarlo.simulatePrices( new ZigguratGaussianSource( 8 ), stepper, 50, 100 );
+        double[] finalValues = MonteCarlo.simulateFinalPrices( new ZigguratGaussianSource( 8 ), stepper, 50, 100 );
+        for( int sim = 0 ; sim < prices.length ; sim++ )
+            Assert.assertEquals( prices[sim][2], finalValues[sim], 1e-9 );
+    }
+
+    public void testShouldRejectCheckpointsOutOfOrder() throws Exception
+    {
+        try
+        {
+            new GbmStepper( 0.02, 5, 5 );
+            fail( "Expected an exception" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    private static double square( double x )
+    {
+        return x * x;
+    }
+}
@@ -0,0 +1,91 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelMonteCarlo_UnitTest extends TestCase
+{
+    public void testShouldNotDependOnNumberOfThreads() throws Exception
+    {
+        ForkJoinPool onePool = new ForkJoinPool( 1 );
+        ForkJoinPool fourPool = new ForkJoinPool( 4 );
+        try
+        {
+            ParallelMonteCarlo one = new ParallelMonteCarlo( 42, onePool );
+            ParallelMonteCarlo four = new ParallelMonteCarlo( 42, fourPool );
+
+            int numberOfPaths = 3 * ParallelMonteCarlo.PATHS_PER_PARTITION + 17;
+            double[][] onePrices = one.simulatePrices( 100, 0.02, numberOfPaths, 10 );
+            double[][] fourPrices = four.simulatePrices( 100, 0.02, numberOfPaths, 10 );
+            for( int path = 0 ; path < numberOfPaths ; path++ )
+                Assert.assertArrayEquals( onePrices[path], fourPrices[path], 0.0 );
+
+            List<MonteCarlo.SimulationResults> oneReturns = one.simulateReturns( 3, 5, numberOfPaths );
+            List<MonteCarlo.SimulationResults> fourReturns = four.simulateReturns( 3, 5, numberOfPaths );
+            for( int path = 0 ; path < numberOfPaths ; path++ )
+            {
+                Assert.assertArrayEquals( oneReturns.get( path ).finalStockReturn, fourReturns.get( path ).finalStockReturn, 0.0 );
+                Assert.assertArrayEquals( oneReturns.get( path ).minStockReturn, fourReturns.get( path ).minStockReturn, 0.0 );
+            }
+        }
+        finally
+        {
+            onePool.shutdown();
+            fourPool.shutdown();
+        }
+    }
+
+    public void testShouldExtendRunBatchByBatch() throws Exception
+    {
+        ParallelMonteCarlo engine = new ParallelMonteCarlo( 9 );
+        int numberOfPaths = 3 * ParallelMonteCarlo.PATHS_PER_PARTITION + 40;
+        double[] atOnce = new double[numberOfPaths];
+        double[] inBatches = new double[numberOfPaths];
+        engine.forEachPath( numberOfPaths, ( path, random ) -> atOnce[path] = random.nextGaussian() );
+
+        ParallelMonteCarlo.Block block = ( from, to, random ) -> {
+            for( int path = from ; path < to ; path++ )
+                inBatches[path] = random.nextGaussian();
+        };
+        engine.forEachBlock( 0, ParallelMonteCarlo.PATHS_PER_PARTITION, block );
+        engine.forEachBlock( ParallelMonteCarlo.PATHS_PER_PARTITION, numberOfPaths, block );
+        Assert.assertArrayEquals( atOnce, inBatches, 0.0 );
+
+        try
+        {
+            engine.forEachBlock( 10, numberOfPaths, block );
+            fail( "Expected an exception" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    public void testShouldDependOnSeed() throws Exception
+    {
+        ParallelMonteCarlo.PathValue value = RandomStream::nextGaussian;
+        double[] first = new ParallelMonteCarlo( 1 ).simulateValues( 100, value );
+        double[] second = new ParallelMonteCarlo( 2 ).simulateValues( 100, value );
+        Assert.assertFalse( Arrays.equals( first, second ) );
+    }
+
+    public void testShouldDrawStandardNormals() throws Exception
+    {
+        int n = 200000;
+        double[] values = new ParallelMonteCarlo( 7 ).simulateValues( n, RandomStream::nextGaussian );
+        double sum = 0.0, sumOfSquares = 0.0;
+        for( double value : values )
+        {
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        double mean = sum / n;
+        Assert.assertEquals( 0.0, mean, 0.01 );
+        Assert.assertEquals( 1.0, sumOfSquares / n - mean * mean, 0.02 );
+    }
+}
@@ -0,0 +1,65 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class PathSummary_UnitTest extends TestCase
+{
+    public void testShouldSummarisePath() throws Exception
+    {
+        PathSummary summary = new PathSummary();
+        summary.reset( 100 );
+        for( double value : new double[] { 104, 98, 101, 110, 95, 97 } )
+            summary.accept( value );
+
+        Assert.assertEquals( 100.0, summary.getInitialValue(), 0.0 );
+        Assert.assertEquals( 97.0, summary.getFinalValue(), 0.0 );
+        Assert.assertEquals( 95.0, summary.getMinimum(), 0.0 );
+        Assert.assertEquals( 110.0, summary.getMaximum(), 0.0 );
+        Assert.assertEquals( 15.0, summary.getMaxDrawdown(), 0.0 );
+        Assert.assertEquals( 6, summary.getLength() );
+    }
+
+    public void testShouldStreamSamePathsAsSimulated() throws Exception
+    {
+        int numberOfSimulations = 300;
+        int timePeriod = 25;
+        double[][] prices = MonteCarlo.simulatePrices( new ZigguratGaussianSource( 4 ), 50, 0.03, numberOfSimulations, timePeriod );
+
+        MonteCarlo.streamPrices( new ZigguratGaussianSource( 4 ), 50, 0.03, numberOfSimulations, timePeriod, ( sim, summary ) -> {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, drawdown = 0.0, peak = 50;
+            for( double price : prices[sim] )
+            {
+                min = Math.min( min, price );
+                max = Math.max( max, price );
+                peak = Math.max( peak, price );
+                drawdown = Math.max( drawdown, peak - price );
+            }
+            Assert.assertEquals( prices[sim][timePeriod - 1], summary.getFinalValue(), 0.0 );
+            Assert.assertEquals( min, summary.getMinimum(), 0.0 );
+            Assert.assertEquals( max, summary.getMaximum(), 0.0 );
+            Assert.assertEquals( drawdown, summary.getMaxDrawdown(), 0.0 );
+        } );
+    }
+
+    public void testShouldStreamSamePathsOnEngine() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool( 2 );
+        try
+        {
+            ParallelMonteCarlo engine = new ParallelMonteCarlo( 8, pool );
+            int numberOfSimulations = 600;
+            double[][] prices = engine.simulatePrices( 50, 0.03, numberOfSimulations, 10 );
+            double[] finalValues = new double[numberOfSimulations];
+            engine.streamPrices( 50, 0.03, numberOfSimulations, 10, ( sim, summary ) -> finalValues[sim] = summary.getFinalValue() );
+            for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+                Assert.assertEquals( prices[sim][9], finalValues[sim], 0.0 );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
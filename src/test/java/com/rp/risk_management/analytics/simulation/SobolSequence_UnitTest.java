@@ -0,0 +1,107 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SobolSequence_UnitTest extends TestCase
+{
+    public void testShouldEnumeratePrimitivePolynomialsOfJoeAndKuo() throws Exception
+    {
+        // degree and coefficients of the first lines of new-joe-kuo-6.21201
+        long[][] expected = { { 1, 0 }, { 2, 1 }, { 3, 1 }, { 3, 2 }, { 4, 1 }, { 4, 4 }, { 5, 2 }, { 5, 4 }, { 5, 7 },
+                              { 5, 11 }, { 5, 13 }, { 5, 14 }, { 6, 1 }, { 6, 13 }, { 6, 16 }, { 6, 19 }, { 6, 22 }, { 6, 25 } };
+        List<long[]> polynomials = SobolSequence.primitivePolynomials( expected.length );
+        for( int i = 0 ; i < expected.length ; i++ )
+        {
+            Assert.assertEquals( expected[i][0], polynomials.get( i )[0] );
+            Assert.assertEquals( expected[i][1], polynomials.get( i )[1] );
+        }
+    }
+
+    public void testShouldStratifyEveryCoordinate() throws Exception
+    {
+        // the first 2^m points of a (scrambled) Sobol sequence put one coordinate in each of 2^m intervals
+        int m = 10;
+        int n = 1 << m;
+        int dimension = 40;
+        SobolSequence sequence = new SobolSequence( dimension, 17 );
+        boolean[][] hit = new boolean[dimension][n];
+        double[] point = new double[dimension];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            sequence.nextPoint( point );
+            for( int j = 0 ; j < dimension ; j++ )
+            {
+                Assert.assertTrue( point[j] > 0 && point[j] < 1 );
+                int interval = (int) ( point[j] * n );
+                Assert.assertFalse( "dimension " + j + " interval " + interval, hit[j][interval] );
+                hit[j][interval] = true;
+            }
+        }
+    }
+
+    public void testShouldStratifyPairsOfLeadingCoordinates() throws Exception
+    {
+        // dimensions 1 and 2 form a (0, 2)-sequence, one point in each elementary box of area 1/n
+        int n = 256;
+        SobolSequence sequence = new SobolSequence( 2, 3 );
+        double[] point = new double[2];
+        boolean[][] hit = new boolean[16][16];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            sequence.nextPoint( point );
+            int x = (int) ( point[0] * 16 );
+            int y = (int) ( point[1] * 16 );
+            Assert.assertFalse( hit[x][y] );
+            hit[x][y] = true;
+        }
+    }
+
+    public void testShouldSkipToPoint() throws Exception
+    {
+        SobolSequence sequence = new SobolSequence( 5, 1 );
+        double[] point = new double[5];
+        for( int i = 0 ; i < 1000 ; i++ )
+            sequence.nextPoint( point );
+
+        SobolSequence skipped = new SobolSequence( 5, 1 );
+        skipped.skipTo( 999 );
+        double[] skippedPoint = new double[5];
+        skipped.nextPoint( skippedPoint );
+        Assert.assertArrayEquals( point, skippedPoint, 0.0 );
+        Assert.assertEquals( 1000, skipped.getIndex() );
+    }
+
+    public void testShouldSampleTailMoreEvenlyThanPseudoRandom() throws Exception
+    {
+        int numberOfRuns = 20;
+        double sobolDeviation = getDeviationOfPercentile( MonteCarlo.Sampling.SOBOL, numberOfRuns );
+        double pseudoRandomDeviation = getDeviationOfPercentile( MonteCarlo.Sampling.PSEUDO_RANDOM, numberOfRuns );
+        Assert.assertTrue( sobolDeviation + " vs " + pseudoRandomDeviation, 2 * sobolDeviation < pseudoRandomDeviation );
+    }
+
+    /**
+     * @return standard deviation across runs of the 1st percentile of the final prices of 512 paths
+     */
+    private static double getDeviationOfPercentile( MonteCarlo.Sampling sampling, int numberOfRuns )
+    {
+        int numberOfSimulations = 512;
+        double sum = 0.0, sumOfSquares = 0.0;
+        for( int run = 0 ; run < numberOfRuns ; run++ )
+        {
+            double[][] prices = MonteCarlo.simulatePrices( sampling, 100, 0.02, numberOfSimulations, 10 );
+            double[] finalPrices = new double[numberOfSimulations];
+            for( int sim = 0 ; sim < numberOfSimulations ; sim++ )
+                finalPrices[sim] = prices[sim][9];
+            Arrays.sort( finalPrices );
+            double percentile = finalPrices[4];
+            sum += percentile;
+            sumOfSquares += percentile * percentile;
+        }
+        double mean = sum / numberOfRuns;
+        return Math.sqrt( sumOfSquares / numberOfRuns - mean * mean );
+    }
+}
@@ -0,0 +1,51 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Arrays;
+
+public class TiltedGaussianSource_UnitTest extends TestCase
+{
+    public void testShouldShiftDrawsAndWeighByLikelihoodRatio() throws Exception
+    {
+        double[] shifts = { -1.0, 0.5 };
+        ZigguratGaussianSource untilted = new ZigguratGaussianSource( 31 );
+        TiltedGaussianSource tilted = new TiltedGaussianSource( new ZigguratGaussianSource( 31 ), shifts );
+
+        tilted.startPath();
+        double logRatio = 0.0;
+        for( int i = 0 ; i < 3 ; i++ )
+        {
+            double draw = untilted.nextGaussian();
+            double shift = i < shifts.length ? shifts[i] : 0.0;
+            Assert.assertEquals( draw + shift, tilted.nextGaussian(), 0.0 );
+            logRatio += -shift * ( draw + shift ) + 0.5 * shift * shift;
+        }
+        Assert.assertEquals( Math.exp( logRatio ), tilted.getLikelihoodRatio(), 1e-12 );
+
+        tilted.startPath();
+        Assert.assertEquals( 1.0, tilted.getLikelihoodRatio(), 0.0 );
+    }
+
+    public void testShouldKeepWeightedMeanOfUntiltedModel() throws Exception
+    {
+        // the probability of a 10 day sum below -7.4 is about 1%, and the weighted estimate finds it
+        int numberOfPaths = 20000;
+        double[] shifts = new double[10];
+        Arrays.fill( shifts, -7.4 / 10 );
+        TiltedGaussianSource tilted = new TiltedGaussianSource( new ZigguratGaussianSource( 32 ), shifts );
+
+        double probability = 0.0;
+        for( int path = 0 ; path < numberOfPaths ; path++ )
+        {
+            tilted.startPath();
+            double sum = 0.0;
+            for( int day = 0 ; day < 10 ; day++ )
+                sum += tilted.nextGaussian();
+            if( sum < -7.4 )
+                probability += tilted.getLikelihoodRatio() / numberOfPaths;
+        }
+        Assert.assertEquals( 0.00965, probability, 0.0005 );
+    }
+}
@@ -0,0 +1,66 @@
+package com.rp.risk_management.analytics.simulation;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Random;
+
+public class ZigguratGaussianSource_UnitTest extends TestCase
+{
+    public void testShouldMatchMomentsOfStandardNormal() throws Exception
+    {
+        GaussianSource gaussians = new ZigguratGaussianSource( 11 );
+        int n = 1000000;
+        double sum = 0.0, sumOfSquares = 0.0, sumOfCubes = 0.0, sumOfFourths = 0.0;
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = gaussians.nextGaussian();
+            sum += value;
+            sumOfSquares += value * value;
+            sumOfCubes += value * value * value;
+            sumOfFourths += value * value * value * value;
+        }
+        Assert.assertEquals( 0.0, sum / n, 0.005 );
+        Assert.assertEquals( 1.0, sumOfSquares / n, 0.01 );
+        Assert.assertEquals( 0.0, sumOfCubes / n, 0.02 );
+        Assert.assertEquals( 3.0, sumOfFourths / n, 0.05 );
+    }
+
+    public void testShouldMatchNormalDistributionFunction() throws Exception
+    {
+        // P(Z < x), including the tail beyond the base layer
+        double[] points = { -4.0, -3.5, -2.0, -1.0, 0.0, 0.5, 1.5, 3.0 };
+        double[] probabilities = { 3.167124e-5, 2.326291e-4, 0.02275013, 0.1586553, 0.5, 0.6914625, 0.9331928, 0.9986501 };
+
+        GaussianSource gaussians = new ZigguratGaussianSource( 3 );
+        int n = 2000000;
+        int[] counts = new int[points.length];
+        for( int i = 0 ; i < n ; i++ )
+        {
+            double value = gaussians.nextGaussian();
+            for( int j = 0 ; j < points.length ; j++ )
+                if( value < points[j] )
+                    counts[j]++;
+        }
+        for( int j = 0 ; j < points.length ; j++ )
+        {
+            double p = probabilities[j];
+            // five standard errors of a binomial proportion
+            Assert.assertEquals( "P(Z < " + points[j] + ")", p, (double) counts[j] / n, 5 * Math.sqrt( p * ( 1 - p ) / n ) );
+        }
+    }
+
+    public void testShouldRepeatFromSeed() throws Exception
+    {
+        double[] first = new double[100];
+        double[] second = new double[100];
+        new ZigguratGaussianSource( 5 ).nextGaussians( first, 0, first.length );
+        new ZigguratGaussianSource( 5 ).nextGaussians( second, 0, second.length );
+        Assert.assertArrayEquals( first, second, 0.0 );
+
+        double[] legacy = new double[2];
+        new LegacyGaussianSource( 5 ).nextGaussians( legacy, 0, legacy.length );
+        Random random = new Random( 5 );
+        Assert.assertArrayEquals( new double[] { random.nextGaussian(), random.nextGaussian() }, legacy, 0.0 );
+    }
+}
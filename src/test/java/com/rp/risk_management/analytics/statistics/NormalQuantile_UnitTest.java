@@ -0,0 +1,29 @@
+package com.rp.risk_management.analytics.statistics;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class NormalQuantile_UnitTest extends TestCase
+{
+    public void testShouldInvertNormalDistributionFunction() throws Exception
+    {
+        Assert.assertEquals( 0.0, NormalQuantile.inverseCumulativeProbability( 0.5 ), 0.0 );
+        Assert.assertEquals( -0.5244005127080407, NormalQuantile.inverseCumulativeProbability( 0.3 ), 1e-15 );
+        Assert.assertEquals( 1.959963984540054, NormalQuantile.inverseCumulativeProbability( 0.975 ), 1e-15 );
+        Assert.assertEquals( -2.326347874040841, NormalQuantile.inverseCumulativeProbability( 0.01 ), 1e-15 );
+        Assert.assertEquals( -6.361340902404056, NormalQuantile.inverseCumulativeProbability( 1e-10 ), 1e-14 );
+        Assert.assertEquals( Double.NEGATIVE_INFINITY, NormalQuantile.inverseCumulativeProbability( 0.0 ), 0.0 );
+    }
+
+    public void testShouldRejectProbabilityOutsideUnitInterval() throws Exception
+    {
+        try
+        {
+            NormalQuantile.inverseCumulativeProbability( 1.5 );
+            fail();
+        }
+        catch( IllegalArgumentException e )
+        {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.rp.risk_management.analytics.statistics;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Random;
+
+public class PercentileStandardError_UnitTest extends TestCase
+{
+    public void testShouldMatchAsymptoticErrorOfNormalPercentile() throws Exception
+    {
+        // sqrt(p (1 - p) / n) / density at the percentile
+        int length = 100000;
+        double probability = 0.01;
+        double quantile = NormalQuantile.inverseCumulativeProbability( probability );
+        double density = Math.exp( -0.5 * quantile * quantile ) / Math.sqrt( 2 * Math.PI );
+        double expected = Math.sqrt( probability * ( 1 - probability ) / length ) / density;
+
+        Random random = new Random( 11 );
+        double[] values = new double[length];
+        for( int i = 0 ; i < length ; i++ )
+            values[i] = random.nextGaussian();
+
+        Assert.assertEquals( expected, PercentileStandardError.estimate( values, 1 ), 0.1 * expected );
+    }
+
+    public void testShouldShrinkWithSampleSize() throws Exception
+    {
+        Random random = new Random( 12 );
+        double[] small = new double[2500];
+        double[] large = new double[40000];
+        for( int i = 0 ; i < small.length ; i++ )
+            small[i] = random.nextGaussian();
+        for( int i = 0 ; i < large.length ; i++ )
+            large[i] = random.nextGaussian();
+
+        double ratio = PercentileStandardError.estimate( small, 5 ) / PercentileStandardError.estimate( large, 5 );
+        Assert.assertEquals( 4.0, ratio, 0.8 );
+    }
+
+    public void testShouldLeaveValuesUnchanged() throws Exception
+    {
+        double[] values = { 5, 3, 9, 1, 7, 2, 8 };
+        double[] copy = values.clone();
+        Assert.assertTrue( PercentileStandardError.estimate( values, 50 ) > 0 );
+        Assert.assertArrayEquals( copy, values, 0.0 );
+        Assert.assertTrue( Double.isNaN( PercentileStandardError.estimate( new double[] { 1 }, 50 ) ) );
+    }
+}
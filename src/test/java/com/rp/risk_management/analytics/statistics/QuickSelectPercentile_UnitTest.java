@@ -0,0 +1,73 @@
+package com.rp.risk_management.analytics.statistics;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class QuickSelectPercentile_UnitTest extends TestCase
+{
+    public void testShouldMatchSortedDefinition() throws Exception
+    {
+        Random random = new Random( 3 );
+        QuickSelectPercentile estimator = new QuickSelectPercentile();
+        for( int length : new int[] { 1, 2, 5, 17, 100, 1001 } )
+        {
+            double[] values = new double[length];
+            for( int i = 0 ; i < length ; i++ )
+                values[i] = random.nextInt( 50 ) + random.nextGaussian();
+            double[] copy = values.clone();
+
+            for( double percentile : new double[] { 0.01, 1, 5, 37.5, 50, 95, 99, 100 } )
+            {
+                Assert.assertEquals( length + " " + percentile, sortedPercentile( values, percentile ),
+                                     estimator.evaluate( values, percentile ), 0.0 );
+            }
+            Assert.assertArrayEquals( copy, values, 0.0 );
+        }
+    }
+
+    public void testShouldHandleDuplicates() throws Exception
+    {
+        double[] values = new double[500];
+        Arrays.fill( values, 250, 500, 1.0 );
+        Assert.assertEquals( 0.0, new QuickSelectPercentile().evaluate( values, 10 ), 0.0 );
+        Assert.assertEquals( 1.0, new QuickSelectPercentile().evaluate( values, 90 ), 0.0 );
+        Assert.assertTrue( Double.isNaN( new QuickSelectPercentile().evaluate( new double[0], 50 ) ) );
+    }
+
+    public void testShouldRejectInvalidPercentile() throws Exception
+    {
+        try
+        {
+            new QuickSelectPercentile().evaluate( new double[] { 1, 2 }, 0 );
+            Assert.fail( "Expected a percentile of 0 to be rejected" );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * The definition of Commons Math Percentile, on a sorted copy.
+     */
+    static double sortedPercentile( double[] values, double percentile )
+    {
+        double[] sorted = values.clone();
+        Arrays.sort( sorted );
+        int n = sorted.length;
+        if( n == 1 )
+            return sorted[0];
+        double position = percentile * ( n + 1 ) / 100;
+        double floor = Math.floor( position );
+        if( position < 1 )
+            return sorted[0];
+        if( position >= n )
+            return sorted[n - 1];
+        double lower = sorted[(int) floor - 1];
+        double upper = sorted[(int) floor];
+        return lower + ( position - floor ) * ( upper - lower );
+    }
+}
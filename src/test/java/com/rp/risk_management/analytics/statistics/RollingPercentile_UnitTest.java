@@ -0,0 +1,82 @@
+package com.rp.risk_management.analytics.statistics;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class RollingPercentile_UnitTest extends TestCase
+{
+    public void testShouldMatchSelectionAsWindowSlides() throws Exception
+    {
+        Random random = new Random( 13 );
+        double[] values = new double[2000];
+        for( int i = 0 ; i < values.length ; i++ )
+            values[i] = Math.round( random.nextGaussian() * 100 ) / 100.0;
+
+        int windowLength = 250;
+        RollingPercentile window = new RollingPercentile( values );
+        List<Double> expected = new ArrayList<>();
+        for( int i = 0 ; i < values.length ; i++ )
+        {
+            window.add( values[i] );
+            expected.add( values[i] );
+            if( i >= windowLength )
+            {
+                window.remove( values[i - windowLength] );
+                expected.remove( 0 );
+            }
+
+            if( i % 97 == 0 )
+            {
+                double[] current = new double[expected.size()];
+                for( int j = 0 ; j < current.length ; j++ )
+                    current[j] = expected.get( j );
+                Assert.assertEquals( current.length, window.size() );
+                for( double percentile : new double[] { 1, 5, 50, 99 } )
+                {
+                    Assert.assertEquals( QuickSelectPercentile_UnitTest.sortedPercentile( current, percentile ),
+                                         window.getPercentile( percentile ), 0.0 );
+                }
+            }
+        }
+    }
+
+    public void testShouldRankDuplicates() throws Exception
+    {
+        RollingPercentile window = new RollingPercentile( new double[] { 2, 1, 2, 3 } );
+        window.add( 2 );
+        window.add( 2 );
+        window.add( 1 );
+
+        Assert.assertEquals( 1.0, window.getValue( 0 ), 0.0 );
+        Assert.assertEquals( 2.0, window.getValue( 1 ), 0.0 );
+        Assert.assertEquals( 2.0, window.getValue( 2 ), 0.0 );
+        Assert.assertTrue( Double.isNaN( new RollingPercentile( new double[] { 1 } ).getPercentile( 50 ) ) );
+    }
+
+    public void testShouldRejectValuesOutsideUniverseOrWindow() throws Exception
+    {
+        RollingPercentile window = new RollingPercentile( new double[] { 1, 2 } );
+        try
+        {
+            window.add( 3 );
+            Assert.fail( "Expected a value outside the universe to be rejected" );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // expected
+        }
+        try
+        {
+            window.remove( 1 );
+            Assert.fail( "Expected a value outside the window to be rejected" );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // expected
+        }
+    }
+}
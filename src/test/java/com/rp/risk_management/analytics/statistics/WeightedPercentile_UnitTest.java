@@ -0,0 +1,61 @@
+package com.rp.risk_management.analytics.statistics;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class WeightedPercentile_UnitTest extends TestCase
+{
+    public void testShouldSelectOrderStatisticWithUnitWeights() throws Exception
+    {
+        Random random = new Random( 21 );
+        double[] values = new double[1001];
+        for( int i = 0 ; i < values.length ; i++ )
+            values[i] = Math.floor( random.nextGaussian() * 20 );
+        double[] weights = new double[values.length];
+        Arrays.fill( weights, 1.0 );
+
+        double[] sorted = values.clone();
+        Arrays.sort( sorted );
+        for( double percentile : new double[] { 0.01, 1, 5, 37.3, 50, 99, 100 } )
+        {
+            int rank = (int) Math.max( 1, Math.ceil( percentile / 100 * values.length ) );
+            Assert.assertEquals( sorted[rank - 1], WeightedPercentile.evaluate( values, weights, percentile ), 0.0 );
+        }
+    }
+
+    public void testShouldRecoverTailOfTiltedSample() throws Exception
+    {
+        // standard normal tail sampled from N(shift, 1), weighted by exp(-shift x + shift^2 / 2)
+        int length = 20000;
+        double shift = NormalQuantile.inverseCumulativeProbability( 0.001 );
+        Random random = new Random( 22 );
+        double[] values = new double[length];
+        double[] weights = new double[length];
+        for( int i = 0 ; i < length ; i++ )
+        {
+            values[i] = random.nextGaussian() + shift;
+            weights[i] = Math.exp( -shift * values[i] + 0.5 * shift * shift );
+        }
+
+        double standardError = WeightedPercentile.standardError( values, weights, 0.1 );
+        Assert.assertEquals( shift, WeightedPercentile.evaluate( values, weights, 0.1 ), 4 * standardError );
+        // an unweighted sample of this size would have an error of about 0.024
+        Assert.assertTrue( standardError < 0.01 );
+    }
+
+    public void testShouldRejectMismatchedWeights() throws Exception
+    {
+        try
+        {
+            WeightedPercentile.evaluate( new double[] { 1, 2 }, new double[] { 1 }, 50 );
+            fail( "Expected an exception" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.rp.risk_management.analytics.volatility;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+public class EwmaVolatility_UnitTest extends TestCase
+{
+    public void testShouldUpdateInConstantTime() throws Exception
+    {
+        EwmaVolatility ewma = new EwmaVolatility( 0.94, 0.0001 );
+        ewma.update( 0.02 );
+        Assert.assertEquals( 0.94 * 0.0001 + 0.06 * 0.02 * 0.02, ewma.variance(), 1e-18 );
+        ewma.update( -0.01 );
+        Assert.assertEquals( 0.94 * ( 0.94 * 0.0001 + 0.06 * 0.02 * 0.02 ) + 0.06 * 0.01 * 0.01, ewma.variance(), 1e-18 );
+        Assert.assertEquals( Math.sqrt( ewma.variance() ), ewma.volatility(), 0.0 );
+        Assert.assertEquals( 2, ewma.getCount() );
+    }
+
+    public void testShouldReadHistoryFromOldestToMostRecent() throws Exception
+    {
+        double[] returns = { 0.03, -0.01, 0.02 };
+        EwmaVolatility history = new EwmaVolatility( 0.94, 0.0001 ).update( returns );
+        EwmaVolatility ticks = new EwmaVolatility( 0.94, 0.0001 ).update( 0.02 ).update( -0.01 ).update( 0.03 );
+        Assert.assertEquals( ticks.variance(), history.variance(), 0.0 );
+
+        history.reset( 0.0001 );
+        Assert.assertEquals( 0.0001, history.variance(), 0.0 );
+        Assert.assertEquals( 0, history.getCount() );
+    }
+
+    public void testShouldRejectInvalidLambda() throws Exception
+    {
+        try
+        {
+            new EwmaVolatility( 1.0, 0.0001 );
+            Assert.fail( "Expected lambda of 1 to be rejected" );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // expected
+        }
+    }
+}
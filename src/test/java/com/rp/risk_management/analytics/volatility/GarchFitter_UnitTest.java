@@ -0,0 +1,65 @@
+package com.rp.risk_management.analytics.volatility;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.util.Random;
+
+public class GarchFitter_UnitTest extends TestCase
+{
+    private final GarchParameters actual_ = new GarchParameters( 0.000002, 0.1, 0.85 );
+    private double[] returns_;
+
+    public void setUp() throws Exception
+    {
+        // simulate the model, oldest return first, then store most recent first
+        Random random = new Random( 7 );
+        int numberOfReturns = 4000;
+        returns_ = new double[numberOfReturns];
+        double variance = actual_.getLongRunVariance();
+        for( int i = numberOfReturns - 1 ; i >= 0 ; i-- )
+        {
+            returns_[i] = Math.sqrt( variance ) * random.nextGaussian();
+            variance = actual_.getOmega() + actual_.getAlpha() * returns_[i] * returns_[i] + actual_.getBeta() * variance;
+        }
+    }
+
+    public void testShouldRecoverSimulatedParameters() throws Exception
+    {
+        GarchParameters fitted = new GarchFitter().fit( returns_ );
+
+        Assert.assertEquals( actual_.getAlpha(), fitted.getAlpha(), 0.03 );
+        Assert.assertEquals( actual_.getBeta(), fitted.getBeta(), 0.05 );
+        Assert.assertTrue( GarchFitter.logLikelihood( fitted, returns_, returns_.length )
+                           >= GarchFitter.logLikelihood( GarchParameters.withVarianceTarget( fitted.getLongRunVariance(), 0.1, 0.85 ), returns_, returns_.length ) );
+    }
+
+    public void testShouldWarmStartFromPreviousFit() throws Exception
+    {
+        GarchFitter fitter = new GarchFitter();
+        fitter.fit( returns_, 1000 );
+        int coldIterations = fitter.getLastIterations();
+
+        fitter.fit( returns_, 1001 );
+        Assert.assertTrue( fitter.getLastIterations() < coldIterations );
+
+        fitter.reset();
+        Assert.assertNull( fitter.getLastFit() );
+    }
+
+    public void testShouldForecastFromTheFittedParameters() throws Exception
+    {
+        GarchFitter fitter = new GarchFitter();
+        double volatility = fitter.forecastVolatility( returns_, 1000 );
+        Assert.assertEquals( fitter.getLastFit().forecastVolatility( returns_, 1000 ), volatility, 0.0 );
+    }
+
+    public void testShouldForecastFromTheMostRecentReturn() throws Exception
+    {
+        double[] returns = { 0.02, -0.01 };
+        double variance = actual_.getOmega() + actual_.getAlpha() * 0.0001 + actual_.getBeta() * actual_.getLongRunVariance();
+        variance = actual_.getOmega() + actual_.getAlpha() * 0.0004 + actual_.getBeta() * variance;
+        Assert.assertEquals( variance, actual_.forecastVariance( returns, 2 ), 1e-15 );
+        Assert.assertEquals( actual_.getLongRunVariance(), actual_.forecastVariance( returns, 0 ), 0.0 );
+    }
+}
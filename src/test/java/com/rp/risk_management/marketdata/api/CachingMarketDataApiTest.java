@@ -0,0 +1,114 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.util.ResourceHelper;
+import com.rp.risk_management.util.date.SimpleDate;
+import com.rp.risk_management.util.date.SimpleDateHelper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+public class CachingMarketDataApiTest {
+    private final Stock stock_ = new Stock("AAPL");
+    private final SimpleDate from_ = new SimpleDate(2013, 3, 7);
+    private final SimpleDate to_ = new SimpleDate(2013, 12, 3);
+
+    private MarketDataApi csvMarketDataApi_;
+
+    @Before
+    public void setUp() throws Exception {
+        csvMarketDataApi_ = new CsvMarketDataApi(Collections.singletonMap(stock_, ResourceHelper.getInstance().getResource("APPLE.csv")));
+    }
+
+    @Test
+    public void testRepeatedAndOverlappingRequestsHitMemory() throws Exception {
+        CachingMarketDataApi cache = new CachingMarketDataApi(csvMarketDataApi_, 10);
+
+        List<Quote> quotes = cache.getMarketData(stock_, from_, to_);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from_, to_), quotes);
+        Assert.assertEquals(1, cache.getMissCount());
+
+        Assert.assertSame(quotes, cache.getMarketData(stock_, from_, to_));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        SimpleDate from = new SimpleDate(2013, 11, 27);
+        SimpleDate to = new SimpleDate(2013, 12, 2);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from, to), cache.getMarketData(stock_, from, to));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testCoveredRangeMatchesColdFetchOfExclusiveEndDelegate() throws Exception {
+        // ends the day before toDate, as YahooMarketDataApi does
+        MarketDataApi exclusiveEnd = new CsvMarketDataApi(Collections.singletonMap(stock_, ResourceHelper.getInstance().getResource("APPLE.csv"))) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                return super.getMarketData(stock, fromDate, SimpleDateHelper.addDays(toDate, -1), interval);
+            }
+
+            @Override
+            public boolean isEndDateInclusive() {
+                return false;
+            }
+        };
+        SimpleDate from = new SimpleDate(2013, 11, 27);
+        SimpleDate to = new SimpleDate(2013, 12, 2);
+
+        CachingMarketDataApi cache = new CachingMarketDataApi(exclusiveEnd, 10);
+        cache.getMarketData(stock_, from_, to_);
+        List<Quote> covered = cache.getMarketData(stock_, from, to);
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(new CachingMarketDataApi(exclusiveEnd, 10).getMarketData(stock_, from, to), covered);
+        Assert.assertFalse(covered.isEmpty());
+        Assert.assertNotEquals(to, covered.get(0).getSimpleDate());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        CachingMarketDataApi cache = new CachingMarketDataApi(csvMarketDataApi_, 1);
+
+        cache.getMarketData(stock_, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 11, 29));
+        cache.getMarketData(stock_, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 3, 8));
+        cache.getMarketData(stock_, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 11, 29));
+
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testPersistsToDisk() throws Exception {
+        File directory = Files.createTempDirectory("quote-cache").toFile();
+
+        List<Quote> quotes = new CachingMarketDataApi(csvMarketDataApi_, 10, directory).getMarketData(stock_, from_, to_);
+
+        CachingMarketDataApi cache = new CachingMarketDataApi(csvMarketDataApi_, 10, directory);
+        Assert.assertEquals(quotes, cache.getMarketData(stock_, from_, to_));
+        Assert.assertEquals(1, cache.getDiskHitCount());
+        Assert.assertEquals(0, cache.getMissCount());
+
+        cache.getMarketData(stock_, from_, to_);
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testKeepsRecentRangesOffDisk() throws Exception {
+        File directory = Files.createTempDirectory("quote-cache").toFile();
+        SimpleDate today = SimpleDate.ofEpochDay((int) LocalDate.now().toEpochDay());
+
+        new CachingMarketDataApi(csvMarketDataApi_, 10, directory).getMarketData(stock_, from_, today);
+
+        CachingMarketDataApi cache = new CachingMarketDataApi(csvMarketDataApi_, 10, directory);
+        cache.getMarketData(stock_, from_, today);
+        Assert.assertEquals(0, cache.getDiskHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+}
@@ -0,0 +1,97 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.QuoteSeries;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Portfolio;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.ResourceHelper;
+import com.rp.risk_management.util.date.SimpleDate;
+import com.rp.risk_management.util.model.PortfolioUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class CsvMarketDataApiTest {
+    private final Stock stock_ = new Stock("AAPL");
+    private MarketDataApi marketDataApi_;
+
+    @Before
+    public void setUp() throws Exception {
+        marketDataApi_ = new CsvMarketDataApi(Collections.singletonMap(stock_, ResourceHelper.getInstance().getResource("APPLE.csv")));
+    }
+
+    @Test
+    public void testGetQuotes() throws Exception {
+        List<Quote> quotes = marketDataApi_.getMarketData(stock_, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+        Assert.assertEquals(189, quotes.size());
+
+        Quote latest = quotes.get(0);
+        Assert.assertEquals(stock_, latest.getStock());
+        Assert.assertEquals(new SimpleDate(2013, 12, 3), latest.getSimpleDate());
+        Assert.assertEquals(558.30, latest.getOpen().doubleValue(), 0.0);
+        Assert.assertEquals(566.38, latest.getHigh().doubleValue(), 0.0);
+        Assert.assertEquals(557.68, latest.getLow().doubleValue(), 0.0);
+        Assert.assertEquals(566.32, latest.getClose().doubleValue(), 0.0);
+        Assert.assertEquals(566.32, latest.getAdjClose().doubleValue(), 0.0);
+        Assert.assertEquals(16052800L, latest.getVolume().longValue());
+
+        Quote earliest = quotes.get(quotes.size() - 1);
+        Assert.assertEquals(new SimpleDate(2013, 3, 7), earliest.getSimpleDate());
+        Assert.assertEquals(422.48, earliest.getAdjClose().doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testGetQuotesWithinRange() throws Exception {
+        List<Quote> quotes = marketDataApi_.getMarketData(stock_, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 12, 2));
+        Assert.assertEquals(3, quotes.size());
+        Assert.assertEquals(new SimpleDate(2013, 12, 2), quotes.get(0).getSimpleDate());
+        Assert.assertEquals(new SimpleDate(2013, 11, 27), quotes.get(2).getSimpleDate());
+    }
+
+    @Test
+    public void testGetQuoteVsQuotes() throws Exception {
+        SimpleDate date = new SimpleDate(2013, 11, 29);
+        Quote quote = marketDataApi_.getMarketData(stock_, date);
+        Assert.assertEquals(date, quote.getSimpleDate());
+        Assert.assertEquals(556.07, quote.getClose().doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testPortfolioUtilUsesProvider() throws Exception {
+        Position position = new Position(stock_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+        Portfolio portfolio = new Portfolio(Collections.singletonList(position), null);
+
+        List<List<Quote>> quotes = PortfolioUtil.getStockQuotes(portfolio, marketDataApi_);
+        Assert.assertEquals(1, quotes.size());
+        Assert.assertEquals(marketDataApi_.getMarketData(position), quotes.get(0));
+    }
+
+    @Test
+    public void testQuoteSeriesMatchesQuotes() throws Exception {
+        SimpleDate from = new SimpleDate(2013, 3, 7);
+        SimpleDate to = new SimpleDate(2013, 12, 3);
+        List<Quote> quotes = marketDataApi_.getMarketData(stock_, from, to);
+        QuoteSeries series = ((CsvMarketDataApi) marketDataApi_).getQuoteSeries(stock_, from, to);
+
+        Assert.assertEquals(quotes.size(), series.size());
+        for (int i = 0; i < quotes.size(); i++) {
+            Quote quote = quotes.get(i);
+            Assert.assertEquals(quote.getSimpleDate().getEpochDay(), series.getEpochDay(i));
+            Assert.assertEquals(quote.getOpen().doubleValue(), series.getOpen(i), 0.0);
+            Assert.assertEquals(quote.getHigh().doubleValue(), series.getHigh(i), 0.0);
+            Assert.assertEquals(quote.getLow().doubleValue(), series.getLow(i), 0.0);
+            Assert.assertEquals(quote.getClose().doubleValue(), series.getClose(i), 0.0);
+            Assert.assertEquals(quote.getAdjClose().doubleValue(), series.getAdjClose(i), 0.0);
+            Assert.assertEquals(quote.getVolume().longValue(), series.getVolume(i));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testOnlyDailyQuotes() throws Exception {
+        marketDataApi_.getMarketData(stock_, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3), MarketDataApi.Interval.WEEKLY);
+    }
+}
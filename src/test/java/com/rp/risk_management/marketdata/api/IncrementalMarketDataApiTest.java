@@ -0,0 +1,124 @@
+package com.rp.risk_management.marketdata.api;
+
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.util.ResourceHelper;
+import com.rp.risk_management.util.date.SimpleDate;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class IncrementalMarketDataApiTest {
+    private final Stock stock_ = new Stock("AAPL");
+    private final List<SimpleDate[]> requests_ = new ArrayList<>();
+
+    private MarketDataApi csvMarketDataApi_;
+    private MarketDataApi recordingMarketDataApi_;
+
+    @Before
+    public void setUp() throws Exception {
+        final File file = ResourceHelper.getInstance().getResource("APPLE.csv");
+        csvMarketDataApi_ = new CsvMarketDataApi(Collections.singletonMap(stock_, file));
+        recordingMarketDataApi_ = new CsvMarketDataApi(Collections.singletonMap(stock_, file)) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                requests_.add(new SimpleDate[]{fromDate, toDate});
+                return super.getMarketData(stock, fromDate, toDate, interval);
+            }
+        };
+    }
+
+    @Test
+    public void testOnlyFetchesMissingDates() throws Exception {
+        IncrementalMarketDataApi store = new IncrementalMarketDataApi(recordingMarketDataApi_);
+
+        SimpleDate from = new SimpleDate(2013, 3, 7);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from, new SimpleDate(2013, 11, 29)),
+                store.getMarketData(stock_, from, new SimpleDate(2013, 11, 29)));
+
+        // a day later the whole window is requested again
+        List<Quote> quotes = store.getMarketData(stock_, from, new SimpleDate(2013, 12, 3));
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from, new SimpleDate(2013, 12, 3)), quotes);
+        Assert.assertEquals(2, requests_.size());
+        Assert.assertEquals(new SimpleDate(2013, 11, 30), requests_.get(1)[0]);
+        Assert.assertEquals(new SimpleDate(2013, 12, 4), requests_.get(1)[1]);
+
+        // contained requests are answered from the store
+        store.getMarketData(stock_, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 12, 2));
+        Assert.assertEquals(2, store.getFetchCount());
+    }
+
+    @Test
+    public void testFillsGapBetweenRanges() throws Exception {
+        IncrementalMarketDataApi store = new IncrementalMarketDataApi(recordingMarketDataApi_);
+        store.getMarketData(stock_, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 3, 31));
+        store.getMarketData(stock_, new SimpleDate(2013, 6, 1), new SimpleDate(2013, 6, 30));
+
+        SimpleDate from = new SimpleDate(2013, 3, 7);
+        SimpleDate to = new SimpleDate(2013, 6, 30);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from, to), store.getMarketData(stock_, from, to));
+        Assert.assertEquals(3, requests_.size());
+        Assert.assertEquals(new SimpleDate(2013, 4, 1), requests_.get(2)[0]);
+        Assert.assertEquals(new SimpleDate(2013, 6, 1), requests_.get(2)[1]);
+    }
+
+    @Test
+    public void testFetchesSingleDayFromExclusiveEndDelegate() throws Exception {
+        // ends are exclusive, as for Yahoo
+        MarketDataApi exclusiveMarketDataApi = new CsvMarketDataApi(Collections.singletonMap(stock_, ResourceHelper.getInstance().getResource("APPLE.csv"))) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                SimpleDate lastDay = SimpleDate.ofEpochDay(toDate.getEpochDay() - 1);
+                return fromDate.getEpochDay() > lastDay.getEpochDay() ? new ArrayList<>() : super.getMarketData(stock, fromDate, lastDay, interval);
+            }
+        };
+        IncrementalMarketDataApi store = new IncrementalMarketDataApi(exclusiveMarketDataApi);
+
+        SimpleDate day = new SimpleDate(2013, 12, 3);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, day), store.getMarketData(stock_, day));
+        SimpleDate from = new SimpleDate(2013, 11, 25);
+        Assert.assertEquals(csvMarketDataApi_.getMarketData(stock_, from, day), store.getMarketData(stock_, from, day));
+    }
+
+    @Test
+    public void testFetchesRecentDayAgainUntilItsQuoteArrives() throws Exception {
+        SimpleDate yesterday = SimpleDate.ofEpochDay((int) LocalDate.now().toEpochDay() - 1);
+        Quote quote = new Quote(stock_, yesterday, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, 100L);
+        List<List<Quote>> responses = new ArrayList<>();
+        responses.add(new ArrayList<>());
+        responses.add(Collections.singletonList(quote));
+        MarketDataApi lateMarketDataApi = new CsvMarketDataApi(Collections.emptyMap()) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) {
+                return responses.isEmpty() ? new ArrayList<>() : responses.remove(0);
+            }
+        };
+        IncrementalMarketDataApi store = new IncrementalMarketDataApi(lateMarketDataApi);
+
+        Assert.assertTrue(store.getMarketData(stock_, yesterday, yesterday).isEmpty());
+        Assert.assertEquals(Collections.singletonList(quote), store.getMarketData(stock_, yesterday, yesterday));
+        Assert.assertEquals(Collections.singletonList(quote), store.getMarketData(stock_, yesterday, yesterday));
+        Assert.assertEquals(2, store.getFetchCount());
+    }
+
+    @Test
+    public void testPersistsToDisk() throws Exception {
+        File directory = Files.createTempDirectory("quote-store").toFile();
+        SimpleDate from = new SimpleDate(2013, 3, 7);
+        SimpleDate to = new SimpleDate(2013, 12, 3);
+
+        List<Quote> quotes = new IncrementalMarketDataApi(recordingMarketDataApi_, directory).getMarketData(stock_, from, to);
+
+        IncrementalMarketDataApi store = new IncrementalMarketDataApi(recordingMarketDataApi_, directory);
+        Assert.assertEquals(quotes, store.getMarketData(stock_, from, to));
+        Assert.assertEquals(0, store.getFetchCount());
+    }
+}
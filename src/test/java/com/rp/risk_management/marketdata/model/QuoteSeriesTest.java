@@ -0,0 +1,40 @@
+package com.rp.risk_management.marketdata.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QuoteSeriesTest {
+    private final Stock stock_ = new Stock("AAPL");
+
+    @Test
+    public void testReversesOldestFirstRows() {
+        QuoteSeries.Builder builder = new QuoteSeries.Builder(stock_, 2);
+        for (int day = 0; day < 1000; day++)
+            builder.add(day, day, day, day, day, day, day);
+
+        QuoteSeries series = builder.build();
+
+        Assert.assertEquals(1000, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            Assert.assertEquals(999 - i, series.getEpochDay(i));
+            Assert.assertEquals(999 - i, series.getClose(i), 0.0);
+            Assert.assertEquals(999 - i, series.getVolume(i));
+        }
+    }
+
+    @Test
+    public void testSortsUnorderedRowsMostRecentFirst() {
+        int[] days = {5, 9, 1, 7, 3, 9, 2};
+        QuoteSeries.Builder builder = new QuoteSeries.Builder(stock_);
+        for (int i = 0; i < days.length; i++)
+            builder.add(days[i], i, i, i, i, i, i);
+
+        QuoteSeries series = builder.build();
+
+        Assert.assertArrayEquals(new int[]{9, 9, 7, 5, 3, 2, 1}, series.copyEpochDays());
+        // rows of the same day keep the order they were added in
+        Assert.assertArrayEquals(new double[]{1, 5, 3, 0, 4, 6, 2}, series.copyCloses(), 0.0);
+        Assert.assertEquals(3, series.getVolume(2));
+        Assert.assertEquals(3.0, series.getAdjClose(2), 0.0);
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.LocalDate;
 import java.util.Calendar;
 
 public class SimpleDateTest {
@@ -20,4 +21,21 @@ public class SimpleDateTest {
         Assert.assertEquals(simpleDate1, new SimpleDate(calendar.getTime()));
         Assert.assertEquals("20151101",simpleDate1.getyyyymmdd());
     }
+
+    @Test
+    public void testEpochDay() throws Exception {
+        for (int epochDay = -800000; epochDay <= 800000; epochDay += 37) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            int yyyymmdd = date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+            Assert.assertEquals(yyyymmdd, EpochDay.toYyyyMmDd(epochDay));
+            Assert.assertEquals(epochDay, EpochDay.of(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+        }
+
+        SimpleDate simpleDate = new SimpleDate(2013, 12, 3);
+        Assert.assertEquals(LocalDate.of(2013, 12, 3).toEpochDay(), simpleDate.getEpochDay());
+        Assert.assertEquals(simpleDate, SimpleDate.ofEpochDay(simpleDate.getEpochDay()));
+        Assert.assertEquals(new SimpleDate(2014, 1, 2), new SimpleDate(2013, 13, 2));
+        Assert.assertEquals(new SimpleDate(2013, 3, 1), SimpleDateHelper.addDays(new SimpleDate(2013, 2, 28), 1));
+        Assert.assertTrue(new SimpleDate(2013, 12, 3).compareTo(new SimpleDate(2013, 12, 2)) < 0);
+    }
 }
@@ -0,0 +1,151 @@
+package com.rp.risk_management.util.model;
+
+import com.rp.risk_management.marketdata.api.CsvMarketDataApi;
+import com.rp.risk_management.marketdata.api.MarketDataApi;
+import com.rp.risk_management.marketdata.model.Quote;
+import com.rp.risk_management.marketdata.model.Stock;
+import com.rp.risk_management.model.Position;
+import com.rp.risk_management.util.ResourceHelper;
+import com.rp.risk_management.util.date.SimpleDate;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QuoteLoaderTest {
+    private final Stock apple_ = new Stock("AAPL");
+    private final Stock google_ = new Stock("GOOG");
+    private final AtomicInteger calls_ = new AtomicInteger();
+    private MarketDataApi marketDataApi_;
+
+    @Before
+    public void setUp() throws Exception {
+        File appleFile = ResourceHelper.getInstance().getResource("APPLE.csv");
+        Map<Stock, File> files = new HashMap<>();
+        files.put(apple_, appleFile);
+        files.put(google_, appleFile);
+        final CsvMarketDataApi csvMarketDataApi = new CsvMarketDataApi(files);
+
+        marketDataApi_ = new CsvMarketDataApi(files) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                calls_.incrementAndGet();
+                return csvMarketDataApi.getMarketData(stock, fromDate, toDate, interval);
+            }
+        };
+    }
+
+    @Test
+    public void testLoadsEachStockOnceInPositionOrder() throws Exception {
+        Position position1 = new Position(apple_, 1000.0, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 12, 2));
+        Position position2 = new Position(google_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+        Position position3 = new Position(apple_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 3, 8));
+
+        List<List<Quote>> quotes = new QuoteLoader(marketDataApi_, 4).load(Arrays.asList(position1, position2, position3));
+
+        Assert.assertEquals(2, calls_.get());
+        Assert.assertEquals(3, quotes.size());
+        calls_.set(0);
+        Assert.assertEquals(marketDataApi_.getMarketData(position1), quotes.get(0));
+        Assert.assertEquals(marketDataApi_.getMarketData(position2), quotes.get(1));
+        Assert.assertEquals(marketDataApi_.getMarketData(position3), quotes.get(2));
+    }
+
+    @Test
+    public void testAggregatesFailures() throws Exception {
+        Position position1 = new Position(new Stock("MSFT"), 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+        Position position2 = new Position(apple_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+        Position position3 = new Position(new Stock("IBM"), 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+
+        try {
+            new QuoteLoader(marketDataApi_, 2).load(Arrays.asList(position1, position2, position3));
+            Assert.fail("Expected the missing stocks to fail");
+        }
+        catch (RuntimeException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("MSFT"));
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("IBM"));
+            Assert.assertNotNull(ex.getCause());
+            Assert.assertEquals(1, ex.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void testLoadAsync() throws Exception {
+        Position position1 = new Position(apple_, 1000.0, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 12, 2));
+        Position position2 = new Position(google_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<CompletableFuture<List<Quote>>> futures = new QuoteLoader(marketDataApi_, 2).loadAsync(Arrays.asList(position1, position2), executor);
+            Assert.assertEquals(2, futures.size());
+            Assert.assertEquals(marketDataApi_.getMarketData(position1), futures.get(0).join());
+            Assert.assertEquals(marketDataApi_.getMarketData(position2), futures.get(1).join());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadsSingleStockOnCallingThread() throws Exception {
+        final List<Thread> threads = new ArrayList<>();
+        MarketDataApi marketDataApi = new CsvMarketDataApi(Collections.singletonMap(apple_, ResourceHelper.getInstance().getResource("APPLE.csv"))) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                threads.add(Thread.currentThread());
+                return super.getMarketData(stock, fromDate, toDate, interval);
+            }
+        };
+        Position position1 = new Position(apple_, 1000.0, new SimpleDate(2013, 11, 27), new SimpleDate(2013, 12, 2));
+        Position position2 = new Position(apple_, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 3, 8));
+
+        List<List<Quote>> quotes = new QuoteLoader(marketDataApi, 4).load(Arrays.asList(position1, position2));
+
+        Assert.assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+        Assert.assertEquals(marketDataApi_.getMarketData(position1), quotes.get(0));
+        Assert.assertEquals(marketDataApi_.getMarketData(position2), quotes.get(1));
+    }
+
+    @Test
+    public void testFetchesAtMostParallelismStocksAtOnce() throws Exception {
+        File appleFile = ResourceHelper.getInstance().getResource("APPLE.csv");
+        Map<Stock, File> files = new HashMap<>();
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Stock stock = new Stock("S" + i);
+            files.put(stock, appleFile);
+            positions.add(new Position(stock, 1000.0, new SimpleDate(2013, 3, 7), new SimpleDate(2013, 12, 3)));
+        }
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        MarketDataApi marketDataApi = new CsvMarketDataApi(files) {
+            @Override
+            public List<Quote> getMarketData(Stock stock, SimpleDate fromDate, SimpleDate toDate, Interval interval) throws Exception {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                    return super.getMarketData(stock, fromDate, toDate, interval);
+                }
+                finally {
+                    active.decrementAndGet();
+                }
+            }
+        };
+
+        List<List<Quote>> quotes = new QuoteLoader(marketDataApi, 2).load(positions);
+
+        Assert.assertEquals(6, quotes.size());
+        Assert.assertTrue(String.valueOf(maxActive.get()), maxActive.get() <= 2);
+    }
+}